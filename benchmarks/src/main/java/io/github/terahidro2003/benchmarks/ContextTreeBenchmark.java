@@ -0,0 +1,82 @@
+package io.github.terahidro2003.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.terahidro2003.cct.builder.IterativeContextTreeBuilder;
+import io.github.terahidro2003.cct.builder.VmContextTreeBuilder;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+
+/**
+ * End to end construction of the context call trees of a testcase, from the recordings to the merged tree
+ * with measurements, as done after a measurement run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+@State(Scope.Benchmark)
+public class ContextTreeBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class IterativeThreads {
+        /**
+         * Number of threads of the iterative builder; 1 builds the partial trees sequentially.
+         */
+        @Param({"1", "4"})
+        public int threads;
+    }
+
+    private List<File> vmRecordings;
+    private Path iterativeDirectory;
+    private List<File> iterativeRecordings;
+
+    @Setup
+    public void setup() throws IOException {
+        vmRecordings = Recordings.vmRecordings(2);
+        iterativeDirectory = Files.createTempDirectory("sjsw-benchmark");
+        iterativeRecordings = Recordings.copyIterativeRecordings(iterativeDirectory);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteResults() {
+        Recordings.deleteFiles(iterativeDirectory, ".json");
+    }
+
+    @TearDown
+    public void tearDown() {
+        Recordings.deleteDirectory(iterativeDirectory);
+    }
+
+    @Benchmark
+    public StackTraceTreeNode vmContextTree() {
+        return new VmContextTreeBuilder().buildTree(vmRecordings, Recordings.VM_COMMIT, vmRecordings.size(),
+                Recordings.TESTCASE, false);
+    }
+
+    @Benchmark
+    public StackTraceTreeNode iterativeContextTree(IterativeThreads iterativeThreads) throws IOException {
+        int threads = iterativeThreads.threads;
+        return new IterativeContextTreeBuilder().buildTree(iterativeRecordings, Recordings.ITERATIVE_COMMIT,
+                Recordings.TESTCASE, false, threads > 1, threads);
+    }
+}
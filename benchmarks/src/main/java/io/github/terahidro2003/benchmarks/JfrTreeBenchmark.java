@@ -0,0 +1,71 @@
+package io.github.terahidro2003.benchmarks;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmc.flightrecorder.stacktrace.tree.StacktraceTreeModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.terahidro2003.cct.SamplerResultsProcessor;
+import io.github.terahidro2003.cct.TreeUtils;
+import io.github.terahidro2003.cct.builder.JfrTreeBuilder;
+import io.github.terahidro2003.cct.builder.StackTraceModelTreeBuilder;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+
+/**
+ * Construction of a call tree from a single recording: loading and aggregating the JFR with JMC, and
+ * converting the aggregated JMC model into a {@link StackTraceTreeNode} tree. The testcase tree is built both
+ * through the JMC model and in a single pass with {@link JfrTreeBuilder}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+@State(Scope.Benchmark)
+public class JfrTreeBenchmark {
+
+    private SamplerResultsProcessor processor;
+    private List<File> recording;
+    private StacktraceTreeModel model;
+
+    @Setup
+    public void setup() {
+        processor = new SamplerResultsProcessor();
+        recording = Recordings.vmRecordings(1);
+        model = processor.jfrToStacktraceGraph(recording);
+    }
+
+    @Benchmark
+    public StackTraceTreeNode getTreeFromJfr() {
+        return processor.getTreeFromJfr(recording);
+    }
+
+    @Benchmark
+    public StackTraceTreeNode buildFromStacktraceTreeModel() {
+        return StackTraceModelTreeBuilder.buildFromStacktraceTreeModel(model);
+    }
+
+    @Benchmark
+    public StackTraceTreeNode testcaseTreeFromStacktraceTreeModel() {
+        StackTraceTreeNode tree = processor.getTreeFromJfr(recording);
+        StackTraceTreeNode testcaseTree = TreeUtils.mergeTrees(TreeUtils.filterMultiple(Recordings.TESTCASE, tree, false));
+        testcaseTree.setParent(null);
+        return TreeUtils.filterJvmNodes(testcaseTree);
+    }
+
+    @Benchmark
+    public StackTraceTreeNode testcaseTreeInSinglePass() {
+        return new JfrTreeBuilder(Recordings.TESTCASE, true).buildFromJfr(recording.get(0));
+    }
+}
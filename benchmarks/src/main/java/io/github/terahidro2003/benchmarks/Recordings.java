@@ -0,0 +1,111 @@
+package io.github.terahidro2003.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Locates the recordings bundled with the SJSW test resources. The directory is taken from the system property
+ * <code>sjsw.resources</code>; otherwise <code>src/test/resources</code> is searched relative to the working
+ * directory and its parent, so the benchmarks can be started from the repository root or from this module.
+ */
+final class Recordings {
+
+    static final String RESOURCES_PROPERTY = "sjsw.resources";
+
+    static final String TESTCASE = "testMe()";
+    static final String VM_COMMIT = "1111";
+    static final String ITERATIVE_COMMIT = "55bbfafd67ee1f7dc721ea945714a324708787c6";
+
+    private Recordings() {
+    }
+
+    static File resourcesDirectory() {
+        String configured = System.getProperty(RESOURCES_PROPERTY);
+        if (configured != null) {
+            return existingDirectory(new File(configured));
+        }
+        for (String candidate : List.of("src/test/resources", "../src/test/resources")) {
+            File directory = new File(candidate);
+            if (new File(directory, "1111_1.jfr").isFile()) {
+                return directory;
+            }
+        }
+        throw new IllegalStateException("Bundled recordings not found, set -D" + RESOURCES_PROPERTY + "=<sjsw>/src/test/resources");
+    }
+
+    /**
+     * The recordings <code>1111_1.jfr</code> to <code>1111_&lt;vms&gt;.jfr</code>, one per VM.
+     */
+    static List<File> vmRecordings(int vms) {
+        List<File> recordings = new ArrayList<>();
+        for (int i = 1; i <= vms; i++) {
+            recordings.add(existingFile(new File(resourcesDirectory(), VM_COMMIT + "_" + i + ".jfr")));
+        }
+        return recordings;
+    }
+
+    /**
+     * Copies the iteration recordings of {@link #ITERATIVE_COMMIT} to a temporary directory, since the iterative
+     * builder writes its result next to the recordings.
+     */
+    static List<File> copyIterativeRecordings(Path target) {
+        File[] recordings = new File(resourcesDirectory(), "iterativeSamples")
+                .listFiles((dir, name) -> name.contains(ITERATIVE_COMMIT) && name.endsWith(".jfr"));
+        List<File> copies = new ArrayList<>();
+        for (File recording : Objects.requireNonNull(recordings)) {
+            try {
+                Path copy = target.resolve(recording.getName());
+                Files.copy(recording.toPath(), copy, StandardCopyOption.REPLACE_EXISTING);
+                copies.add(copy.toFile());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        copies.sort(Comparator.comparing(File::getName));
+        return copies;
+    }
+
+    static void deleteFiles(Path directory, String suffix) {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(suffix)) {
+                    Files.delete(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void deleteDirectory(Path directory) {
+        deleteFiles(directory, "");
+        try {
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static File existingDirectory(File directory) {
+        if (!directory.isDirectory()) {
+            throw new IllegalStateException("Not a directory: " + directory.getAbsolutePath());
+        }
+        return directory;
+    }
+
+    private static File existingFile(File file) {
+        if (!file.isFile()) {
+            throw new IllegalStateException("Recording not found: " + file.getAbsolutePath());
+        }
+        return file;
+    }
+}
@@ -0,0 +1,102 @@
+package io.github.terahidro2003.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmc.flightrecorder.stacktrace.tree.StacktraceTreeModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.terahidro2003.cct.SamplerResultsProcessor;
+import io.github.terahidro2003.cct.TreeUtils;
+import io.github.terahidro2003.cct.builder.StackTraceModelTreeBuilder;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+
+/**
+ * Filtering and merging of call trees built from the bundled recordings. Filtering the JVM nodes and merging
+ * modify the trees in place, so these benchmarks get freshly built trees for every invocation; building them is
+ * not part of the measurement.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class TreeOperationsBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Models {
+        final List<StacktraceTreeModel> models = new ArrayList<>();
+
+        @Setup
+        public void setup() {
+            SamplerResultsProcessor processor = new SamplerResultsProcessor();
+            Recordings.vmRecordings(2).forEach(recording -> models.add(processor.jfrToStacktraceGraph(List.of(recording))));
+        }
+
+        StackTraceTreeNode tree(int index) {
+            return StackTraceModelTreeBuilder.buildFromStacktraceTreeModel(models.get(index));
+        }
+
+        StackTraceTreeNode testcaseTree(int index) {
+            StackTraceTreeNode testcaseTree = TreeUtils.mergeTrees(TreeUtils.filterMultiple(Recordings.TESTCASE, tree(index), false));
+            testcaseTree.setParent(null);
+            return testcaseTree;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Tree {
+        StackTraceTreeNode tree;
+
+        @Setup
+        public void setup(Models models) {
+            tree = models.tree(0);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ModifiableTree {
+        StackTraceTreeNode tree;
+
+        @Setup(Level.Invocation)
+        public void setup(Models models) {
+            tree = models.tree(0);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ModifiableVmTrees {
+        List<StackTraceTreeNode> vmTrees;
+
+        @Setup(Level.Invocation)
+        public void setup(Models models) {
+            vmTrees = List.of(models.testcaseTree(0), models.testcaseTree(1));
+        }
+    }
+
+    @Benchmark
+    public List<StackTraceTreeNode> filterMultiple(Tree tree) {
+        return TreeUtils.filterMultiple(Recordings.TESTCASE, tree.tree, false);
+    }
+
+    @Benchmark
+    public StackTraceTreeNode filterJvmNodes(ModifiableTree tree) {
+        return TreeUtils.filterJvmNodes(tree.tree);
+    }
+
+    @Benchmark
+    public StackTraceTreeNode mergeTrees(ModifiableVmTrees trees) {
+        return TreeUtils.mergeTrees(trees.vmTrees);
+    }
+}
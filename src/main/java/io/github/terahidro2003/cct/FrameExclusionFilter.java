@@ -0,0 +1,251 @@
+package io.github.terahidro2003.cct;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+
+import io.github.terahidro2003.cct.result.SignatureTable;
+import io.github.terahidro2003.config.Config;
+
+/**
+ * Decides which frames are left out of a call tree, together with the frames they call. Patterns are written as
+ * <ul>
+ * <li><code>prefix:io.netty.</code>: the qualified method name (class and method, without return type and
+ * parameters) starts with the text,</li>
+ * <li><code>glob:*$$SpringCGLIB$$*</code>: the qualified method name matches the glob, where <code>*</code>
+ * matches any text and <code>?</code> a single character,</li>
+ * <li><code>regex:...</code>: the regular expression is found in the signature,</li>
+ * <li>anything else: the signature contains the text, as in {@link #JVM_NODES}.</li>
+ * </ul>
+ * All texts are compiled into one Aho-Corasick automaton and all prefixes into one trie, and globs and regular
+ * expressions into one alternation, so a signature is scanned once regardless of the number of patterns.
+ * Instances are immutable and thread safe.
+ */
+public final class FrameExclusionFilter {
+
+    public static final String PREFIX = "prefix:";
+    public static final String GLOB = "glob:";
+    public static final String REGEX = "regex:";
+
+    /**
+     * The common JVM and native frames, which are always excluded; configured exclusions are added to them.
+     */
+    public static final FrameExclusionFilter JVM_NODES = compile(
+            "libjvm.so",
+            "JVM_SLEEP",
+            "PlatformEvent::",
+            "::PlatformEvent",
+            "libc.so",
+            "jdk.internal"
+    );
+
+    private final List<String> patterns;
+    private final Trie contained;
+    private final Trie prefixes;
+    private final Pattern globs;
+    private final Pattern regexes;
+
+    private FrameExclusionFilter(List<String> patterns) {
+        this.patterns = Collections.unmodifiableList(patterns);
+
+        List<String> texts = new ArrayList<>();
+        List<String> prefixTexts = new ArrayList<>();
+        List<String> globPatterns = new ArrayList<>();
+        List<String> regexPatterns = new ArrayList<>();
+        for (String pattern : this.patterns) {
+            if (pattern == null || pattern.isEmpty()) {
+                continue;
+            } else if (pattern.startsWith(PREFIX)) {
+                prefixTexts.add(pattern.substring(PREFIX.length()));
+            } else if (pattern.startsWith(GLOB)) {
+                globPatterns.add(globToRegex(pattern.substring(GLOB.length())));
+            } else if (pattern.startsWith(REGEX)) {
+                regexPatterns.add("(?:" + pattern.substring(REGEX.length()) + ")");
+            } else {
+                texts.add(pattern);
+            }
+        }
+        this.contained = texts.isEmpty() ? null : Trie.withFailureLinks(texts);
+        this.prefixes = prefixTexts.isEmpty() ? null : new Trie(prefixTexts);
+        this.globs = globPatterns.isEmpty() ? null : Pattern.compile(String.join("|", globPatterns));
+        this.regexes = regexPatterns.isEmpty() ? null : Pattern.compile(String.join("|", regexPatterns));
+    }
+
+    public static FrameExclusionFilter compile(Collection<String> patterns) {
+        return new FrameExclusionFilter(new ArrayList<>(patterns));
+    }
+
+    public static FrameExclusionFilter compile(String... patterns) {
+        return new FrameExclusionFilter(new ArrayList<>(Arrays.asList(patterns)));
+    }
+
+    /**
+     * The common JVM and native frames together with the exclusions configured in the config.
+     */
+    public static FrameExclusionFilter of(Config config) {
+        if (config == null || config.frameExclusions() == null || config.frameExclusions().isEmpty()) {
+            return JVM_NODES;
+        }
+        Set<String> patterns = new LinkedHashSet<>(JVM_NODES.getPatterns());
+        patterns.addAll(config.frameExclusions());
+        return compile(patterns);
+    }
+
+    public List<String> getPatterns() {
+        return patterns;
+    }
+
+    public boolean excludes(String signature) {
+        if (signature == null) {
+            return false;
+        }
+        if (contained != null && contained.occursIn(signature)) {
+            return true;
+        }
+        if (prefixes == null && globs == null && regexes == null) {
+            return false;
+        }
+        String qualifiedName = qualifiedName(signature);
+        return (prefixes != null && prefixes.isPrefixOf(qualifiedName))
+                || (globs != null && globs.matcher(qualifiedName).matches())
+                || (regexes != null && regexes.matcher(signature).find());
+    }
+
+    /**
+     * Returns a {@link SignatureMatcher} of the excluded {@link SignatureTable} ids, which evaluates each signature
+     * only once. It is not thread safe and is meant to be used for a single traversal.
+     */
+    public IntPredicate signatureMatcher() {
+        return new SignatureMatcher(this::excludes);
+    }
+
+    /**
+     * Class and method name of a signature like <code>void java.lang.Thread.run()</code>.
+     */
+    static String qualifiedName(String signature) {
+        int parameters = signature.indexOf('(');
+        int end = parameters < 0 ? signature.length() : parameters;
+        int start = signature.lastIndexOf(' ', end - 1) + 1;
+        return signature.substring(start, end);
+    }
+
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder("(?:");
+        int literalStart = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (literalStart < i) {
+                    regex.append(Pattern.quote(glob.substring(literalStart, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                literalStart = i + 1;
+            }
+        }
+        if (literalStart < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(literalStart)));
+        }
+        return regex.append(")").toString();
+    }
+
+    /**
+     * Character trie of the patterns. With failure links it is an Aho-Corasick automaton that finds any pattern
+     * anywhere in a text in a single scan; without them it only matches patterns at the start of a text.
+     */
+    private static final class Trie {
+        private final List<Map<Character, Integer>> transitions = new ArrayList<>();
+        private final List<Boolean> terminal = new ArrayList<>();
+        private int[] failure;
+
+        Trie(List<String> patterns) {
+            addState();
+            for (String pattern : patterns) {
+                int state = 0;
+                for (int i = 0; i < pattern.length(); i++) {
+                    Integer next = transitions.get(state).get(pattern.charAt(i));
+                    if (next == null) {
+                        next = addState();
+                        transitions.get(state).put(pattern.charAt(i), next);
+                    }
+                    state = next;
+                }
+                terminal.set(state, true);
+            }
+        }
+
+        static Trie withFailureLinks(List<String> patterns) {
+            Trie trie = new Trie(patterns);
+            trie.failure = new int[trie.transitions.size()];
+            Queue<Integer> queue = new ArrayDeque<>(trie.transitions.get(0).values());
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                for (Map.Entry<Character, Integer> transition : trie.transitions.get(state).entrySet()) {
+                    int child = transition.getValue();
+                    int fallback = trie.failure[state];
+                    while (fallback != 0 && !trie.transitions.get(fallback).containsKey(transition.getKey())) {
+                        fallback = trie.failure[fallback];
+                    }
+                    Integer target = trie.transitions.get(fallback).get(transition.getKey());
+                    trie.failure[child] = target == null || target == child ? 0 : target;
+                    // a state also ends a pattern if one of its suffixes does
+                    if (trie.terminal.get(trie.failure[child])) {
+                        trie.terminal.set(child, true);
+                    }
+                    queue.add(child);
+                }
+            }
+            return trie;
+        }
+
+        private int addState() {
+            transitions.add(new HashMap<>(4));
+            terminal.add(false);
+            return transitions.size() - 1;
+        }
+
+        boolean occursIn(String text) {
+            if (terminal.get(0)) {
+                return true;
+            }
+            int state = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                Integer next = transitions.get(state).get(c);
+                while (next == null && state != 0) {
+                    state = failure[state];
+                    next = transitions.get(state).get(c);
+                }
+                state = next == null ? 0 : next;
+                if (terminal.get(state)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean isPrefixOf(String text) {
+            int state = 0;
+            for (int i = 0; !terminal.get(state); i++) {
+                if (i == text.length()) {
+                    return false;
+                }
+                Integer next = transitions.get(state).get(text.charAt(i));
+                if (next == null) {
+                    return false;
+                }
+                state = next;
+            }
+            return true;
+        }
+    }
+}
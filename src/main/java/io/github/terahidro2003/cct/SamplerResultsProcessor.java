@@ -1,17 +1,18 @@
 package io.github.terahidro2003.cct;
 
+import io.github.terahidro2003.cct.builder.IterationTreePipeline;
 import io.github.terahidro2003.cct.builder.StackTraceModelTreeBuilder;
+import io.github.terahidro2003.cct.jfr.ExecutionSample;
+import io.github.terahidro2003.cct.jfr.JfrRecordingReader;
+import io.github.terahidro2003.cct.jfr.StackTraceFrameFilter;
 import io.github.terahidro2003.cct.result.StackTraceTreeNode;
 import io.github.terahidro2003.config.Config;
 import io.github.terahidro2003.measurement.executor.asprof.AsyncProfilerHelper;
 import io.github.terahidro2003.utils.FileUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.openjdk.jmc.common.item.IItemCollection;
-import org.openjdk.jmc.common.item.IItemFilter;
-import org.openjdk.jmc.common.item.ItemFilters;
 import org.openjdk.jmc.flightrecorder.CouldNotLoadRecordingException;
 import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
-import org.openjdk.jmc.flightrecorder.jdk.JdkAttributes;
 import org.openjdk.jmc.flightrecorder.jdk.JdkFilters;
 import org.openjdk.jmc.flightrecorder.stacktrace.FrameSeparator;
 import org.openjdk.jmc.flightrecorder.stacktrace.tree.StacktraceTreeModel;
@@ -35,8 +36,9 @@ public class SamplerResultsProcessor {
             IItemCollection items = JfrLoaderToolkit.loadEvents(jfrs);
             IItemCollection filteredItems = items.apply(JdkFilters.EXECUTION_SAMPLE);
             if(rootMethod.length > 0) {
-                IItemFilter rootMethodFilter = ItemFilters.contains(JdkAttributes.STACK_TRACE_STRING, rootMethod[0]);
-                filteredItems = items.apply(rootMethodFilter);
+                // samples without the root method are dropped before they are aggregated
+                StackTraceFrameFilter rootMethodFilter = StackTraceFrameFilter.methodContains(rootMethod[0]);
+                filteredItems = filteredItems.apply(rootMethodFilter);
             }
             FrameSeparator frameSeparator = new FrameSeparator(FrameSeparator.FrameCategorization.METHOD, false);
             return new StacktraceTreeModel(filteredItems, frameSeparator);
@@ -91,13 +93,20 @@ public class SamplerResultsProcessor {
         return TreeUtils.search(testcase, bat);
     }
 
+    /**
+     * Reads the execution samples of a JFR file in-process, without exporting the recording to JSON first.
+     */
+    public List<ExecutionSample> readSamplesFromJFR(File file) throws IOException {
+        return JfrRecordingReader.readExecutionSamples(file);
+    }
+
     public File extractSamplesFromJFR(File file, String jsonFileName, Config config) throws IOException {
         log.info("Extracting samples from jfr file {}", file.getName());
 
         // retrieve samples from JFR file
         List<String> command = new ArrayList<>();
 
-        command.add("./jfr");
+        command.add(Path.of(System.getProperty("java.home"), "bin", "jfr").toString());
         command.add("print");
         command.add("--json");
         command.add("--categories");
@@ -107,7 +116,6 @@ public class SamplerResultsProcessor {
         command.add(file.getAbsolutePath());
 
         ProcessBuilder processBuilder = new ProcessBuilder(command);
-        processBuilder.directory(new File("/Users/juozas/Library/Java/JavaVirtualMachines/openjdk-22.0.1/Contents/Home/bin"));
         Process process = processBuilder.start();
         InputStream processInputStream = process.getInputStream();
         String jfr_json = AsyncProfilerHelper.getInstance(config).rawProfilerOutput(jsonFileName).getAbsolutePath();
@@ -117,6 +125,18 @@ public class SamplerResultsProcessor {
     }
 
     public void processIterationMeasurementFiles(File resultPath, int vm, String commit) {
+        processIterationMeasurementFiles(resultPath, vm, commit, null);
+    }
+
+    /**
+     * Renames the unprocessed iteration files once the pipeline, which may still be reading them, is done.
+     *
+     * @param pipeline pipeline the iteration files were submitted to, or null if there is none
+     * @return the merged tree of the pipeline, or null if there is no pipeline
+     */
+    public StackTraceTreeNode processIterationMeasurementFiles(File resultPath, int vm, String commit,
+                                                               IterationTreePipeline pipeline) {
+        StackTraceTreeNode iterationTree = pipeline == null ? null : pipeline.awaitTree();
         if (!resultPath.exists()) {
             throw new IllegalArgumentException("Result path " + resultPath + " does not exist");
         }
@@ -124,7 +144,7 @@ public class SamplerResultsProcessor {
         List<File> unprocessedJfrs = listJfrMeasurementFiles(resultPath.toPath(), List.of("unprocessed"));
         if(unprocessedJfrs.isEmpty()) {
            log.error("No unprocessed iterative measurements identified.");
-           return;
+           return iterationTree;
         }
 
         for (int i = 0; i < unprocessedJfrs.size(); i++) {
@@ -138,5 +158,6 @@ public class SamplerResultsProcessor {
                 log.error("Something went wrong while renaming partial result JFR file");
             }
         }
+        return iterationTree;
     }
 }
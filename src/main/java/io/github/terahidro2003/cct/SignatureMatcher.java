@@ -0,0 +1,57 @@
+package io.github.terahidro2003.cct;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+import io.github.terahidro2003.cct.result.SignatureTable;
+
+/**
+ * Match of method signatures, memoized per signature id. A tree contains millions of nodes
+ * but only a few thousand distinct signatures, so each signature is only scanned once.
+ * Instances are not thread safe and are meant to be used for a single traversal.
+ */
+public class SignatureMatcher implements IntPredicate {
+    private static final byte UNKNOWN = 0;
+    private static final byte MATCH = 1;
+    private static final byte NO_MATCH = 2;
+
+    private final Predicate<String> signatureMatches;
+    private byte[] results = new byte[256];
+
+    /**
+     * Matches the signatures that contain the text.
+     */
+    public SignatureMatcher(String searchableContent) {
+        this(signature -> signature.contains(searchableContent));
+    }
+
+    /**
+     * Matches the signatures the predicate accepts; nodes without a signature never match.
+     */
+    public SignatureMatcher(Predicate<String> signatureMatches) {
+        this.signatureMatches = signatureMatches;
+    }
+
+    public boolean matches(int methodId) {
+        if (methodId == SignatureTable.NO_SIGNATURE) {
+            return false;
+        }
+
+        if (methodId >= results.length) {
+            results = Arrays.copyOf(results, Math.max(results.length * 2, methodId + 1));
+        }
+
+        byte result = results[methodId];
+        if (result == UNKNOWN) {
+            result = signatureMatches.test(SignatureTable.lookup(methodId)) ? MATCH : NO_MATCH;
+            results[methodId] = result;
+        }
+        return result == MATCH;
+    }
+
+    @Override
+    public boolean test(int methodId) {
+        return matches(methodId);
+    }
+}
@@ -1,10 +1,13 @@
 package io.github.terahidro2003.cct;
 
-import com.fasterxml.jackson.core.exc.StreamWriteException;
-import com.fasterxml.jackson.databind.DatabindException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.terahidro2003.cct.io.BinaryCctReader;
+import io.github.terahidro2003.cct.io.BinaryCctWriter;
+import io.github.terahidro2003.cct.io.StackTraceTreeJsonWriter;
+import io.github.terahidro2003.cct.result.CallPath;
+import io.github.terahidro2003.cct.result.OnlineStatistics;
+import io.github.terahidro2003.cct.result.SignatureTable;
 import io.github.terahidro2003.cct.result.StackTraceTreeNode;
-import io.github.terahidro2003.config.Constants;
+import io.github.terahidro2003.cct.result.VmMeasurement;
 import lombok.NonNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,129 +15,112 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
 
 public class TreeUtils {
     public static final Logger log = LoggerFactory.getLogger(TreeUtils.class);
 
     public static StackTraceTreeNode search(StackTraceTreeNode searchable, StackTraceTreeNode tree) {
-        Stack<StackTraceTreeNode> stack = new Stack<>();
-        stack.push(tree);
-
-        while (!stack.isEmpty()) {
-            StackTraceTreeNode currentNode = stack.pop();
-
-            if(searchable.equals(currentNode)) {
-                return currentNode;
-            }
-
-            for (StackTraceTreeNode child : currentNode.getChildren()) {
-                if (child != null) {
-                    stack.push(child);
-                }
-            }
-        }
-
-        return null;
+        return TreeWalker.find(tree, searchable::equals);
     }
 
+    /**
+     * Finds the first node in pre-order whose method name contains the given content. The last child of a node is
+     * visited first, so of two matching siblings the later one is found.
+     */
     public static StackTraceTreeNode search(String searchableContent, StackTraceTreeNode tree) {
-        Stack<StackTraceTreeNode> stack = new Stack<>();
-        stack.push(tree);
-
-        while (!stack.isEmpty()) {
-            StackTraceTreeNode currentNode = stack.pop();
-
-            if(currentNode.getPayload().getMethodName().contains(searchableContent)) {
-                return currentNode;
-            }
-
-            for (StackTraceTreeNode child : currentNode.getChildren()) {
-                if (child != null) {
-                    stack.push(child);
-                }
-            }
-        }
-
-        return null;
+        SignatureMatcher matcher = new SignatureMatcher(searchableContent);
+        return TreeWalker.find(tree, node -> matcher.matches(node.getMethodId()), true);
     }
 
     public static StackTraceTreeNode search(List<String> searchableContent, StackTraceTreeNode tree) {
-        Stack<StackTraceTreeNode> stack = new Stack<>();
-        stack.push(tree);
-
-        while (!stack.isEmpty()) {
-            StackTraceTreeNode currentNode = stack.pop();
+        return search(CallPath.of(searchableContent), tree);
+    }
 
-            if(currentNode.getParentMethodNames().equals(searchableContent)) {
-                return currentNode;
+    /**
+     * Finds the node whose path (topmost ancestor first) equals the given path.
+     * Only subtrees whose root lies on the path are visited.
+     */
+    public static StackTraceTreeNode search(CallPath path, StackTraceTreeNode tree) {
+        StackTraceTreeNode[] found = new StackTraceTreeNode[1];
+        TreeWalker.walk(tree, (currentNode, walkDepth) -> {
+            int depth = currentNode.getDepth();
+            if (depth >= path.size() || currentNode.getMethodId() != path.getMethodId(depth)) {
+                return TreeWalker.Action.SKIP_SUBTREE;
             }
 
-            for (StackTraceTreeNode child : currentNode.getChildren()) {
-                if (child != null) {
-                    stack.push(child);
+            if(depth == path.size() - 1) {
+                if (currentNode.hasPath(path)) {
+                    found[0] = currentNode;
+                    return TreeWalker.Action.TERMINATE;
                 }
+                return TreeWalker.Action.SKIP_SUBTREE;
             }
-        }
-
-        return null;
+            return TreeWalker.Action.CONTINUE;
+        });
+        return found[0];
     }
 
+    /**
+     * All nodes whose method name contains the given content, nested matches included, in pre-order with the last
+     * child of a node visited first. {@link #mergeTrees} keeps the root of the last tree, so this order decides which
+     * testcase tree is kept when the matches have different signatures.
+     */
     public static List<StackTraceTreeNode> filterMultiple(String searchableContent,
                                                           StackTraceTreeNode tree,
                                                           Boolean strict) {
         List<StackTraceTreeNode> filteredSubtrees = new ArrayList<>();
-        Stack<StackTraceTreeNode> stack = new Stack<>();
-        stack.push(tree);
-
-        while (!stack.isEmpty()) {
-            StackTraceTreeNode currentNode = stack.pop();
-
-            if(currentNode.getPayload().getMethodName().contains(searchableContent) && !strict) {
+        SignatureMatcher matcher = new SignatureMatcher(searchableContent);
+        TreeWalker.forEach(tree, currentNode -> {
+            if(!strict && matcher.matches(currentNode.getMethodId())) {
                 log.info("Found testcase method subtree for {}", currentNode.getPayload().getMethodName());
                 filteredSubtrees.add(currentNode);
             }
-
-            for (StackTraceTreeNode child : currentNode.getChildren()) {
-                if (child != null) {
-                    stack.push(child);
-                }
-            }
-        }
+        }, true);
 
         return filteredSubtrees;
     }
 
+    /**
+     * Removes the {@link FrameExclusionFilter#JVM_NODES common JVM and native frames} together with their subtrees.
+     */
     public static StackTraceTreeNode filterJvmNodes(StackTraceTreeNode root) {
-        List<String> exclude = List.of(
-                "libjvm.so",
-                "JVM_SLEEP",
-                "PlatformEvent::",
-                "::PlatformEvent",
-                "libc.so",
-                "jdk.internal"
-        );
-        return filterJvmNodesRecursive(root, exclude);
+        return filterFrames(root, FrameExclusionFilter.JVM_NODES);
     }
 
+    /**
+     * Removes the nodes whose method name contains one of the texts together with their subtrees.
+     *
+     * @deprecated use {@link #filterFrames(StackTraceTreeNode, FrameExclusionFilter)}, which evaluates every
+     * signature only once
+     */
+    @Deprecated
     public static StackTraceTreeNode filterJvmNodesRecursive(StackTraceTreeNode callee, List<String> exclude) {
-        for (var toExclude : exclude) {
-            if(callee.getPayload().getMethodName().contains(toExclude))
-            {
-                return null;
-            }
-        }
+        return filterFrames(callee, FrameExclusionFilter.compile(exclude));
+    }
 
-        var children = callee.getChildren();
-        List<StackTraceTreeNode> newChildren = new ArrayList<>();
-        for (var child : children) {
-            StackTraceTreeNode childNode = filterJvmNodesRecursive(child, exclude);
-            if (child != null && childNode != null) {
-                newChildren.add(childNode);
-            }
+    /**
+     * Removes the excluded nodes together with their subtrees. Every signature is only evaluated once.
+     *
+     * @return the root, or null if the root itself is excluded
+     */
+    public static StackTraceTreeNode filterFrames(StackTraceTreeNode root, FrameExclusionFilter exclusions) {
+        IntPredicate excluded = exclusions.signatureMatcher();
+        if (excluded.test(root.getMethodId())) {
+            return null;
         }
-        callee.setChildren(newChildren);
-        return callee;
+        // the children of a node are replaced when it is entered, so only the kept children are walked
+        TreeWalker.forEach(root, node -> {
+            List<StackTraceTreeNode> newChildren = new ArrayList<>();
+            for (StackTraceTreeNode child : node.getChildren()) {
+                if (child != null && !excluded.test(child.getMethodId())) {
+                    newChildren.add(child);
+                }
+            }
+            node.setChildren(newChildren);
+        });
+        return root;
     }
 
     public static StackTraceTreeNode mergeTrees(List<StackTraceTreeNode> trees) {
@@ -149,22 +135,25 @@ public class TreeUtils {
 
         trees = trees.stream().filter(Objects::nonNull).collect(Collectors.toCollection(ArrayList::new));
 
+        if (trees.isEmpty()) {
+            log.warn("Supplied tree list only contained null trees");
+            return null;
+        }
+
         if (trees.size() == 1) {
             log.info("Only one subtree was provided. Returning only one subtree as merged tree.");
             return trees.get(0);
         }
 
         log.info("Obtaining root signatures for mergable tree root node equality check");
-        List<String> rootSignatures = new ArrayList<>();
-        for (StackTraceTreeNode tree : trees) {
-            rootSignatures.add(tree.getPayload().getMethodName());
-        }
-        String previousSignature = rootSignatures.get(0);
+        int previousSignature = trees.get(0).getMethodId();
         List<String> unequalSignatures = new ArrayList<>();
-        for (String signature : rootSignatures) {
-            if(!previousSignature.equals(signature)) {
-                unequalSignatures.add(signature);
-                log.error("One or more of the root signatures are not equal! Previous: {}, was: {}", previousSignature, signature);
+        for (StackTraceTreeNode tree : trees) {
+            int signature = tree.getMethodId();
+            if(previousSignature != signature) {
+                unequalSignatures.add(SignatureTable.lookup(signature));
+                log.error("One or more of the root signatures are not equal! Previous: {}, was: {}",
+                        SignatureTable.lookup(previousSignature), SignatureTable.lookup(signature));
             }
             previousSignature = signature;
         }
@@ -172,90 +161,200 @@ public class TreeUtils {
         if(!unequalSignatures.isEmpty()) {
             log.info("Unequal signatures detected: {}", unequalSignatures);
             log.info("Attempting to remove unequal root nodes");
-            String finalPreviousSignature = previousSignature;
+            int finalPreviousSignature = previousSignature;
             List<StackTraceTreeNode> toDelete = trees.stream()
-                    .filter(t -> !Objects.equals(t.getPayload().getMethodName(), finalPreviousSignature))
+                    .filter(t -> t.getMethodId() != finalPreviousSignature)
                     .collect(Collectors.toCollection(ArrayList::new));
             trees.removeAll(toDelete);
             log.info("Amount of subtrees removed {}", trees.size());
         }
 
+        trees = withoutNestedTrees(trees);
+
         StackTraceTreeNode firstTree = trees.get(0);
-        if (firstTree == null) {
-            throw new RuntimeException("First tree cannot be null");
+
+        for (int i = 1; i < trees.size(); i++) {
+            mergeInto(firstTree, trees.get(i));
         }
+        return firstTree;
+    }
 
-        Map<String, StackTraceTreeNode> mergedChildren = new HashMap<>();
-        for (StackTraceTreeNode child : firstTree.getChildren()) {
-            mergedChildren.put(child.getPayload().getMethodName(), child);
+    /**
+     * Merges the source tree into the target tree in place. Children are united by method signature at every depth,
+     * initial weights of united nodes are summed and their measurements and VM measurements are appended to the
+     * target. Subtrees that only exist in the source are moved to the target, so the source tree must not be used
+     * afterwards. Children are looked up through a hash map, so the merge runs in time linear to the size of both trees.
+     */
+    public static StackTraceTreeNode mergeInto(StackTraceTreeNode target, StackTraceTreeNode source) {
+        if (target == null || source == null) {
+            throw new RuntimeException("One or both of the root nodes were null");
+        }
+
+        if (target.getMethodId() != source.getMethodId()) {
+            throw new RuntimeException("Root signatures of merged trees are not equal: " +
+                    target.getPayload().getMethodName() + " and " + source.getPayload().getMethodName());
         }
 
-        trees.remove(firstTree);
+        Deque<StackTraceTreeNode[]> stack = new ArrayDeque<>();
+        stack.push(new StackTraceTreeNode[] {target, source});
 
-        for (StackTraceTreeNode tree : trees) {
-            for (StackTraceTreeNode child : tree.getChildren()) {
-                for (StackTraceTreeNode firstChild : firstTree.getChildren()) {
-                    merge(firstChild, child, mergedChildren);
+        while (!stack.isEmpty()) {
+            StackTraceTreeNode[] pair = stack.pop();
+            StackTraceTreeNode targetNode = pair[0];
+            StackTraceTreeNode sourceNode = pair[1];
+
+            targetNode.setInitialWeight(sumWeights(targetNode.getInitialWeight(), sourceNode.getInitialWeight()));
+            mergeMeasurements(targetNode, sourceNode);
+
+            List<StackTraceTreeNode> sourceChildren = sourceNode.getChildren();
+            if (sourceChildren == null || sourceChildren.isEmpty()) {
+                continue;
+            }
+
+            if (targetNode.getChildren() == null) {
+                targetNode.setChildren(new ArrayList<>());
+            }
+            List<StackTraceTreeNode> targetChildren = targetNode.getChildren();
+            Map<Integer, StackTraceTreeNode> targetChildrenById = new HashMap<>();
+            for (StackTraceTreeNode child : targetChildren) {
+                if (child != null) {
+                    targetChildrenById.putIfAbsent(child.getMethodId(), child);
                 }
             }
-        }
 
-        firstTree.setChildren(new ArrayList<>(mergedChildren.values()));
-        return firstTree;
+            for (StackTraceTreeNode child : sourceChildren) {
+                if (child == null) {
+                    continue;
+                }
+                StackTraceTreeNode targetChild = targetChildrenById.get(child.getMethodId());
+                if (targetChild == null) {
+                    targetChildren.add(child);
+                    child.setParent(targetNode);
+                    targetChildrenById.put(child.getMethodId(), child);
+                } else {
+                    stack.push(new StackTraceTreeNode[] {targetChild, child});
+                }
+            }
+        }
+        return target;
     }
 
-    private static void merge(StackTraceTreeNode node1, StackTraceTreeNode node2,
-                              Map<String, StackTraceTreeNode> mergedChildren) {
-        if (mergedChildren == null) {
-            throw new RuntimeException("Merged children map cannot be null");
-        }
+    /**
+     * Adds the initial weight of every node as a measurement of the given identifier, so that merging per-VM trees
+     * with {@link #mergeInto(StackTraceTreeNode, StackTraceTreeNode)} yields the per-VM weights of every node.
+     */
+    public static void addWeightsAsMeasurements(StackTraceTreeNode tree, String identifier) {
+        addWeightsAsMeasurements(tree, identifier, true);
+    }
 
-        if (node1 == null || node2 == null) {
-            throw new RuntimeException("One or both of the root nodes were null");
-        }
+    /**
+     * @param retainValues whether the weights are kept, or only their {@link OnlineStatistics statistics}
+     */
+    public static void addWeightsAsMeasurements(StackTraceTreeNode tree, String identifier, boolean retainValues) {
+        TreeWalker.forEach(tree, currentNode -> {
+            if (retainValues) {
+                currentNode.addMeasurement(identifier, weightOf(currentNode));
+            } else {
+                currentNode.addStatistic(identifier, weightOf(currentNode));
+            }
+        });
+    }
 
-        if (!node1.getPayload().getMethodName().equals(node2.getPayload().getMethodName())) {
-            return;
-        }
+    /**
+     * Like {@link #addWeightsAsMeasurements(StackTraceTreeNode, String)}, but adds the weights as VM measurements
+     * of the given VM; merged trees of the same VM append to the same VM measurement.
+     */
+    public static void addWeightsAsVmMeasurements(StackTraceTreeNode tree, String identifier, int vm) {
+        addWeightsAsVmMeasurements(tree, identifier, vm, true);
+    }
 
-        removeMeasurements(node1);
-        removeMeasurements(node2);
+    /**
+     * @param retainValues whether the weights are kept, or only their {@link OnlineStatistics statistics}, so the
+     *                     VM measurements of iterative runs do not grow with the number of iterations
+     */
+    public static void addWeightsAsVmMeasurements(StackTraceTreeNode tree, String identifier, int vm, boolean retainValues) {
+        TreeWalker.forEach(tree, currentNode -> {
+            VmMeasurement weights = retainValues ? new VmMeasurement(vm) : VmMeasurement.withoutValues(vm);
+            weights.addMeasurement(weightOf(currentNode));
+            currentNode.addMeasurement(identifier, weights);
+        });
+    }
 
-        if (!mergedChildren.containsKey(node1.getPayload().getMethodName())) {
-            mergedChildren.put(node1.getPayload().getMethodName(), node1);
-        }
+    /**
+     * Drops trees that lie inside another of the given trees; their weights are already part of the enclosing tree.
+     */
+    private static List<StackTraceTreeNode> withoutNestedTrees(List<StackTraceTreeNode> trees) {
+        Set<StackTraceTreeNode> roots = Collections.newSetFromMap(new IdentityHashMap<>());
+        roots.addAll(trees);
 
-        if (!mergedChildren.containsKey(node2.getPayload().getMethodName())) {
-            mergedChildren.put(node2.getPayload().getMethodName(), node2);
+        List<StackTraceTreeNode> outermostTrees = new ArrayList<>();
+        for (StackTraceTreeNode tree : trees) {
+            StackTraceTreeNode ancestor = tree.getParent();
+            while (ancestor != null && !roots.contains(ancestor)) {
+                ancestor = ancestor.getParent();
+            }
+            if (ancestor == null) {
+                outermostTrees.add(tree);
+            }
         }
+        return outermostTrees;
     }
 
-    private static void removeMeasurements(StackTraceTreeNode root) {
-        Stack<StackTraceTreeNode> stack = new Stack<>();
-        stack.push(root);
-
-        while (!stack.isEmpty()) {
-            StackTraceTreeNode currentNode = stack.pop();
+    /**
+     * A node without initial weight was not part of any sample.
+     */
+    private static double weightOf(StackTraceTreeNode node) {
+        Double initialWeight = node.getInitialWeight();
+        return initialWeight == null ? 0.0 : initialWeight;
+    }
 
-            currentNode.setMeasurements(new HashMap<>());
-            currentNode.resetVmMeasurements();
+    private static Double sumWeights(Double weight, Double other) {
+        if (weight == null) {
+            return other;
+        }
+        return other == null ? weight : weight + other;
+    }
 
-            for (StackTraceTreeNode child : currentNode.getChildren()) {
-                if (child != null) {
-                    stack.push(child);
-                }
+    private static void mergeMeasurements(StackTraceTreeNode target, StackTraceTreeNode source) {
+        source.getMeasurements().forEach(target::addMeasurements);
+        source.getStatistics().forEach(target::mergeStatistics);
+        source.getVmMeasurements().forEach((identifier, vmMeasurements) -> {
+            for (VmMeasurement vmMeasurement : vmMeasurements) {
+                target.mergeVmMeasurement(identifier, vmMeasurement);
             }
-        }
+        });
     }
 
     public static void writeCCTtoFile(@NonNull StackTraceTreeNode tree, @NonNull File file) {
-        ObjectMapper om = Constants.OBJECT_MAPPER;
+        writeCCTtoFile(tree, file, true, false);
+    }
+
+    /**
+     * Writes the tree as JSON, optionally without the <code>parentMethodNames</code> of every node and compressed
+     * with gzip. With the path and without compression, the file is the same as Jackson would write it.
+     */
+    public static void writeCCTtoFile(@NonNull StackTraceTreeNode tree, @NonNull File file, boolean writePath, boolean gzip) {
         try {
-            om.writeValue(file, tree);
-        } catch (StreamWriteException e) {
+            new StackTraceTreeJsonWriter(writePath, gzip).write(tree, file);
+        } catch (IOException e) {
             throw new RuntimeException(e);
-        } catch (DatabindException e) {
+        }
+    }
+
+    /**
+     * Writes the tree in the compact {@link BinaryCctWriter binary format} instead of JSON.
+     */
+    public static void writeCCTtoBinaryFile(@NonNull StackTraceTreeNode tree, @NonNull File file) {
+        try {
+            BinaryCctWriter.write(tree, file);
+        } catch (IOException e) {
             throw new RuntimeException(e);
+        }
+    }
+
+    public static StackTraceTreeNode readCCTfromBinaryFile(@NonNull File file) {
+        try {
+            return BinaryCctReader.read(file);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,156 @@
+package io.github.terahidro2003.cct;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+
+/**
+ * Depth-first traversal of call context trees, used by the tree utilities instead of a search loop of their own.
+ * Children are visited in the order of their list, or last child first for the callers that keep the order of the
+ * former stack-based search loops, and null children are skipped. The walker keeps the current path
+ * in two arrays that grow with the depth of the tree, so a walk neither allocates per node nor takes locks, and deep
+ * trees do not overflow the stack.
+ */
+public final class TreeWalker {
+
+    private static final int INITIAL_DEPTH = 64;
+
+    public enum Action {
+        /** Visits the children of the node. */
+        CONTINUE,
+        /** Does not visit the children of the node; the node is still exited. */
+        SKIP_SUBTREE,
+        /** Ends the walk without any further calls of the visitor. */
+        TERMINATE
+    }
+
+    @FunctionalInterface
+    public interface Visitor {
+        /**
+         * Called in pre-order. The visitor may replace or modify the children of the given node, but not those of
+         * its ancestors.
+         *
+         * @param depth depth relative to the root of the walk, which has depth 0
+         */
+        Action enter(StackTraceTreeNode node, int depth);
+
+        /**
+         * Called in post-order for every entered node, unless the walk was terminated.
+         */
+        default void exit(StackTraceTreeNode node, int depth) {
+        }
+    }
+
+    private TreeWalker() {
+    }
+
+    /**
+     * @return false if the visitor terminated the walk
+     */
+    public static boolean walk(StackTraceTreeNode root, Visitor visitor) {
+        return walk(root, visitor, false);
+    }
+
+    /**
+     * @param lastChildFirst whether the children of a node are visited from the end of their list
+     * @return false if the visitor terminated the walk
+     */
+    public static boolean walk(StackTraceTreeNode root, Visitor visitor, boolean lastChildFirst) {
+        Action rootAction = visitor.enter(root, 0);
+        if (rootAction == Action.TERMINATE) {
+            return false;
+        }
+        if (rootAction == Action.SKIP_SUBTREE) {
+            visitor.exit(root, 0);
+            return true;
+        }
+
+        StackTraceTreeNode[] path = new StackTraceTreeNode[INITIAL_DEPTH];
+        int[] nextChild = new int[INITIAL_DEPTH];
+        path[0] = root;
+        int depth = 0;
+
+        while (depth >= 0) {
+            StackTraceTreeNode node = path[depth];
+            List<StackTraceTreeNode> children = node.getChildren();
+            int visited = nextChild[depth];
+            int childCount = children == null ? 0 : children.size();
+            StackTraceTreeNode child = null;
+            while (child == null && visited < childCount) {
+                child = children.get(lastChildFirst ? childCount - 1 - visited : visited);
+                visited++;
+            }
+            if (child == null) {
+                visitor.exit(node, depth);
+                path[depth] = null;
+                depth--;
+                continue;
+            }
+            nextChild[depth] = visited;
+
+            Action action = visitor.enter(child, depth + 1);
+            if (action == Action.TERMINATE) {
+                return false;
+            }
+            if (action == Action.SKIP_SUBTREE) {
+                visitor.exit(child, depth + 1);
+                continue;
+            }
+
+            depth++;
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+                nextChild = Arrays.copyOf(nextChild, depth * 2);
+            }
+            path[depth] = child;
+            nextChild[depth] = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Calls the action for every node in pre-order.
+     */
+    public static void forEach(StackTraceTreeNode root, Consumer<StackTraceTreeNode> action) {
+        forEach(root, action, false);
+    }
+
+    /**
+     * Calls the action for every node in pre-order.
+     *
+     * @param lastChildFirst whether the children of a node are visited from the end of their list
+     */
+    public static void forEach(StackTraceTreeNode root, Consumer<StackTraceTreeNode> action, boolean lastChildFirst) {
+        walk(root, (node, depth) -> {
+            action.accept(node);
+            return Action.CONTINUE;
+        }, lastChildFirst);
+    }
+
+    /**
+     * @return the first node in pre-order that matches the predicate, or null if none matches
+     */
+    public static StackTraceTreeNode find(StackTraceTreeNode root, Predicate<StackTraceTreeNode> predicate) {
+        return find(root, predicate, false);
+    }
+
+    /**
+     * @param lastChildFirst whether the children of a node are visited from the end of their list
+     * @return the first node in pre-order that matches the predicate, or null if none matches
+     */
+    public static StackTraceTreeNode find(StackTraceTreeNode root, Predicate<StackTraceTreeNode> predicate,
+                                          boolean lastChildFirst) {
+        StackTraceTreeNode[] found = new StackTraceTreeNode[1];
+        walk(root, (node, depth) -> {
+            if (predicate.test(node)) {
+                found[0] = node;
+                return Action.TERMINATE;
+            }
+            return Action.CONTINUE;
+        }, lastChildFirst);
+        return found[0];
+    }
+}
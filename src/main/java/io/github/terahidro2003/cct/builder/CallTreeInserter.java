@@ -0,0 +1,145 @@
+package io.github.terahidro2003.cct.builder;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.github.terahidro2003.cct.result.SignatureTable;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.cct.result.StackTraceTreePayload;
+
+/**
+ * Inserts call paths into a tree without recursion. Children are found through a per-node hash table
+ * keyed by signature id instead of scanning the children list, so hub frames with hundreds of children
+ * (such as <code>Thread.run</code> or test runners) cost the same as any other frame.
+ * The inserter never modifies the frame arrays it is given. A node whose children were replaced through
+ * {@link StackTraceTreeNode#setChildren(List)} is indexed again; other changes of the tree's children lists are not
+ * seen while inserting.
+ */
+public class CallTreeInserter {
+
+    private final StackTraceTreeNode root;
+    private final Map<StackTraceTreeNode, ChildTable> childTables = new IdentityHashMap<>();
+
+    public CallTreeInserter(StackTraceTreeNode root) {
+        this.root = root;
+    }
+
+    public StackTraceTreeNode getRoot() {
+        return root;
+    }
+
+    /**
+     * Adds the path of signature ids (caller first) below the root and returns the node of its last frame.
+     */
+    public StackTraceTreeNode insert(int[] methodIds, int length) {
+        StackTraceTreeNode current = root;
+        for (int i = 0; i < length; i++) {
+            current = child(current, methodIds[i]);
+        }
+        return current;
+    }
+
+    /**
+     * Like {@link #insert(int[], int)}, and additionally adds the weight to every node on the path.
+     */
+    public StackTraceTreeNode insert(int[] methodIds, int length, double weight) {
+        return insert(methodIds, 0, length, weight);
+    }
+
+    /**
+     * Like {@link #insert(int[], int, double)} for the ids from <code>offset</code> (inclusive) to <code>end</code>
+     * (exclusive).
+     */
+    public StackTraceTreeNode insert(int[] methodIds, int offset, int end, double weight) {
+        StackTraceTreeNode current = root;
+        for (int i = offset; i < end; i++) {
+            current = child(current, methodIds[i]);
+            Double initialWeight = current.getInitialWeight();
+            current.setInitialWeight(initialWeight == null ? weight : initialWeight + weight);
+        }
+        return current;
+    }
+
+    private StackTraceTreeNode child(StackTraceTreeNode parent, int methodId) {
+        ChildTable table = childTables.get(parent);
+        if (table == null || table.children != parent.getChildren()) {
+            table = new ChildTable(parent.getChildren());
+            for (StackTraceTreeNode existing : parent.getChildren()) {
+                if (existing != null) {
+                    table.put(existing.getMethodId(), existing);
+                }
+            }
+            childTables.put(parent, table);
+        }
+
+        StackTraceTreeNode child = table.get(methodId);
+        if (child == null) {
+            child = new StackTraceTreeNode(parent, new ArrayList<>(),
+                    new StackTraceTreePayload(SignatureTable.lookup(methodId)));
+            parent.getChildren().add(child);
+            table.put(methodId, child);
+        }
+        return child;
+    }
+
+    /**
+     * Open addressing table from signature id to child node with linear probing.
+     */
+    private static final class ChildTable {
+        // the list the table indexes, to notice replaced children
+        private final List<StackTraceTreeNode> children;
+        private int[] keys = new int[4];
+        private StackTraceTreeNode[] values = new StackTraceTreeNode[4];
+        private int size;
+
+        ChildTable(List<StackTraceTreeNode> children) {
+            this.children = children;
+        }
+
+        StackTraceTreeNode get(int key) {
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+                StackTraceTreeNode value = values[i];
+                if (value == null || keys[i] == key) {
+                    return value;
+                }
+            }
+        }
+
+        void put(int key, StackTraceTreeNode value) {
+            if ((size + 1) * 2 > keys.length) {
+                resize();
+            }
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (values[i] != null && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] == null) {
+                size++;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        private void resize() {
+            int[] oldKeys = keys;
+            StackTraceTreeNode[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new StackTraceTreeNode[oldValues.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9e3779b9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package io.github.terahidro2003.cct.builder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+
+import io.github.terahidro2003.cct.result.SignatureTable;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.cct.result.StackTraceTreePayload;
+
+/**
+ * Thread safe counterpart of the {@link CallTreeInserter}: any number of threads may insert call paths at the same
+ * time, e.g. while reading several recordings, so their samples end up in one tree without a merge afterwards.
+ * The children of a node are kept in a {@link ConcurrentHashMap} and added with putIfAbsent, so finding an existing
+ * child takes no lock, and weights are summed in {@link DoubleAdder}s, so threads do not contend on the hot nodes
+ * near the root.
+ * <p>
+ * Once all insertions have completed, {@link #freeze()} copies the aggregated tree into regular nodes. Children are
+ * ordered by their creation, so a single inserting thread yields the same tree as the {@link CallTreeInserter}.
+ */
+public class ConcurrentTreeAggregator {
+
+    private static final Comparator<AggregationNode> BY_CREATION = Comparator.comparingLong(node -> node.sequence);
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AggregationNode root;
+    private volatile boolean frozen;
+
+    public ConcurrentTreeAggregator(String rootMethodName) {
+        this(SignatureTable.intern(rootMethodName));
+    }
+
+    public ConcurrentTreeAggregator(int rootMethodId) {
+        this.root = new AggregationNode(rootMethodId, sequence.getAndIncrement());
+    }
+
+    /**
+     * Adds the path of signature ids (caller first) below the root.
+     */
+    public void insert(int[] methodIds, int length) {
+        checkNotFrozen();
+        AggregationNode current = root;
+        for (int i = 0; i < length; i++) {
+            current = child(current, methodIds[i]);
+        }
+    }
+
+    /**
+     * Like {@link #insert(int[], int)}, and additionally adds the weight to every node on the path.
+     */
+    public void insert(int[] methodIds, int length, double weight) {
+        insert(methodIds, 0, length, weight);
+    }
+
+    /**
+     * Like {@link #insert(int[], int, double)} for the ids from <code>offset</code> (inclusive) to <code>end</code>
+     * (exclusive).
+     */
+    public void insert(int[] methodIds, int offset, int end, double weight) {
+        checkNotFrozen();
+        AggregationNode current = root;
+        for (int i = offset; i < end; i++) {
+            current = child(current, methodIds[i]);
+            current.addWeight(weight);
+        }
+    }
+
+    /**
+     * Adds weight to the root, which {@link #insert(int[], int, double)} leaves unchanged.
+     */
+    public void addRootWeight(double weight) {
+        checkNotFrozen();
+        root.addWeight(weight);
+    }
+
+    /**
+     * Copies the aggregated tree into regular nodes. Must only be called after all insertions have completed; later
+     * insertions are rejected.
+     */
+    public StackTraceTreeNode freeze() {
+        frozen = true;
+        StackTraceTreeNode frozenRoot = root.copy(null);
+        Deque<AggregationNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            AggregationNode node = stack.pop();
+            AggregationNode[] children = node.children.values().toArray(new AggregationNode[0]);
+            Arrays.sort(children, BY_CREATION);
+            for (AggregationNode child : children) {
+                node.frozenNode.getChildren().add(child.copy(node.frozenNode));
+                stack.push(child);
+            }
+            node.frozenNode = null;
+        }
+        return frozenRoot;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("Tree has already been frozen");
+        }
+    }
+
+    private AggregationNode child(AggregationNode parent, int methodId) {
+        AggregationNode child = parent.children.get(methodId);
+        if (child == null) {
+            AggregationNode created = new AggregationNode(methodId, sequence.getAndIncrement());
+            child = parent.children.putIfAbsent(methodId, created);
+            if (child == null) {
+                child = created;
+            }
+        }
+        return child;
+    }
+
+    private static final class AggregationNode {
+        private final int methodId;
+        private final long sequence;
+        private final ConcurrentHashMap<Integer, AggregationNode> children = new ConcurrentHashMap<>(2);
+        private final DoubleAdder weight = new DoubleAdder();
+        // a node that never got weight keeps a null initial weight, like the nodes of the CallTreeInserter
+        private volatile boolean weighted;
+        private StackTraceTreeNode frozenNode;
+
+        AggregationNode(int methodId, long sequence) {
+            this.methodId = methodId;
+            this.sequence = sequence;
+        }
+
+        void addWeight(double added) {
+            weight.add(added);
+            if (!weighted) {
+                weighted = true;
+            }
+        }
+
+        StackTraceTreeNode copy(StackTraceTreeNode parent) {
+            frozenNode = new StackTraceTreeNode(parent, new ArrayList<>(children.size()),
+                    StackTraceTreePayload.ofMethodId(methodId, 0));
+            if (weighted) {
+                frozenNode.setInitialWeight(weight.sum());
+            }
+            return frozenNode;
+        }
+    }
+}
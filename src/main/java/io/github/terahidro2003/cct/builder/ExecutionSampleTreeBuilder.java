@@ -2,6 +2,9 @@ package io.github.terahidro2003.cct.builder;
 
 import io.github.terahidro2003.cct.SamplerResultsProcessor;
 import io.github.terahidro2003.cct.jfr.ExecutionSample;
+import io.github.terahidro2003.cct.jfr.JfrRecordingReader;
+import io.github.terahidro2003.cct.jfr.Method;
+import io.github.terahidro2003.cct.result.SignatureTable;
 import io.github.terahidro2003.cct.result.StackTraceTreeNode;
 import io.github.terahidro2003.cct.result.StackTraceTreePayload;
 import lombok.NonNull;
@@ -10,8 +13,11 @@ import lombok.extern.slf4j.Slf4j;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,64 +31,93 @@ public class ExecutionSampleTreeBuilder extends StackTraceTreeBuilder {
     }
 
     public StackTraceTreeNode buildFromSerializedExecutionSamplesFile(@NonNull File file) {
-        List<ExecutionSample> jfrSamples = readJfrExecutionSamplesJsonFile(file);
-        return buildFromExecutionSamples(jfrSamples);
+        CallTreeInserter inserter = new CallTreeInserter(new StackTraceTreeNode(null, new ArrayList<>(),
+                new StackTraceTreePayload("root")));
+        try {
+            log.info("Streaming serialized sample json file {}", file.getName());
+            ExecutionSample.parseJson(file.getAbsolutePath(), sample -> addExecutionSample(inserter, sample));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return inserter.getRoot();
     }
 
-    public StackTraceTreeNode buildFromExecutionSamples(List<ExecutionSample> samples) {
-        StackTraceTreeNode root = new StackTraceTreeNode(null, new ArrayList<>(),
-                new StackTraceTreePayload("root"));
-        samples.forEach(sample -> {
-            Collections.reverse(sample.getStackTrace());
-        });
-
-        samples.forEach(sample -> {
-            addExecutionSample(root, sample);
-        });
-        return root;
+    public StackTraceTreeNode buildFromJfr(@NonNull File jfr) {
+        CallTreeInserter inserter = new CallTreeInserter(new StackTraceTreeNode(null, new ArrayList<>(),
+                new StackTraceTreePayload("root")));
+        try {
+            JfrRecordingReader.readExecutionSamples(jfr, sample -> addExecutionSample(inserter, sample));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return inserter.getRoot();
     }
 
-    private void addExecutionSample(StackTraceTreeNode parent, ExecutionSample sample) {
-        // recursion exit check
-        if(sample == null) {
-            return;
+    /**
+     * Builds one tree of the execution samples of all recordings. The recordings are read by up to maxThreads threads,
+     * which insert into the same {@link ConcurrentTreeAggregator}, so no per-recording trees have to be merged.
+     */
+    public StackTraceTreeNode buildFromJfrs(@NonNull List<File> jfrs, int maxThreads) {
+        ConcurrentTreeAggregator aggregator = new ConcurrentTreeAggregator("root");
+        int threads = Math.max(1, Math.min(maxThreads, jfrs.size()));
+        log.info("Reading {} recordings with {} threads", jfrs.size(), threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (File jfr : jfrs) {
+                futures.add(executor.submit(() -> {
+                    JfrRecordingReader.readExecutionSamples(jfr, sample -> {
+                        int[] methodIds = methodIds(sample);
+                        if (methodIds != null) {
+                            aggregator.insert(methodIds, methodIds.length);
+                        }
+                    });
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reading recordings", e);
+        } catch (ExecutionException e) {
+            throw TaskFailures.unwrap(e);
+        } finally {
+            executor.shutdownNow();
         }
+        return aggregator.freeze();
+    }
 
-        // get measurement properties
-        var methodNames =  sample.getMethodSignatures();
+    public StackTraceTreeNode buildFromExecutionSamples(List<ExecutionSample> samples) {
+        CallTreeInserter inserter = new CallTreeInserter(new StackTraceTreeNode(null, new ArrayList<>(),
+                new StackTraceTreePayload("root")));
+        samples.forEach(sample -> addExecutionSample(inserter, sample));
+        return inserter.getRoot();
+    }
 
-        // If sample has no methodNames, return.
-        // Maybe consider throwing some exception at this point?
-        if(methodNames == null || methodNames.isEmpty()) {
-            return;
+    private void addExecutionSample(CallTreeInserter inserter, ExecutionSample sample) {
+        int[] methodIds = methodIds(sample);
+        if (methodIds != null) {
+            inserter.insert(methodIds, methodIds.length);
         }
+    }
 
-        // We select the first child of current sample block
-        String current = methodNames.get(0);
-        StackTraceTreeNode child = null;
-
-        // We're trying to find whether current parent has our current method as a child
-        for(StackTraceTreeNode parentChild : parent.getChildren()) {
-            if (parentChild.getPayload().getMethodName().equals(current)) {
-                child = parentChild;
-                break;
-            }
+    /**
+     * Signature ids of the stack trace of the sample (caller first), or null if the sample has no stack trace.
+     */
+    private static int[] methodIds(ExecutionSample sample) {
+        if(sample == null || sample.getStackTrace() == null) {
+            return null;
         }
 
-        // If our current parent node doesn't have our current method name as a child,
-        // we assume that this is a new child of the current parent node.
-        if(child == null) {
-            child = new StackTraceTreeNode(parent, new ArrayList<>(), new StackTraceTreePayload(methodNames.get(0)));
-            parent.getChildren().add(child);
+        // samples list the innermost frame first, while the tree starts at the outermost caller
+        List<Method> stackTrace = sample.getStackTrace();
+        int[] methodIds = new int[stackTrace.size()];
+        for (int i = 0; i < methodIds.length; i++) {
+            methodIds[i] = SignatureTable.intern(stackTrace.get(methodIds.length - 1 - i).getFullMethodSignature());
         }
-
-        // prepare for recursion
-        // we remove the first element in method names list of a sample block (because we processed that node)
-
-        sample.setStackTrace(sample.getStackTrace().subList(1, sample.getStackTrace().size()));
-
-        // recursive call
-        addExecutionSample(child, sample);
+        return methodIds;
     }
 
 
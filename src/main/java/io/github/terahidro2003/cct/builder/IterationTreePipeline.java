@@ -0,0 +1,150 @@
+package io.github.terahidro2003.cct.builder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.terahidro2003.cct.FrameExclusionFilter;
+import io.github.terahidro2003.cct.TreeUtils;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.config.Config;
+import lombok.NonNull;
+
+/**
+ * Builds the tree of every iteration JFR of one VM on a background thread as soon as the iteration has been
+ * measured, and merges it into a running tree. The result equals the tree {@link IterativeContextTreeBuilder}
+ * builds from the same files in the same order, but it is ready shortly after the last iteration.
+ * The iterations are processed one after another in the order they are submitted. The background thread is a
+ * daemon thread, so it does not keep the measured JVM alive.
+ * <p>
+ * Iteration N is parsed while iteration N+1 is measured, so the parsing competes with the measured workload for
+ * CPU, memory bandwidth and caches, and may disturb the measurement. It is therefore only used if the config
+ * enables {@link Config#iterationTreesInBackground()}, which is advisable if the machine has spare cores.
+ * <p>
+ * The submitted files are read in the background until {@link #awaitTree()} returns, so they must not be moved
+ * before; {@link io.github.terahidro2003.cct.SamplerResultsProcessor#processIterationMeasurementFiles(File, int,
+ * String, IterationTreePipeline)} waits for the pipeline before it renames the files.
+ * <p>
+ * The pipeline runs in the JVM that submits the files, which is the measured JVM if the files are submitted by
+ * the {@link io.github.terahidro2003.measurement.executor.asprof.AsprofInterProcessExecutor}. {@link #writeTree()}
+ * therefore writes the merged tree next to the recordings, where {@link IterativeContextTreeBuilder#buildTree}
+ * writes its trees, so the post-processing does not need to parse the recordings again.
+ */
+public class IterationTreePipeline implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(IterationTreePipeline.class);
+
+    private final String testcase;
+    private final String commit;
+    private final int vm;
+    private final FrameExclusionFilter exclusions;
+    private final boolean retainValues;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sjsw-iteration-tree-pipeline");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<Future<?>> iterations = new ArrayList<>();
+    private final List<File> jfrs = new ArrayList<>();
+
+    // only accessed by the background thread, and by awaitTree after all iterations are done
+    private StackTraceTreeNode mergedTree;
+
+    /**
+     * @param exclusions frames to leave out of the trees together with their callees, or null to keep all frames
+     */
+    public IterationTreePipeline(@NonNull String testcase, @NonNull String commit, int vm, FrameExclusionFilter exclusions) {
+        this(testcase, commit, vm, exclusions, true);
+    }
+
+    /**
+     * @param retainValues whether the weight of every iteration is kept, or only the statistics of the weights
+     */
+    public IterationTreePipeline(@NonNull String testcase, @NonNull String commit, int vm, FrameExclusionFilter exclusions,
+                                 boolean retainValues) {
+        this.testcase = testcase;
+        this.commit = commit;
+        this.vm = vm;
+        this.exclusions = exclusions;
+        this.retainValues = retainValues;
+    }
+
+    /**
+     * Pipeline that leaves out the {@link FrameExclusionFilter#of(Config) frame exclusions of the config}.
+     */
+    public static IterationTreePipeline of(Config config, @NonNull String testcase, @NonNull String commit, int vm) {
+        return new IterationTreePipeline(testcase, commit, vm, FrameExclusionFilter.of(config));
+    }
+
+    /**
+     * Schedules the complete JFR of an iteration. The file must not be moved until {@link #awaitTree()} returns.
+     */
+    public synchronized void submit(@NonNull File jfr) {
+        int iteration = iterations.size();
+        jfrs.add(jfr);
+        iterations.add(executor.submit(() -> {
+            log.info("Building tree of iteration {} from JFR file: {}", iteration, jfr.getName());
+            StackTraceTreeNode iterationTree = IterativeContextTreeBuilder.buildVmTree(jfr, testcase, vm, exclusions, null);
+            TreeUtils.addWeightsAsVmMeasurements(iterationTree, commit, vm, retainValues);
+            mergedTree = IterativeContextTreeBuilder.mergePartialTree(iterationTree, mergedTree);
+        }));
+    }
+
+    public synchronized int getSubmittedIterations() {
+        return iterations.size();
+    }
+
+    /**
+     * Waits until all submitted iterations are merged and returns the merged tree, or null if nothing was submitted.
+     */
+    public StackTraceTreeNode awaitTree() {
+        List<Future<?>> submitted;
+        synchronized (this) {
+            submitted = new ArrayList<>(iterations);
+        }
+        try {
+            for (Future<?> iteration : submitted) {
+                iteration.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for iteration trees", e);
+        } catch (ExecutionException e) {
+            throw TaskFailures.unwrap(e);
+        }
+        log.info("Merged trees of {} iterations", submitted.size());
+        return mergedTree;
+    }
+
+    /**
+     * Waits for the merged tree and writes it as <code>&lt;testcase&gt;-&lt;commit&gt;-&lt;uuid&gt;.json</code> into
+     * the folder of the first submitted file.
+     *
+     * @return the written file, or null if nothing was submitted
+     */
+    public File writeTree() {
+        StackTraceTreeNode tree = awaitTree();
+        if (tree == null) {
+            log.warn("No iterations of testcase {} were submitted, so no tree is written", testcase);
+            return null;
+        }
+        List<File> submitted;
+        synchronized (this) {
+            submitted = new ArrayList<>(jfrs);
+        }
+        return IterativeContextTreeBuilder.writeMergedTree(tree, submitted, commit, testcase);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -3,11 +3,16 @@ package io.github.terahidro2003.cct.builder;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -15,17 +20,61 @@ import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import io.github.terahidro2003.cct.SamplerResultsProcessor;
+import io.github.terahidro2003.cct.FrameExclusionFilter;
 import io.github.terahidro2003.cct.TreeUtils;
 import io.github.terahidro2003.cct.result.StackTraceTreeNode;
-import io.github.terahidro2003.cct.result.VmMeasurement;
+import io.github.terahidro2003.config.Config;
 
 public class IterativeContextTreeBuilder extends StackTraceTreeBuilder {
 
     private static final Logger log = LoggerFactory.getLogger(IterativeContextTreeBuilder.class);
-   
+
+    private final boolean retainValues;
+    private final VmTreeCache cache;
+    private final FrameExclusionFilter defaultExclusions;
+
+    public IterativeContextTreeBuilder() {
+        this(true);
+    }
+
+    public IterativeContextTreeBuilder(boolean retainValues) {
+        this(retainValues, null);
+    }
+
+    /**
+     * @param retainValues whether the weight of every iteration is kept, or only the {@link
+     *                     io.github.terahidro2003.cct.result.OnlineStatistics statistics} of the weights per VM
+     * @param cache        cache of the stack traces parsed from the recordings, or null to parse every recording
+     */
+    public IterativeContextTreeBuilder(boolean retainValues, VmTreeCache cache) {
+        this(retainValues, cache, FrameExclusionFilter.JVM_NODES);
+    }
+
+    /**
+     * Builder whose JVM frame filtering leaves out the {@link FrameExclusionFilter#of(Config) frame exclusions of
+     * the config}, using the {@link VmTreeCache#of(Config) configured cache}.
+     */
+    public IterativeContextTreeBuilder(Config config) {
+        this(true, VmTreeCache.of(config), FrameExclusionFilter.of(config));
+    }
+
+    private IterativeContextTreeBuilder(boolean retainValues, VmTreeCache cache, FrameExclusionFilter defaultExclusions) {
+        this.retainValues = retainValues;
+        this.cache = cache;
+        this.defaultExclusions = defaultExclusions;
+    }
+
     public StackTraceTreeNode buildTree(List<File> jfrs, String commit, String testcase, boolean filterJvmNativeNodes,
                                         boolean parallelProcessing, int maxThreads) throws IOException {
+        return buildTree(jfrs, commit, testcase, filterJvmNativeNodes ? defaultExclusions : null,
+                parallelProcessing, maxThreads);
+    }
+
+    /**
+     * @param exclusions frames to leave out of the trees together with their callees, or null to keep all frames
+     */
+    public StackTraceTreeNode buildTree(List<File> jfrs, String commit, String testcase, FrameExclusionFilter exclusions,
+                                        boolean parallelProcessing, int maxThreads) throws IOException {
         log.info("Building tree for testcase method: {}", testcase);
         if (jfrs.isEmpty()) {
             throw new RuntimeException("JFR files cannot be empty");
@@ -36,121 +85,198 @@ public class IterativeContextTreeBuilder extends StackTraceTreeBuilder {
                 .collect(Collectors.toCollection(ArrayList::new));
         log.info("Filtered JFRs for tree generation: {}", jfrs);
 
-        SamplerResultsProcessor processor = new SamplerResultsProcessor();
-        final List<StackTraceTreeNode> vmTrees = new ArrayList<>();
         StackTraceTreeNode mergedTree = null;
 
-        final Map<List<String>, List<VmMeasurement>> measurementsMap = new HashMap<>();
-        for (int i = 0; i<jfrs.size(); i++) {
-            log.info("Building local tree for index: {} from JFR file: {}", i, jfrs.get(i).getName());
-            StackTraceTreeNode vmTree = buildVmTree(jfrs.get(i), processor, testcase);
-            mergedTree = processPartialTree(filterJvmNativeNodes, measurementsMap, vmTree, mergedTree, commit, testcase, vmTrees);
+        if (parallelProcessing && maxThreads > 1 && jfrs.size() > 1) {
+            mergedTree = buildPartialTreesInParallel(jfrs, commit, testcase, exclusions, maxThreads);
+        } else {
+            for (int i = 0; i<jfrs.size(); i++) {
+                StackTraceTreeNode partialTree = buildPartialTree(i, jfrs.get(i), commit, testcase, exclusions);
+                mergedTree = mergePartialTree(partialTree, mergedTree);
+            }
         }
-        addLocalMeasurements(mergedTree, measurementsMap, commit, false);
 
-        String folderPath = jfrs.get(0).getParentFile().getAbsolutePath();
-        File output =
-                new File(folderPath + File.separator + testcase + "-" + commit + "-" + UUID.randomUUID() + ".json");
-        log.info("Writing merged tree to a file at location {}", output.getAbsolutePath());
-        TreeUtils.writeCCTtoFile(mergedTree, output);
+        writeMergedTree(mergedTree, jfrs, commit, testcase);
         return mergedTree;
     }
 
-    public static int extractVmNumber(String filename) {
-        Pattern pattern = Pattern.compile("_vm_(\\d+)_");
-        Matcher matcher = pattern.matcher(filename);
-        matcher.find();
-        return Integer.parseInt(matcher.group(1));
-    }
+    /**
+     * Batch variant of {@link #buildTree}: every JFR file is parsed once for all testcases, and the tree of every
+     * testcase is extracted and merged in the same pass. A testcase missing from a JFR file is skipped for that
+     * file instead of failing the batch.
+     *
+     * @return the merged tree of every testcase found in the JFR files, in the order of the testcases
+     */
+    public Map<String, StackTraceTreeNode> buildTrees(List<File> jfrs, String commit, Collection<String> testcases,
+                                                      FrameExclusionFilter exclusions, boolean parallelProcessing,
+                                                      int maxThreads) {
+        log.info("Building trees for {} testcase methods: {}", testcases.size(), testcases);
+        if (jfrs.isEmpty()) {
+            throw new RuntimeException("JFR files cannot be empty");
+        }
+        List<File> commitJfrs = jfrs.stream().filter(jfr -> jfr.getName().contains(commit) && jfr.getName().endsWith(".jfr"))
+                .collect(Collectors.toCollection(ArrayList::new));
+        log.info("Filtered JFRs for tree generation: {}", commitJfrs);
 
-    private StackTraceTreeNode processPartialTree(boolean filterJvmNativeNodes, Map<List<String>, List<VmMeasurement>> measurementsMap, StackTraceTreeNode vmTree, StackTraceTreeNode mergedTree, String commit, String testcase, final List<StackTraceTreeNode> vmTrees) {
-        // filters out common JVM and native method call nodes from all retrieved subtrees
-        if(filterJvmNativeNodes) {
-            vmTree = TreeUtils.filterJvmNodes(vmTree);
+        List<Map<String, StackTraceTreeNode>> partialTrees = new ArrayList<>();
+        if (parallelProcessing && maxThreads > 1 && commitJfrs.size() > 1) {
+            int threads = Math.min(maxThreads, commitJfrs.size());
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<Map<String, StackTraceTreeNode>>> futures = new ArrayList<>();
+                for (File jfr : commitJfrs) {
+                    // tree builders are not thread safe, so every task uses its own
+                    futures.add(executor.submit(() -> buildPartialTrees(jfr, commit, testcases,
+                            new JfrTreeBuilder(testcases, exclusions, cache))));
+                }
+                for (Future<Map<String, StackTraceTreeNode>> future : futures) {
+                    partialTrees.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while building partial trees", e);
+            } catch (ExecutionException e) {
+                throw TaskFailures.unwrap(e);
+            } finally {
+                executor.shutdownNow();
+            }
+        } else {
+            JfrTreeBuilder treeBuilder = new JfrTreeBuilder(testcases, exclusions, cache);
+            for (File jfr : commitJfrs) {
+                partialTrees.add(buildPartialTrees(jfr, commit, testcases, treeBuilder));
+            }
         }
 
-        createMeasurementsMap(measurementsMap, List.of(vmTree), testcase, false);
+        Map<String, StackTraceTreeNode> treesByTestcase = new HashMap<>();
+        for (Map<String, StackTraceTreeNode> trees : partialTrees) {
+            trees.forEach((testcase, partialTree) ->
+                    treesByTestcase.put(testcase, mergePartialTree(partialTree, treesByTestcase.get(testcase))));
+        }
 
-        vmTrees.add(mergedTree);
-        vmTrees.add(vmTree);
-        mergedTree = TreeUtils.mergeTrees(vmTrees);
-        vmTrees.clear();
-        return mergedTree;
+        Map<String, StackTraceTreeNode> mergedTrees = new LinkedHashMap<>();
+        for (String testcase : testcases) {
+            StackTraceTreeNode mergedTree = treesByTestcase.get(testcase);
+            if (mergedTree != null) {
+                writeMergedTree(mergedTree, commitJfrs, commit, testcase);
+                mergedTrees.put(testcase, mergedTree);
+            } else {
+                log.warn("No samples of testcase {} found", testcase);
+            }
+        }
+        return mergedTrees;
     }
 
-    private synchronized StackTraceTreeNode buildVmTree(File jfr, SamplerResultsProcessor processor, String testcase) {
-        StackTraceTreeNode bat = processor.getTreeFromJfr(List.of(jfr));
-        String filename = jfr.getName();
-        int vm = extractVmNumber(filename);
-
-        // retrieves subtrees that share the same parent node
-        log.info("Filtering and retrieving diverted testcase method subtrees");
-        List<StackTraceTreeNode> filteredSubtrees = TreeUtils.filterMultiple(testcase, bat, false);
-        var mergedTree = TreeUtils.mergeTrees(filteredSubtrees);
-        mergedTree.getPayload().setVm(vm);
-        return mergedTree;
+    /**
+     * Bounded-memory variant of {@link #buildTree}: the partial tree of every JFR file is handed to the merger as
+     * soon as it is built. The caller merges the result with {@link SpillingTreeMerger#mergeToTree()} or
+     * {@link SpillingTreeMerger#mergeToFile(File)}.
+     */
+    public void aggregateTrees(List<File> jfrs, String commit, String testcase, FrameExclusionFilter exclusions,
+                               SpillingTreeMerger merger) {
+        jfrs = jfrs.stream().filter(jfr -> jfr.getName().contains(commit) && jfr.getName().endsWith(".jfr"))
+                .collect(Collectors.toCollection(ArrayList::new));
+        for (int i = 0; i < jfrs.size(); i++) {
+            merger.add(buildPartialTree(i, jfrs.get(i), commit, testcase, exclusions));
+        }
     }
 
-    private synchronized void addLocalMeasurements(StackTraceTreeNode bat, Map<List<String>, List<VmMeasurement>> measurementsMap, String identifier, boolean flag) {
-        if (bat == null || measurementsMap == null) {
-            throw new IllegalArgumentException("BAT and measurements map cannot be null");
-        }
+    public static int extractVmNumber(String filename) {
+        Pattern pattern = Pattern.compile("_vm_(\\d+)_");
+        Matcher matcher = pattern.matcher(filename);
+        matcher.find();
+        return Integer.parseInt(matcher.group(1));
+    }
 
-        for (Map.Entry<List<String>, List<VmMeasurement>> entry : measurementsMap.entrySet()) {
-            List<String> signatures = entry.getKey();
-            List<VmMeasurement> weights = entry.getValue();
+    /**
+     * Builds the partial trees on a pool of at most maxThreads workers. The partial trees are merged
+     * in the order of the JFR files, so the result does not depend on which worker finishes first.
+     */
+    private StackTraceTreeNode buildPartialTreesInParallel(List<File> jfrs, String commit, String testcase,
+                                                           FrameExclusionFilter exclusions, int maxThreads) {
+        int threads = Math.min(maxThreads, jfrs.size());
+        log.info("Building {} partial trees with {} threads", jfrs.size(), threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<StackTraceTreeNode>> partialTrees = new ArrayList<>();
+            for (int i = 0; i < jfrs.size(); i++) {
+                final int index = i;
+                final File jfr = jfrs.get(i);
+                partialTrees.add(executor.submit(() -> buildPartialTree(index, jfr, commit, testcase, exclusions)));
+            }
 
-            var result = TreeUtils.search(signatures, bat);
-            if (result != null) {
-                for (VmMeasurement weight : weights) {
-                    result.addMeasurement(identifier, weight);
-                }
+            StackTraceTreeNode mergedTree = null;
+            for (Future<StackTraceTreeNode> partialTree : partialTrees) {
+                mergedTree = mergePartialTree(partialTree.get(), mergedTree);
             }
+            return mergedTree;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while building partial trees", e);
+        } catch (ExecutionException e) {
+            throw TaskFailures.unwrap(e);
+        } finally {
+            executor.shutdownNow();
         }
     }
 
-    private void createMeasurementsMap(Map<List<String>, List<VmMeasurement>> measurementsMap, List<StackTraceTreeNode> localTrees,
-                                                                        String testcaseSignature, boolean flag) {
-        for (StackTraceTreeNode localTree : localTrees) {
+    /**
+     * Builds the tree of one JFR file and records the weight of every node as a measurement of the file's VM,
+     * so merging the partial trees also merges their measurements.
+     */
+    private StackTraceTreeNode buildPartialTree(int index, File jfr, String commit, String testcase,
+                                                FrameExclusionFilter exclusions) {
+        log.info("Building local tree for index: {} from JFR file: {}", index, jfr.getName());
+        StackTraceTreeNode vmTree = buildVmTree(jfr, testcase, exclusions);
 
-            Stack<StackTraceTreeNode> stack = new Stack<>();
-            stack.push(localTree);
+        TreeUtils.addWeightsAsVmMeasurements(vmTree, commit, vmTree.getPayload().getVm(), retainValues);
+        return vmTree;
+    }
 
-            while (!stack.isEmpty()) {
-                StackTraceTreeNode currentNode = stack.pop();
-                if(currentNode == null) continue;
+    private Map<String, StackTraceTreeNode> buildPartialTrees(File jfr, String commit, Collection<String> testcases,
+                                                              JfrTreeBuilder treeBuilder) {
+        log.info("Building local trees of {} testcases from JFR file: {}", testcases.size(), jfr.getName());
+        int vm = extractVmNumber(jfr.getName());
+        Map<String, StackTraceTreeNode> vmTrees = treeBuilder.buildAllFromJfr(jfr);
+        for (String testcase : testcases) {
+            if (!vmTrees.containsKey(testcase)) {
+                log.warn("No samples of testcase {} found in {}", testcase, jfr.getName());
+            }
+        }
+        vmTrees.values().forEach(vmTree -> {
+            vmTree.getPayload().setVm(vm);
+            TreeUtils.addWeightsAsVmMeasurements(vmTree, commit, vm, retainValues);
+        });
+        return vmTrees;
+    }
 
-                List<String> parentSignatures = currentNode.getParentMethodNames();
-                List<String> signaturesToRemove = new ArrayList<>();
-                for (int i = 0; i < parentSignatures.size(); i++) {
-                    if(parentSignatures.get(i).contains(testcaseSignature)) {
-                        break;
-                    } else {
-                        signaturesToRemove.add(parentSignatures.get(i));
-                    }
-                }
-                parentSignatures.removeAll(signaturesToRemove);
+    static File writeMergedTree(StackTraceTreeNode mergedTree, List<File> jfrs, String commit, String testcase) {
+        String folderPath = jfrs.get(0).getParentFile().getAbsolutePath();
+        File output =
+                new File(folderPath + File.separator + testcase + "-" + commit + "-" + UUID.randomUUID() + ".json");
+        log.info("Writing merged tree to a file at location {}", output.getAbsolutePath());
+        TreeUtils.writeCCTtoFile(mergedTree, output);
+        return output;
+    }
 
-                if (!measurementsMap.containsKey(parentSignatures)) {
-                    measurementsMap.put(parentSignatures, new ArrayList<VmMeasurement>());
-                    currentNode.setMeasurements(new HashMap<>());
-                }
+    static StackTraceTreeNode mergePartialTree(StackTraceTreeNode partialTree, StackTraceTreeNode mergedTree) {
+        List<StackTraceTreeNode> vmTrees = new ArrayList<>();
+        vmTrees.add(mergedTree);
+        vmTrees.add(partialTree);
+        return TreeUtils.mergeTrees(vmTrees);
+    }
 
-                VmMeasurement vmMeasurement = measurementsMap.get(parentSignatures).stream()
-                        .filter(vmm -> vmm.getVm() == localTree.getPayload().getVm()).findFirst().orElse(null);
-                if(vmMeasurement != null) {
-                    vmMeasurement.addMeasurement(currentNode.getInitialWeight());
-                } else {
-                    measurementsMap.get(parentSignatures)
-                            .add(new VmMeasurement(new ArrayList<Double>(List.of(currentNode.getInitialWeight())), localTree.getPayload().getVm()));
-                }
+    private StackTraceTreeNode buildVmTree(File jfr, String testcase, FrameExclusionFilter exclusions) {
+        return buildVmTree(jfr, testcase, extractVmNumber(jfr.getName()), exclusions, cache);
+    }
 
-                for (StackTraceTreeNode child : currentNode.getChildren()) {
-                    if (child != null) {
-                        stack.push(child);
-                    }
-                }
-            }
+    static StackTraceTreeNode buildVmTree(File jfr, String testcase, int vm, FrameExclusionFilter exclusions,
+                                          VmTreeCache cache) {
+        // excluded frames are filtered out while the samples are inserted
+        StackTraceTreeNode vmTree = new JfrTreeBuilder(testcase, exclusions, cache).buildFromJfr(jfr);
+        if (vmTree == null) {
+            throw new RuntimeException("No samples of testcase " + testcase + " found in " + jfr.getName());
         }
+        vmTree.getPayload().setVm(vm);
+        return vmTree;
     }
 }
@@ -0,0 +1,309 @@
+package io.github.terahidro2003.cct.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+import org.openjdk.jmc.common.IMCMethod;
+import org.openjdk.jmc.common.IMCModule;
+import org.openjdk.jmc.common.IMCPackage;
+import org.openjdk.jmc.common.IMCType;
+import org.openjdk.jmc.common.util.FormatToolkit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.terahidro2003.cct.FrameExclusionFilter;
+import io.github.terahidro2003.cct.SignatureMatcher;
+import io.github.terahidro2003.cct.TreeUtils;
+import io.github.terahidro2003.cct.jfr.JfrRecordingReader;
+import io.github.terahidro2003.cct.result.SignatureTable;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.cct.result.StackTraceTreePayload;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+import lombok.NonNull;
+
+/**
+ * Builds the tree of a testcase in a single pass over the execution samples of a JFR recording. Every sample is
+ * inserted directly below its outermost testcase frame; hidden frames and excluded frames
+ * ({@link FrameExclusionFilter}) cut the sample off while it is inserted. The result equals
+ * {@link io.github.terahidro2003.cct.SamplerResultsProcessor#getTreeFromJfr} followed by
+ * {@link TreeUtils#filterMultiple}, {@link TreeUtils#mergeTrees} and {@link TreeUtils#filterJvmNodes}, without
+ * building the JMC stack trace model and the full tree in between. Method names are formatted like JMC does.
+ * The trees of several testcases can be extracted in the same pass.
+ * Instances are not thread safe.
+ */
+public class JfrTreeBuilder extends StackTraceTreeBuilder {
+
+    private static final Logger log = LoggerFactory.getLogger(JfrTreeBuilder.class);
+
+    private static final int HIDDEN = SignatureTable.NO_SIGNATURE;
+    private static final int[] NO_PATH = new int[0];
+
+    private final List<String> testcases;
+    private final SignatureMatcher[] testcaseMatchers;
+    private final IntPredicate exclusionMatcher;
+    private final VmTreeCache cache;
+
+    public JfrTreeBuilder(@NonNull String testcase, boolean filterJvmNativeNodes) {
+        this(testcase, filterJvmNativeNodes ? FrameExclusionFilter.JVM_NODES : null);
+    }
+
+    /**
+     * @param exclusions frames to leave out of the tree together with their callees, or null to keep all frames
+     */
+    public JfrTreeBuilder(@NonNull String testcase, FrameExclusionFilter exclusions) {
+        this(testcase, exclusions, null);
+    }
+
+    /**
+     * @param cache cache of the parsed stack traces, or null to parse every recording
+     */
+    public JfrTreeBuilder(@NonNull String testcase, FrameExclusionFilter exclusions, VmTreeCache cache) {
+        this(List.of(testcase), exclusions, cache);
+    }
+
+    /**
+     * Builder extracting the trees of several testcases in one pass over every recording, see
+     * {@link #buildAllFromJfr(File)}.
+     */
+    public JfrTreeBuilder(@NonNull Collection<String> testcases, FrameExclusionFilter exclusions, VmTreeCache cache) {
+        if (testcases.isEmpty()) {
+            throw new IllegalArgumentException("At least one testcase is required");
+        }
+        this.testcases = List.copyOf(new LinkedHashSet<>(testcases));
+        this.testcaseMatchers = this.testcases.stream().map(SignatureMatcher::new).toArray(SignatureMatcher[]::new);
+        this.exclusionMatcher = exclusions == null ? null : exclusions.signatureMatcher();
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the tree of the (first) testcase in the recording, or null if no sample contains the testcase.
+     */
+    public StackTraceTreeNode buildFromJfr(@NonNull File jfr) {
+        return buildAllFromJfr(jfr).get(testcases.get(0));
+    }
+
+    /**
+     * Returns the tree of every testcase in the recording, in the order of the testcases; testcases without samples
+     * are left out. The recording is parsed once for all testcases, and not at all if its stack traces are cached.
+     */
+    public Map<String, StackTraceTreeNode> buildAllFromJfr(@NonNull File jfr) {
+        StackSamples samples = cache == null ? readStackSamples(jfr) : cache.get(jfr, () -> readStackSamples(jfr));
+        return buildTrees(samples, jfr.getName());
+    }
+
+    private Map<String, StackTraceTreeNode> buildTrees(StackSamples samples, String recordingName) {
+        List<Map<Integer, CallTreeInserter>> testcaseTrees = new ArrayList<>();
+        for (int i = 0; i < testcaseMatchers.length; i++) {
+            testcaseTrees.add(new LinkedHashMap<>());
+        }
+        long inserted = 0;
+        for (int s = 0; s < samples.size(); s++) {
+            int[] stack = samples.stack(s);
+            int count = samples.count(s);
+            for (int i = 0; i < testcaseMatchers.length; i++) {
+                int[] path = testcasePath(stack, testcaseMatchers[i]);
+                if (path == NO_PATH) {
+                    continue;
+                }
+                CallTreeInserter inserter = testcaseTrees.get(i).computeIfAbsent(path[0], JfrTreeBuilder::testcaseTree);
+                StackTraceTreeNode root = inserter.getRoot();
+                root.setInitialWeight(root.getInitialWeight() + count);
+                inserter.insert(path, 1, path.length, count);
+                inserted += count;
+            }
+        }
+
+        log.info("Inserted {} testcase samples of {} distinct stack traces from {}", inserted, samples.size(), recordingName);
+        Map<String, StackTraceTreeNode> trees = new LinkedHashMap<>();
+        for (int i = 0; i < testcaseMatchers.length; i++) {
+            if (testcaseTrees.get(i).isEmpty()) {
+                continue;
+            }
+            List<StackTraceTreeNode> roots = new ArrayList<>();
+            testcaseTrees.get(i).values().forEach(inserter -> roots.add(inserter.getRoot()));
+            trees.put(testcases.get(i), TreeUtils.mergeTrees(roots));
+        }
+        return trees;
+    }
+
+    /**
+     * Reads the distinct stack traces of the execution samples, independent of any testcase.
+     */
+    private static StackSamples readStackSamples(File jfr) {
+        StackSamples.Builder samples = new StackSamples.Builder();
+        // stack traces and methods are constant pool entries, shared by all events of a recording chunk
+        Map<RecordedStackTrace, Integer> stackIndices = new IdentityHashMap<>();
+        Map<RecordedMethod, Integer> methodIds = new IdentityHashMap<>();
+
+        try (RecordingFile recording = new RecordingFile(jfr.toPath())) {
+            while (recording.hasMoreEvents()) {
+                RecordedEvent event = recording.readEvent();
+                if (!JfrRecordingReader.EXECUTION_SAMPLE_EVENT.equals(event.getEventType().getName())) {
+                    continue;
+                }
+                RecordedStackTrace stackTrace = event.getStackTrace();
+                if (stackTrace == null) {
+                    continue;
+                }
+                int index = stackIndices.computeIfAbsent(stackTrace, trace -> samples.add(methodIds(trace, methodIds)));
+                samples.addSample(index);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return samples.build();
+    }
+
+    /**
+     * Method ids of the stack trace (caller first), up to the first hidden frame.
+     */
+    private static int[] methodIds(RecordedStackTrace stackTrace, Map<RecordedMethod, Integer> methodIds) {
+        List<RecordedFrame> frames = stackTrace.getFrames();
+        int[] methods = new int[frames.size()];
+        int length = 0;
+        // frames are listed innermost first, while the tree starts at the outermost caller
+        for (int i = frames.size() - 1; i >= 0; i--) {
+            int methodId = methodIds.computeIfAbsent(frames.get(i).getMethod(), JfrTreeBuilder::methodId);
+            if (methodId == HIDDEN) {
+                break;
+            }
+            methods[length++] = methodId;
+        }
+        return length == methods.length ? methods : Arrays.copyOf(methods, length);
+    }
+
+    /**
+     * Method ids of the stack trace from the outermost frame of the testcase on, up to the first excluded frame, or
+     * {@link #NO_PATH} if the stack trace does not contain the testcase.
+     */
+    private int[] testcasePath(int[] methods, SignatureMatcher matcher) {
+        int length = methods.length;
+        int start = 0;
+        while (start < length && !matcher.matches(methods[start])) {
+            start++;
+        }
+        if (start == length || isExcluded(methods[start])) {
+            return NO_PATH;
+        }
+        int end = start + 1;
+        while (end < length && !isExcluded(methods[end])) {
+            end++;
+        }
+        return Arrays.copyOfRange(methods, start, end);
+    }
+
+    private boolean isExcluded(int methodId) {
+        return exclusionMatcher != null && exclusionMatcher.test(methodId);
+    }
+
+    private static CallTreeInserter testcaseTree(int testcaseId) {
+        StackTraceTreeNode root = new StackTraceTreeNode(null, new ArrayList<>(),
+                new StackTraceTreePayload(SignatureTable.lookup(testcaseId)));
+        root.setInitialWeight(0.0);
+        return new CallTreeInserter(root);
+    }
+
+    /**
+     * Frames without a method name and hidden frames are left out of the tree together with their callees,
+     * like {@link StackTraceModelTreeBuilder} does.
+     */
+    private static int methodId(RecordedMethod method) {
+        if (method == null || method.getName() == null || method.getName().isEmpty() || method.isHidden()) {
+            return HIDDEN;
+        }
+        return SignatureTable.intern(FormatToolkit.getHumanReadable(new RecordedMCMethod(method)));
+    }
+
+    /**
+     * JMC view of a recorded method, so signatures are formatted exactly like the frames of a JMC stack trace model.
+     */
+    private static final class RecordedMCMethod implements IMCMethod, IMCType, IMCPackage {
+        private final RecordedMethod method;
+        private final String packageName;
+        private final String typeName;
+
+        RecordedMCMethod(RecordedMethod method) {
+            this.method = method;
+            RecordedClass type = method.getType();
+            String className = type == null || type.getName() == null ? "" : type.getName();
+            int separator = className.lastIndexOf('.');
+            this.packageName = separator < 0 ? null : className.substring(0, separator);
+            this.typeName = className.substring(separator + 1);
+        }
+
+        @Override
+        public IMCType getType() {
+            return this;
+        }
+
+        @Override
+        public String getMethodName() {
+            return method.getName();
+        }
+
+        @Override
+        public String getFormalDescriptor() {
+            return method.getDescriptor();
+        }
+
+        @Override
+        public Integer getModifier() {
+            return method.getModifiers();
+        }
+
+        @Override
+        public Boolean isNative() {
+            return Modifier.isNative(method.getModifiers());
+        }
+
+        @Override
+        public Boolean isHidden() {
+            return method.isHidden();
+        }
+
+        @Override
+        public String getTypeName() {
+            return typeName;
+        }
+
+        @Override
+        public IMCPackage getPackage() {
+            return packageName == null ? null : this;
+        }
+
+        @Override
+        public String getFullName() {
+            return packageName == null ? typeName : packageName + "." + typeName;
+        }
+
+        @Override
+        public String getName() {
+            return packageName;
+        }
+
+        @Override
+        public IMCModule getModule() {
+            return null;
+        }
+
+        @Override
+        public Boolean isExported() {
+            return null;
+        }
+    }
+}
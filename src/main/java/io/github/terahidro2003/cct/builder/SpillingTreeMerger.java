@@ -0,0 +1,304 @@
+package io.github.terahidro2003.cct.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.terahidro2003.cct.TreeUtils;
+import io.github.terahidro2003.cct.TreeWalker;
+import io.github.terahidro2003.cct.io.BinaryCctCursor;
+import io.github.terahidro2003.cct.io.BinaryCctStreamWriter;
+import io.github.terahidro2003.cct.io.BinaryCctWriter;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import lombok.NonNull;
+
+/**
+ * Merges the trees of many VMs with bounded memory. Added trees are merged into an in-memory partial tree, which is
+ * spilled to disk as a run once it holds <code>maxTreesInMemory</code> trees. A run is a binary call context tree
+ * whose children are sorted by method name, so its pre-order is the lexicographic order of the call paths and all
+ * runs are merged in a single k-way merge at the end. While trees are added, the heap holds at most
+ * <code>maxTreesInMemory</code> trees' worth of measurements; the merge itself only holds one node per run and
+ * depth. The result has the same nodes, weights and measurements as merging all trees with
+ * {@link TreeUtils#mergeTrees}, with the children sorted by method name; nodes without a signature come first.
+ * <p>
+ * Like {@link TreeUtils#mergeTrees}, only the trees whose root equals the root of the last added tree are merged.
+ * Since the last tree is only known at the end, the trees are kept in one partial tree and one list of runs per
+ * root.
+ */
+public class SpillingTreeMerger implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(SpillingTreeMerger.class);
+
+    private static final Comparator<String> BY_NAME = Comparator.nullsFirst(Comparator.naturalOrder());
+    private static final Comparator<StackTraceTreeNode> BY_METHOD_NAME =
+            Comparator.comparing(node -> node.getPayload().getMethodName(), BY_NAME);
+
+    private final File spillFolder;
+    private final int maxTreesInMemory;
+    // partial tree and runs per root signature, since only the trees with the root of the last tree are merged
+    private final Map<Integer, Root> roots = new LinkedHashMap<>();
+    private Root lastRoot;
+    private int treesInMemory;
+
+    public SpillingTreeMerger(@NonNull File spillFolder, int maxTreesInMemory) {
+        if (maxTreesInMemory < 1) {
+            throw new IllegalArgumentException("At least one tree must fit into memory");
+        }
+        if (!spillFolder.isDirectory() && !spillFolder.mkdirs()) {
+            throw new RuntimeException("Could not create spill folder " + spillFolder.getAbsolutePath());
+        }
+        this.spillFolder = spillFolder;
+        this.maxTreesInMemory = maxTreesInMemory;
+    }
+
+    /**
+     * Merges the tree into the partial tree of its root, which takes over its nodes.
+     */
+    public void add(StackTraceTreeNode tree) {
+        if (tree == null) {
+            return;
+        }
+        Root root = roots.get(tree.getMethodId());
+        if (root == null) {
+            if (!roots.isEmpty()) {
+                log.error("Root signature {} does not equal the roots of the earlier trees; only the trees with the "
+                        + "root of the last tree are merged", tree.getPayload().getMethodName());
+            }
+            root = new Root();
+            roots.put(tree.getMethodId(), root);
+        }
+        lastRoot = root;
+
+        root.partialTree = root.partialTree == null ? tree : TreeUtils.mergeInto(root.partialTree, tree);
+        root.treesInMemory++;
+        treesInMemory++;
+        if (treesInMemory >= maxTreesInMemory) {
+            for (Root spilled : roots.values()) {
+                spill(spilled);
+            }
+        }
+    }
+
+    public int getRunCount() {
+        int runs = 0;
+        for (Root root : roots.values()) {
+            runs += root.runs.size();
+        }
+        return runs;
+    }
+
+    /**
+     * Merges all added trees with the root of the last tree into one tree, or returns null if no tree was added.
+     */
+    public StackTraceTreeNode mergeToTree() {
+        if (lastRoot == null) {
+            return null;
+        }
+        if (lastRoot.runs.isEmpty()) {
+            sortChildren(lastRoot.partialTree);
+            return lastRoot.partialTree;
+        }
+        List<StackTraceTreeNode> ancestors = new ArrayList<>();
+        mergeRuns(lastRoot, (depth, node) -> {
+            if (depth > 0) {
+                StackTraceTreeNode parent = ancestors.get(depth - 1);
+                node.setParent(parent);
+                parent.getChildren().add(node);
+            }
+            if (depth == ancestors.size()) {
+                ancestors.add(node);
+            } else {
+                ancestors.set(depth, node);
+            }
+        });
+        return ancestors.isEmpty() ? null : ancestors.get(0);
+    }
+
+    /**
+     * Writes the merge of all added trees to a binary call context tree file, which can be opened lazily with
+     * {@link io.github.terahidro2003.cct.io.MappedCctFile}, without building the merged tree.
+     */
+    public void mergeToFile(@NonNull File output) {
+        try (BinaryCctStreamWriter writer = new BinaryCctStreamWriter(output)) {
+            List<Integer> ancestors = new ArrayList<>();
+            mergeRuns(lastRoot, (depth, node) -> {
+                int parentIndex = depth == 0 ? -1 : ancestors.get(depth - 1);
+                int index = writer.add(parentIndex, node);
+                if (depth == ancestors.size()) {
+                    ancestors.add(index);
+                } else {
+                    ancestors.set(depth, index);
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Deletes the runs.
+     */
+    @Override
+    public void close() {
+        for (Root root : roots.values()) {
+            for (File run : root.runs) {
+                try {
+                    Files.deleteIfExists(run.toPath());
+                } catch (IOException e) {
+                    log.warn("Could not delete run {}", run.getAbsolutePath(), e);
+                }
+            }
+        }
+        roots.clear();
+        lastRoot = null;
+        treesInMemory = 0;
+    }
+
+    private void spill(Root root) {
+        if (root.partialTree == null) {
+            return;
+        }
+        sortChildren(root.partialTree);
+        try {
+            File run = File.createTempFile("sjsw-run-", ".cct", spillFolder);
+            root.runs.add(run);
+            BinaryCctWriter.write(root.partialTree, run);
+            log.info("Spilled partial tree of {} trees to run {}", root.treesInMemory, run.getName());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        root.partialTree = null;
+        treesInMemory -= root.treesInMemory;
+        root.treesInMemory = 0;
+    }
+
+    private static void sortChildren(StackTraceTreeNode tree) {
+        TreeWalker.forEach(tree, node -> {
+            List<StackTraceTreeNode> children = node.getChildren();
+            children.removeIf(child -> child == null);
+            children.sort(BY_METHOD_NAME);
+        });
+    }
+
+    /**
+     * The trees added with the same root signature.
+     */
+    private static final class Root {
+        private final List<File> runs = new ArrayList<>();
+        private StackTraceTreeNode partialTree;
+        private int treesInMemory;
+    }
+
+    private interface MergedNodeConsumer {
+        void accept(int depth, StackTraceTreeNode node) throws IOException;
+    }
+
+    /**
+     * Merges the runs in the lexicographic order of their call paths. All records with the same call path are merged
+     * in the order of their runs, so measurements are appended in the order the trees were added.
+     */
+    private void mergeRuns(Root root, MergedNodeConsumer consumer) {
+        if (root == null) {
+            return;
+        }
+        spill(root);
+        List<File> runs = root.runs;
+        log.info("Merging {} runs", runs.size());
+        List<Run> openRuns = new ArrayList<>();
+        try {
+            PriorityQueue<Run> queue = new PriorityQueue<>(Run::compareTo);
+            for (int i = 0; i < runs.size(); i++) {
+                Run run = new Run(i, BinaryCctCursor.open(runs.get(i)));
+                openRuns.add(run);
+                if (run.next()) {
+                    queue.add(run);
+                }
+            }
+
+            List<Run> samePath = new ArrayList<>();
+            while (!queue.isEmpty()) {
+                samePath.clear();
+                samePath.add(queue.poll());
+                while (!queue.isEmpty() && queue.peek().comparePath(samePath.get(0)) == 0) {
+                    samePath.add(queue.poll());
+                }
+
+                StackTraceTreeNode node = samePath.get(0).cursor.readNode();
+                for (int i = 1; i < samePath.size(); i++) {
+                    TreeUtils.mergeInto(node, samePath.get(i).cursor.readNode());
+                }
+                consumer.accept(samePath.get(0).depth, node);
+
+                for (Run run : samePath) {
+                    if (run.next()) {
+                        queue.add(run);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            for (Run run : openRuns) {
+                try {
+                    run.cursor.close();
+                } catch (IOException e) {
+                    log.warn("Could not close run {}", runs.get(run.index).getAbsolutePath(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A run together with the call path of its current record.
+     */
+    private static final class Run implements Comparable<Run> {
+        private final int index;
+        private final BinaryCctCursor cursor;
+        private String[] path = new String[16];
+        private int depth;
+
+        Run(int index, BinaryCctCursor cursor) {
+            this.index = index;
+            this.cursor = cursor;
+        }
+
+        boolean next() {
+            if (!cursor.next()) {
+                return false;
+            }
+            depth = cursor.getDepth();
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+            }
+            path[depth] = cursor.getMethodName();
+            return true;
+        }
+
+        int comparePath(Run other) {
+            int common = Math.min(depth, other.depth);
+            for (int i = 0; i <= common; i++) {
+                int compared = BY_NAME.compare(path[i], other.path[i]);
+                if (compared != 0) {
+                    return compared;
+                }
+            }
+            return Integer.compare(depth, other.depth);
+        }
+
+        @Override
+        public int compareTo(Run other) {
+            int compared = comparePath(other);
+            return compared != 0 ? compared : Integer.compare(index, other.index);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package io.github.terahidro2003.cct.builder;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The distinct stack traces of the execution samples of a recording as {@link
+ * io.github.terahidro2003.cct.result.SignatureTable} ids (caller first), each with its number of samples. Unlike a
+ * tree, they do not depend on a testcase or on frame exclusions, so the trees of every testcase can be built from
+ * them. Stack traces are ordered by their first sample, so inserting them yields the children of every node in the
+ * same order as inserting the samples one by one. Instances are immutable.
+ */
+final class StackSamples {
+
+    private static final int ARRAY_OVERHEAD = 16;
+
+    private final int[][] stacks;
+    private final int[] counts;
+    private final long bytes;
+
+    private StackSamples(int[][] stacks, int[] counts) {
+        this.stacks = stacks;
+        this.counts = counts;
+        long size = 2L * ARRAY_OVERHEAD + Integer.BYTES * counts.length;
+        for (int[] stack : stacks) {
+            size += Integer.BYTES + ARRAY_OVERHEAD + (long) Integer.BYTES * stack.length;
+        }
+        this.bytes = size;
+    }
+
+    int size() {
+        return stacks.length;
+    }
+
+    /**
+     * Must not be modified.
+     */
+    int[] stack(int index) {
+        return stacks[index];
+    }
+
+    int count(int index) {
+        return counts[index];
+    }
+
+    /**
+     * Approximate heap size of the stack traces and counts.
+     */
+    long sizeInBytes() {
+        return bytes;
+    }
+
+    static final class Builder {
+        private final Map<IntBuffer, Integer> indices = new HashMap<>();
+        private int[][] stacks = new int[64][];
+        private int[] counts = new int[64];
+        private int size;
+
+        /**
+         * @return the index of the stack trace, which is added unless an equal stack trace was added before
+         */
+        int add(int[] stack) {
+            // an IntBuffer compares its remaining ids, unlike the array itself
+            return indices.computeIfAbsent(IntBuffer.wrap(stack), key -> {
+                if (size == stacks.length) {
+                    stacks = Arrays.copyOf(stacks, size * 2);
+                    counts = Arrays.copyOf(counts, size * 2);
+                }
+                stacks[size] = stack;
+                return size++;
+            });
+        }
+
+        void addSample(int index) {
+            counts[index]++;
+        }
+
+        StackSamples build() {
+            return new StackSamples(Arrays.copyOf(stacks, size), Arrays.copyOf(counts, size));
+        }
+    }
+}
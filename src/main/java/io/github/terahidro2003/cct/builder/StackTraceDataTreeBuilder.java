@@ -1,6 +1,7 @@
 package io.github.terahidro2003.cct.builder;
 
 import io.github.terahidro2003.cct.result.StackTraceData;
+import io.github.terahidro2003.cct.result.SignatureTable;
 import io.github.terahidro2003.cct.result.StackTraceTreeNode;
 import io.github.terahidro2003.cct.result.StackTraceTreePayload;
 import lombok.NonNull;
@@ -8,7 +9,6 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.io.*;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -35,61 +35,25 @@ public class StackTraceDataTreeBuilder extends StackTraceTreeBuilder {
     }
 
     public StackTraceTreeNode build(List<StackTraceData> organizedSamples) {
-        StackTraceTreeNode root = new StackTraceTreeNode(null, new ArrayList<>(),
-                new StackTraceTreePayload("root"));
-        // we need to reverse the asprof output method names
-        // because the first element in asprof output is the last method call in the stack trace.
-        organizedSamples.forEach(sampleBlock -> {
-            Collections.reverse(sampleBlock.getMethods());
-        });
-
-        organizedSamples.forEach(sampleBlock -> addSampleBlock(root, sampleBlock));
-        return root;
+        CallTreeInserter inserter = new CallTreeInserter(new StackTraceTreeNode(null, new ArrayList<>(),
+                new StackTraceTreePayload("root")));
+        organizedSamples.forEach(sampleBlock -> addSampleBlock(inserter, sampleBlock));
+        return inserter.getRoot();
     }
 
-    private void addSampleBlock(StackTraceTreeNode parent, StackTraceData sampleBlock) {
-        // recursion exit check
-        if(sampleBlock == null) {
+    private void addSampleBlock(CallTreeInserter inserter, StackTraceData sampleBlock) {
+        if(sampleBlock == null || sampleBlock.getMethods() == null) {
             return;
         }
 
-        // get measurement properties
-        var methodNames = sampleBlock.getMethods();
-        var timeTaken = sampleBlock.getTimeTaken();
-        var amountOfSamples = sampleBlock.getTotalNumberOfSamples();
-        var percentageOfSamples = sampleBlock.getPercentageOfTotalTimeTaken();
-
-        // If sample has no methodNames, return.
-        // Maybe consider throwing some exception at this point?
-        if(methodNames == null || methodNames.isEmpty()) {
-            return;
+        // the first element in asprof output is the last method call in the stack trace,
+        // so the method names are inserted from the end of the list
+        List<String> methodNames = sampleBlock.getMethods();
+        int[] methodIds = new int[methodNames.size()];
+        for (int i = 0; i < methodIds.length; i++) {
+            methodIds[i] = SignatureTable.intern(methodNames.get(methodIds.length - 1 - i));
         }
-
-        // We select the first child of current sample block
-        String current = methodNames.get(0);
-        StackTraceTreeNode child = null;
-
-        // We're trying to find whether current parent has our current method as a child
-        for(StackTraceTreeNode parentChild : parent.getChildren()) {
-            if (parentChild.getPayload().getMethodName().equals(current)) {
-                child = parentChild;
-                break;
-            }
-        }
-
-        // If our current parent node doesn't have our current method name as a child,
-        // we assume that this is a new child of the current parent node.
-        if(child == null) {
-            child = new StackTraceTreeNode(parent, new ArrayList<>(), new StackTraceTreePayload(methodNames.get(0)));
-            parent.getChildren().add(child);
-        }
-
-        // prepare for recursion
-        // we remove the first element in method names list of a sample block (because we processed that node)
-        sampleBlock.setMethods(sampleBlock.getMethods().subList(1, sampleBlock.getMethods().size()));
-
-        // recursive call
-        addSampleBlock(child, sampleBlock);
+        inserter.insert(methodIds, methodIds.length);
     }
 
     private static List<StackTraceData> parseProfile(InputStream asyncProfilerOutput) throws IOException {
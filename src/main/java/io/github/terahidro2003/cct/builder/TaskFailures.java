@@ -0,0 +1,23 @@
+package io.github.terahidro2003.cct.builder;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Rethrows failures of the tasks the builders run on their thread pools.
+ */
+final class TaskFailures {
+
+    private TaskFailures() {
+    }
+
+    /**
+     * Returns the runtime exception a task failed with, or wraps its checked exception, so callers can write
+     * <code>throw TaskFailures.unwrap(e)</code>.
+     */
+    static RuntimeException unwrap(ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+            return (RuntimeException) e.getCause();
+        }
+        return new RuntimeException(e.getCause());
+    }
+}
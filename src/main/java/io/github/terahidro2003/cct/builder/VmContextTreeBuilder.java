@@ -1,8 +1,9 @@
 package io.github.terahidro2003.cct.builder;
 
-import io.github.terahidro2003.cct.SamplerResultsProcessor;
+import io.github.terahidro2003.cct.FrameExclusionFilter;
 import io.github.terahidro2003.cct.TreeUtils;
 import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.config.Config;
 import lombok.NonNull;
 
 import java.io.File;
@@ -15,9 +16,44 @@ import org.slf4j.LoggerFactory;
 public class VmContextTreeBuilder extends StackTraceTreeBuilder {
 
     private static final Logger log = LoggerFactory.getLogger(VmContextTreeBuilder.class);
-   
+
+    private final VmTreeCache cache;
+    private final FrameExclusionFilter defaultExclusions;
+
+    public VmContextTreeBuilder() {
+        this((VmTreeCache) null);
+    }
+
+    /**
+     * @param cache cache of the stack traces parsed from the recordings, or null to parse every recording
+     */
+    public VmContextTreeBuilder(VmTreeCache cache) {
+        this(cache, FrameExclusionFilter.JVM_NODES);
+    }
+
+    /**
+     * Builder whose JVM frame filtering leaves out the {@link FrameExclusionFilter#of(Config) frame exclusions of
+     * the config}, using the {@link VmTreeCache#of(Config) configured cache}.
+     */
+    public VmContextTreeBuilder(Config config) {
+        this(VmTreeCache.of(config), FrameExclusionFilter.of(config));
+    }
+
+    private VmContextTreeBuilder(VmTreeCache cache, FrameExclusionFilter defaultExclusions) {
+        this.cache = cache;
+        this.defaultExclusions = defaultExclusions;
+    }
+
     public StackTraceTreeNode buildTree(@NonNull List<File> jfrs, @NonNull String commit, int vms, @NonNull String testcase,
                                         boolean filterJvmNativeNodes) {
+        return buildTree(jfrs, commit, vms, testcase, filterJvmNativeNodes ? defaultExclusions : null);
+    }
+
+    /**
+     * @param exclusions frames to leave out of the trees together with their callees, or null to keep all frames
+     */
+    public StackTraceTreeNode buildTree(@NonNull List<File> jfrs, @NonNull String commit, int vms, @NonNull String testcase,
+                                        FrameExclusionFilter exclusions) {
         log.info("Building tree for testcase method: {}", testcase);
         if (jfrs.isEmpty()) {
             throw new RuntimeException("JFR files cannot be empty");
@@ -27,93 +63,92 @@ public class VmContextTreeBuilder extends StackTraceTreeBuilder {
                 .collect(Collectors.toCollection(ArrayList::new));
         log.info("Filtered JFRs for tree generation: {}", jfrs);
 
-        SamplerResultsProcessor processor = new SamplerResultsProcessor();
+        // excluded frames are filtered out while the samples are inserted
+        JfrTreeBuilder treeBuilder = new JfrTreeBuilder(testcase, exclusions, cache);
         List<StackTraceTreeNode> vmTrees = new ArrayList<>();
         for (int i = 0; i<vms; i++) {
             log.info("Building local tree for VM: {} from JFR file: {}", i, jfrs.get(i).getName());
-            StackTraceTreeNode vmTree = buildVmTree(jfrs.get(i), processor, testcase);
-            System.out.println();
-            System.out.println("FULL VM TREE: " + i);
-            vmTree.printTree();
-            vmTrees.add(vmTree);
+            vmTrees.add(buildVmTree(treeBuilder, jfrs.get(i), commit));
         }
+        return TreeUtils.mergeTrees(vmTrees);
+    }
 
-        // filters out common JVM and native method call nodes from all retrieved subtrees
-        if(filterJvmNativeNodes) {
-            vmTrees = vmTrees.stream().map(TreeUtils::filterJvmNodes)
-                    .collect(Collectors.toCollection(ArrayList::new));
+    /**
+     * Batch variant of {@link #buildTree}: the JFR file of every VM is parsed once for all testcases.
+     *
+     * @return the merged tree of every testcase found in the JFR files, in the order of the testcases
+     */
+    public Map<String, StackTraceTreeNode> buildTrees(@NonNull List<File> jfrs, @NonNull String commit, int vms,
+                                                      @NonNull Collection<String> testcases, FrameExclusionFilter exclusions) {
+        log.info("Building trees for {} testcase methods: {}", testcases.size(), testcases);
+        if (jfrs.isEmpty()) {
+            throw new RuntimeException("JFR files cannot be empty");
         }
 
-        Map<List<String>, List<Double>> measurementsMap = createMeasurementsMap(vmTrees, testcase);
-        StackTraceTreeNode mergedTree = TreeUtils.mergeTrees(vmTrees);
-
-        addLocalMeasurements(mergedTree, measurementsMap, commit);
-        return mergedTree;
-    }
-
-    private StackTraceTreeNode buildVmTree(File jfr, SamplerResultsProcessor processor, String testcase) {
-        StackTraceTreeNode bat = processor.getTreeFromJfr(List.of(jfr), testcase);
+        jfrs = jfrs.stream().filter(jfr -> jfr.getName().contains(commit))
+                .collect(Collectors.toCollection(ArrayList::new));
+        log.info("Filtered JFRs for tree generation: {}", jfrs);
 
-        // retrieves subtrees that share the same parent node
-        log.info("Filtering and retrieving diverted testcase method subtrees");
-        List<StackTraceTreeNode> filteredSubtrees = TreeUtils.filterMultiple(testcase, bat, false);
-        return TreeUtils.mergeTrees(filteredSubtrees);
-    }
+        JfrTreeBuilder treeBuilder = new JfrTreeBuilder(testcases, exclusions, cache);
+        Map<String, List<StackTraceTreeNode>> vmTrees = new HashMap<>();
+        for (int i = 0; i < vms; i++) {
+            log.info("Building local trees for VM: {} from JFR file: {}", i, jfrs.get(i).getName());
+            treeBuilder.buildAllFromJfr(jfrs.get(i)).forEach((testcase, vmTree) -> {
+                TreeUtils.addWeightsAsMeasurements(vmTree, commit);
+                vmTrees.computeIfAbsent(testcase, k -> new ArrayList<>()).add(vmTree);
+            });
+        }
 
-    private Map<List<String>, List<Double>> createMeasurementsMap(List<StackTraceTreeNode> localTrees,
-                                                                 String testcaseSignature) {
-        Map<List<String>, List<Double>> measurementsMap = new HashMap<>();
-        for (StackTraceTreeNode localTree : localTrees) {
-
-            Stack<StackTraceTreeNode> stack = new Stack<>();
-            stack.push(localTree);
-
-            while (!stack.isEmpty()) {
-                StackTraceTreeNode currentNode = stack.pop();
-                if(currentNode == null) continue;
-
-                List<String> parentSignatures = currentNode.getParentMethodNames();
-                List<String> signaturesToRemove = new ArrayList<>();
-                for (int i = 0; i < parentSignatures.size(); i++) {
-                    if(parentSignatures.get(i).contains(testcaseSignature)) {
-                        break;
-                    } else {
-                        signaturesToRemove.add(parentSignatures.get(i));
-                    }
-                }
-                parentSignatures.removeAll(signaturesToRemove);
-
-                if (!measurementsMap.containsKey(parentSignatures)) {
-                    measurementsMap.put(parentSignatures, new ArrayList<>());
-                    currentNode.setMeasurements(new HashMap<>());
-                }
-                measurementsMap.get(parentSignatures).add(currentNode.getInitialWeight());
-
-                for (StackTraceTreeNode child : currentNode.getChildren()) {
-                    if (child != null) {
-                        stack.push(child);
-                    }
-                }
+        Map<String, StackTraceTreeNode> mergedTrees = new LinkedHashMap<>();
+        for (String testcase : testcases) {
+            if (vmTrees.containsKey(testcase)) {
+                mergedTrees.put(testcase, TreeUtils.mergeTrees(vmTrees.get(testcase)));
+            } else {
+                log.warn("No samples of testcase {} found", testcase);
             }
         }
-        return measurementsMap;
+        return mergedTrees;
     }
 
-    private void addLocalMeasurements(StackTraceTreeNode bat, Map<List<String>, List<Double>> measurementsMap, String identifier) {
-        if (bat == null || measurementsMap == null) {
-            throw new IllegalArgumentException("BAT and measurements map cannot be null");
+    /**
+     * Bounded-memory variant of {@link #buildTree}: the tree of every VM is handed to the merger as soon as it is
+     * built, so no more than the merger's trees in memory are kept at a time. The caller merges the result with
+     * {@link SpillingTreeMerger#mergeToTree()} or {@link SpillingTreeMerger#mergeToFile(File)}.
+     */
+    public void aggregateTrees(@NonNull List<File> jfrs, @NonNull String commit, int vms, @NonNull String testcase,
+                               FrameExclusionFilter exclusions, @NonNull SpillingTreeMerger merger) {
+        jfrs = jfrs.stream().filter(jfr -> jfr.getName().contains(commit))
+                .collect(Collectors.toCollection(ArrayList::new));
+        JfrTreeBuilder treeBuilder = new JfrTreeBuilder(testcase, exclusions, cache);
+        for (int i = 0; i < vms; i++) {
+            log.info("Building local tree for VM: {} from JFR file: {}", i, jfrs.get(i).getName());
+            merger.add(buildVmTree(treeBuilder, jfrs.get(i), commit));
         }
+    }
 
-        for (Map.Entry<List<String>, List<Double>> entry : measurementsMap.entrySet()) {
-            List<String> signatures = entry.getKey();
-            List<Double> weights = entry.getValue();
+    /**
+     * Starts the producer/consumer mode: the tree of every VM is built as soon as its JFR is handed to the returned
+     * consumer, so the trees are built while the remaining VMs are measured.
+     *
+     * @param queueCapacity number of finished JFRs that may wait for processing before producers are blocked
+     */
+    public VmTreeConsumer startProcessing(@NonNull String commit, int vms, @NonNull String testcase,
+                                          FrameExclusionFilter exclusions, int queueCapacity) {
+        log.info("Processing trees of {} VMs for testcase method: {}", vms, testcase);
+        return new VmTreeConsumer(commit, vms, testcase, exclusions, cache, queueCapacity);
+    }
 
-            var result = TreeUtils.search(signatures, bat);
-            if (result != null) {
-                for (double weight : weights) {
-                    result.addMeasurement(identifier, weight);
-                }
-            }
+    /**
+     * Builds the tree of one VM, with the weight of every node as a measurement of the commit, so merging the VM
+     * trees yields the per-VM weights of every node.
+     */
+    static StackTraceTreeNode buildVmTree(JfrTreeBuilder treeBuilder, File jfr, String commit) {
+        StackTraceTreeNode vmTree = treeBuilder.buildFromJfr(jfr);
+        if (vmTree == null) {
+            log.warn("No samples of the testcase found in {}", jfr.getName());
+            return null;
         }
+        TreeUtils.addWeightsAsMeasurements(vmTree, commit);
+        return vmTree;
     }
 }
@@ -0,0 +1,171 @@
+package io.github.terahidro2003.cct.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.terahidro2003.config.Config;
+import lombok.NonNull;
+
+/**
+ * Least recently used cache of the stack traces parsed from JFR recordings, so recordings that are processed again,
+ * e.g. for another testcase, another commit's comparison or another builder, are not parsed again. The cache holds
+ * the distinct stack traces of a recording with their sample counts, which do not depend on the testcase or the
+ * frame exclusions; the {@link JfrTreeBuilder} cuts the testcase trees from them on every hit, so callers may modify
+ * and merge the returned trees. The cache is bounded by the total size of the stack traces.
+ * <p>
+ * Entries are keyed by path, size and a CRC32C of the content of the recording. The checksum is only computed again
+ * once the size or modification time of the file changed, so a hit does not read the recording. Instances are
+ * thread safe; a recording that is requested by two threads at the same time may be parsed twice.
+ */
+public class VmTreeCache {
+
+    private static final Logger log = LoggerFactory.getLogger(VmTreeCache.class);
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, StackSamples> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // last seen attributes and checksum of every cached path, so the checksum is only computed for changed files
+    private final Map<String, Fingerprint> fingerprints = new HashMap<>();
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxBytes total size of the stack traces the cache may hold
+     */
+    public VmTreeCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a cache of the configured size, or null if the config does not enable the cache.
+     */
+    public static VmTreeCache of(Config config) {
+        if (config == null || config.treeCacheBytes() == null || config.treeCacheBytes() <= 0) {
+            return null;
+        }
+        return new VmTreeCache(config.treeCacheBytes());
+    }
+
+    /**
+     * Returns the cached stack traces of the recording, or reads them with the given parser and caches them.
+     */
+    StackSamples get(@NonNull File jfr, @NonNull Supplier<StackSamples> parser) {
+        Key key = key(jfr);
+        synchronized (this) {
+            StackSamples cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+                log.debug("Stack traces of {} found in cache", jfr.getName());
+                return cached;
+            }
+            misses++;
+        }
+        StackSamples parsed = parser.get();
+        put(key, parsed);
+        return parsed;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Approximate total size of the cached stack traces in bytes.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        fingerprints.clear();
+        bytes = 0;
+    }
+
+    private synchronized void put(Key key, StackSamples samples) {
+        if (samples.sizeInBytes() > maxBytes) {
+            log.info("Stack traces of {} with {} bytes exceed the cache size, not caching them", key.path,
+                    samples.sizeInBytes());
+            return;
+        }
+        StackSamples previous = entries.put(key, samples);
+        bytes += samples.sizeInBytes() - (previous == null ? 0 : previous.sizeInBytes());
+
+        Iterator<Map.Entry<Key, StackSamples>> leastRecentlyUsed = entries.entrySet().iterator();
+        while (bytes > maxBytes) {
+            Map.Entry<Key, StackSamples> evicted = leastRecentlyUsed.next();
+            bytes -= evicted.getValue().sizeInBytes();
+            Fingerprint fingerprint = fingerprints.get(evicted.getKey().path);
+            if (fingerprint != null && fingerprint.key.equals(evicted.getKey())) {
+                fingerprints.remove(evicted.getKey().path);
+            }
+            leastRecentlyUsed.remove();
+        }
+    }
+
+    private Key key(File jfr) {
+        String path = jfr.getAbsolutePath();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(jfr.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        synchronized (this) {
+            Fingerprint fingerprint = fingerprints.get(path);
+            if (fingerprint != null && fingerprint.key.size == attributes.size() && fingerprint.lastModified == lastModified) {
+                return fingerprint.key;
+            }
+        }
+
+        Key key = new Key(path, attributes.size(), checksum(jfr));
+        synchronized (this) {
+            fingerprints.put(path, new Fingerprint(key, lastModified));
+        }
+        return key;
+    }
+
+    private static long checksum(File jfr) {
+        CRC32C checksum = new CRC32C();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(jfr.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                checksum.update(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return checksum.getValue();
+    }
+
+    private record Key(String path, long size, long checksum) {
+    }
+
+    private record Fingerprint(Key key, long lastModified) {
+    }
+}
@@ -0,0 +1,213 @@
+package io.github.terahidro2003.cct.builder;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.terahidro2003.cct.FrameExclusionFilter;
+import io.github.terahidro2003.cct.TreeUtils;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import lombok.NonNull;
+
+/**
+ * Producer/consumer mode of {@link VmContextTreeBuilder}: the JFRs of finished VMs are put into a bounded queue,
+ * either by the measurement driver through {@link #accept(File)} or by {@link #watch(File, Duration)}, and a
+ * background thread builds and merges the tree of each VM while the next VMs are still measured. Once the
+ * configured number of VMs is merged, {@link #awaitTree()} returns the same tree as
+ * {@link VmContextTreeBuilder#buildTree} for the JFRs in the order they were accepted. If building a tree fails,
+ * the consumer stops and the failure is thrown by the next {@link #accept(File)} and by {@link #awaitTree()}.
+ */
+public class VmTreeConsumer implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(VmTreeConsumer.class);
+
+    private static final File END = new File("");
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private final String commit;
+    private final int vms;
+    private final JfrTreeBuilder treeBuilder;
+    private final BlockingQueue<File> queue;
+    private final Set<String> acceptedJfrs = new HashSet<>();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final Thread consumer;
+    private ScheduledExecutorService watcher;
+
+    // written by the consumer thread, read after done
+    private final Map<Integer, StackTraceTreeNode> treesByRoot = new LinkedHashMap<>();
+    private StackTraceTreeNode mergedTree;
+    private RuntimeException failure;
+
+    VmTreeConsumer(@NonNull String commit, int vms, @NonNull String testcase, FrameExclusionFilter exclusions,
+                   VmTreeCache cache, int queueCapacity) {
+        this.commit = commit;
+        this.vms = vms;
+        this.treeBuilder = new JfrTreeBuilder(testcase, exclusions, cache);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.consumer = new Thread(this::consume, "sjsw-vm-tree-consumer");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Queues the complete JFR of a VM, waiting while the queue is full. JFRs of other commits, JFRs that were already
+     * accepted and JFRs beyond the configured number of VMs are ignored.
+     *
+     * @return whether the JFR was queued; false as well if the consumer has already ended
+     * @throws RuntimeException if building the tree of a previous VM failed
+     */
+    public boolean accept(@NonNull File jfr) {
+        synchronized (acceptedJfrs) {
+            if (!jfr.getName().contains(commit) || acceptedJfrs.size() >= vms
+                    || !acceptedJfrs.add(jfr.getAbsolutePath())) {
+                return false;
+            }
+        }
+        try {
+            return enqueue(jfr);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while queueing " + jfr.getName(), e);
+        }
+    }
+
+    /**
+     * Signals that no further JFRs will be accepted, for example because a VM failed, so {@link #awaitTree()} returns
+     * the tree of the JFRs accepted so far.
+     */
+    public void finish() {
+        synchronized (acceptedJfrs) {
+            if (acceptedJfrs.size() >= vms) {
+                return;
+            }
+            acceptedJfrs.add(END.getAbsolutePath());
+        }
+        try {
+            enqueue(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while finishing", e);
+        }
+    }
+
+    /**
+     * Polls the folder for JFRs of the commit and accepts every JFR as soon as it appears. Appearing under its final
+     * name is the signal that a JFR is complete, so the measurement must write it under another name, e.g. the
+     * <code>unprocessed_</code> name of the executor or a <code>.part</code> suffix, and rename it once the VM
+     * has finished.
+     */
+    public synchronized void watch(@NonNull File folder, @NonNull Duration pollInterval) {
+        if (watcher != null) {
+            throw new IllegalStateException("Already watching a results folder");
+        }
+        watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sjsw-vm-jfr-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watcher.scheduleWithFixedDelay(() -> {
+            File[] jfrs = folder.listFiles((dir, name) -> name.contains(commit) && name.endsWith(".jfr"));
+            if (jfrs == null) {
+                return;
+            }
+            for (File jfr : jfrs) {
+                accept(jfr);
+            }
+        }, 0, pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits until the trees of all VMs are merged and returns the merged tree, or null if no VM contains the testcase.
+     */
+    public StackTraceTreeNode awaitTree() {
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for VM trees", e);
+        }
+        stopWatching();
+        if (failure != null) {
+            throw failure;
+        }
+        return mergedTree;
+    }
+
+    @Override
+    public void close() {
+        stopWatching();
+        consumer.interrupt();
+    }
+
+    private synchronized void stopWatching() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for room in the queue as long as the consumer thread runs.
+     */
+    private boolean enqueue(File jfr) throws InterruptedException {
+        while (done.getCount() > 0) {
+            if (queue.offer(jfr, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        if (failure != null) {
+            throw new RuntimeException("Building the VM trees failed", failure);
+        }
+        return false;
+    }
+
+    private void consume() {
+        try {
+            int lastRoot = -1;
+            for (int i = 0; i < vms; i++) {
+                File jfr = queue.take();
+                if (jfr == END) {
+                    break;
+                }
+                log.info("Building local tree for VM: {} from JFR file: {}", i, jfr.getName());
+                StackTraceTreeNode vmTree = VmContextTreeBuilder.buildVmTree(treeBuilder, jfr, commit);
+                if (vmTree != null) {
+                    lastRoot = vmTree.getMethodId();
+                    treesByRoot.merge(lastRoot, vmTree, TreeUtils::mergeInto);
+                }
+            }
+            mergedTree = mergedTree(lastRoot);
+        } catch (InterruptedException e) {
+            failure = new RuntimeException("Interrupted while building VM trees", e);
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            done.countDown();
+        }
+    }
+
+    /**
+     * Like {@link TreeUtils#mergeTrees}, keeps the VM trees whose root signature equals that of the last VM tree.
+     * The trees are merged per root signature while they arrive, since the last one is only known at the end.
+     */
+    private StackTraceTreeNode mergedTree(int lastRoot) {
+        StackTraceTreeNode merged = treesByRoot.remove(lastRoot);
+        for (StackTraceTreeNode leftOut : treesByRoot.values()) {
+            log.error("Root signature {} of VM tree does not equal {}, leaving it out",
+                    leftOut.getPayload().getMethodName(), merged.getPayload().getMethodName());
+        }
+        treesByRoot.clear();
+        return merged;
+    }
+}
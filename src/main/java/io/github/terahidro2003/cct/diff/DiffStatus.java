@@ -0,0 +1,8 @@
+package io.github.terahidro2003.cct.diff;
+
+/**
+ * Whether a call path exists only in the new tree, only in the old tree or in both.
+ */
+public enum DiffStatus {
+    ADDED, REMOVED, COMMON
+}
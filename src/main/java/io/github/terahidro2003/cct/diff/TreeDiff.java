@@ -0,0 +1,164 @@
+package io.github.terahidro2003.cct.diff;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import lombok.NonNull;
+
+/**
+ * Aligns the call context trees of two commits in a single simultaneous traversal. Children are matched by method,
+ * like {@link io.github.terahidro2003.cct.TreeUtils#mergeInto} does, so every call path is visited once instead of
+ * being searched in the other tree. Subtrees of siblings are diffed in parallel on a fork/join pool; a task only
+ * splits off a subtree while the pool has too little queued work, and traverses everything else with an explicit
+ * stack, so deep trees neither overflow the stack nor create a task per node.
+ */
+public final class TreeDiff {
+
+    /**
+     * Queued tasks per worker above which a task keeps subtrees to itself instead of forking them.
+     */
+    private static final int SURPLUS_TASKS = 2;
+
+    /**
+     * A join may run the joined task on the joining thread, so the nesting of tasks is bounded to bound the stack.
+     */
+    private static final int MAX_NESTING = 64;
+
+    private TreeDiff() {
+    }
+
+    /**
+     * Diffs the trees on the common fork/join pool.
+     */
+    public static TreeDiffNode diff(StackTraceTreeNode oldTree, StackTraceTreeNode newTree) {
+        return diff(oldTree, newTree, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param oldTree tree of the old commit, or null if every call path was added
+     * @param newTree tree of the new commit, or null if every call path was removed
+     */
+    public static TreeDiffNode diff(StackTraceTreeNode oldTree, StackTraceTreeNode newTree, @NonNull ForkJoinPool pool) {
+        if (oldTree == null && newTree == null) {
+            throw new RuntimeException("Both trees were null");
+        }
+        if (oldTree != null && newTree != null && oldTree.getMethodId() != newTree.getMethodId()) {
+            throw new RuntimeException("Root signatures of diffed trees are not equal: " +
+                    oldTree.getPayload().getMethodName() + " and " + newTree.getPayload().getMethodName());
+        }
+        TreeDiffNode root = new TreeDiffNode(oldTree, newTree);
+        pool.invoke(new DiffTask(root, 0));
+        return root;
+    }
+
+    private static final class DiffTask extends RecursiveAction {
+        private static final long serialVersionUID = 3305283166480914227L;
+
+        private final TreeDiffNode root;
+        private final int nesting;
+
+        DiffTask(TreeDiffNode root, int nesting) {
+            this.root = root;
+            this.nesting = nesting;
+        }
+
+        @Override
+        protected void compute() {
+            List<DiffTask> forked = new ArrayList<>();
+            Deque<TreeDiffNode> stack = new ArrayDeque<>();
+            stack.push(root);
+
+            while (!stack.isEmpty()) {
+                TreeDiffNode diffNode = stack.pop();
+                alignChildren(diffNode);
+
+                List<TreeDiffNode> children = diffNode.getChildren();
+                for (int i = 0; i < children.size(); i++) {
+                    TreeDiffNode child = children.get(i);
+                    if (!hasChildren(child.getOldNode()) && !hasChildren(child.getNewNode())) {
+                        continue;
+                    }
+                    // the last child stays with this task, so a chain of single children is never forked
+                    boolean lastChild = i == children.size() - 1;
+                    if (!lastChild && nesting < MAX_NESTING && getSurplusQueuedTaskCount() <= SURPLUS_TASKS) {
+                        DiffTask task = new DiffTask(child, nesting + 1);
+                        task.fork();
+                        forked.add(task);
+                    } else {
+                        stack.push(child);
+                    }
+                }
+            }
+
+            for (DiffTask task : forked) {
+                task.join();
+            }
+        }
+
+        /**
+         * Adds a diff node for every child of both sides; only the first of several children with the same method
+         * is matched.
+         */
+        private static void alignChildren(TreeDiffNode diffNode) {
+            List<StackTraceTreeNode> oldChildren = childrenOf(diffNode.getOldNode());
+            List<StackTraceTreeNode> newChildren = childrenOf(diffNode.getNewNode());
+            List<TreeDiffNode> children = diffNode.getChildren();
+
+            if (oldChildren.isEmpty() || newChildren.isEmpty()) {
+                boolean removed = newChildren.isEmpty();
+                for (StackTraceTreeNode child : removed ? oldChildren : newChildren) {
+                    if (child != null) {
+                        children.add(removed ? new TreeDiffNode(child, null) : new TreeDiffNode(null, child));
+                    }
+                }
+                return;
+            }
+
+            Map<Integer, Integer> newIndexById = new HashMap<>();
+            for (int i = 0; i < newChildren.size(); i++) {
+                StackTraceTreeNode child = newChildren.get(i);
+                if (child != null) {
+                    newIndexById.putIfAbsent(child.getMethodId(), i);
+                }
+            }
+
+            boolean[] matched = new boolean[newChildren.size()];
+            for (StackTraceTreeNode oldChild : oldChildren) {
+                if (oldChild == null) {
+                    continue;
+                }
+                Integer index = newIndexById.get(oldChild.getMethodId());
+                if (index != null && !matched[index]) {
+                    matched[index] = true;
+                    children.add(new TreeDiffNode(oldChild, newChildren.get(index)));
+                } else {
+                    children.add(new TreeDiffNode(oldChild, null));
+                }
+            }
+            for (int i = 0; i < newChildren.size(); i++) {
+                if (!matched[i] && newChildren.get(i) != null) {
+                    children.add(new TreeDiffNode(null, newChildren.get(i)));
+                }
+            }
+        }
+
+        private static List<StackTraceTreeNode> childrenOf(StackTraceTreeNode node) {
+            if (node == null || node.getChildren() == null) {
+                return Collections.emptyList();
+            }
+            return node.getChildren();
+        }
+
+        private static boolean hasChildren(StackTraceTreeNode node) {
+            return !childrenOf(node).isEmpty();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.terahidro2003.cct.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+
+/**
+ * Node of a diff tree built by {@link TreeDiff}. It refers to the node of the same call path in the old and in the
+ * new tree; the node of a side is null if the call path does not exist there.
+ */
+@JsonPropertyOrder({"methodName", "status", "oldWeight", "newWeight", "children"})
+public class TreeDiffNode {
+
+    private final StackTraceTreeNode oldNode;
+    private final StackTraceTreeNode newNode;
+    private final List<TreeDiffNode> children = new ArrayList<>();
+
+    TreeDiffNode(StackTraceTreeNode oldNode, StackTraceTreeNode newNode) {
+        this.oldNode = oldNode;
+        this.newNode = newNode;
+    }
+
+    public String getMethodName() {
+        return (oldNode != null ? oldNode : newNode).getPayload().getMethodName();
+    }
+
+    public DiffStatus getStatus() {
+        if (oldNode == null) {
+            return DiffStatus.ADDED;
+        }
+        return newNode == null ? DiffStatus.REMOVED : DiffStatus.COMMON;
+    }
+
+    /**
+     * Weight of the call path in the old tree, or null if it does not exist there.
+     */
+    public Double getOldWeight() {
+        return oldNode == null ? null : weightOf(oldNode);
+    }
+
+    /**
+     * Weight of the call path in the new tree, or null if it does not exist there.
+     */
+    public Double getNewWeight() {
+        return newNode == null ? null : weightOf(newNode);
+    }
+
+    /**
+     * New weight minus old weight; a missing side counts as zero.
+     */
+    @JsonIgnore
+    public double getWeightDelta() {
+        return (newNode == null ? 0.0 : weightOf(newNode)) - (oldNode == null ? 0.0 : weightOf(oldNode));
+    }
+
+    @JsonIgnore
+    public StackTraceTreeNode getOldNode() {
+        return oldNode;
+    }
+
+    @JsonIgnore
+    public StackTraceTreeNode getNewNode() {
+        return newNode;
+    }
+
+    /**
+     * Common and removed children in the order of the old tree, followed by the added children in the order of the
+     * new tree.
+     */
+    public List<TreeDiffNode> getChildren() {
+        return children;
+    }
+
+    private static double weightOf(StackTraceTreeNode node) {
+        Double initialWeight = node.getInitialWeight();
+        return initialWeight == null ? 0.0 : initialWeight;
+    }
+
+    @Override
+    public String toString() {
+        return getStatus() + " " + getMethodName() + " " + getOldWeight() + " -> " + getNewWeight();
+    }
+}
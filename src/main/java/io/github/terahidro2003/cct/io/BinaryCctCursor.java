@@ -0,0 +1,86 @@
+package io.github.terahidro2003.cct.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.cct.result.StackTraceTreePayload;
+
+/**
+ * Reads the records of a binary call context tree one after another in pre-order, so a tree can be processed
+ * without building it. Only the depth of every record is kept in memory.
+ */
+public class BinaryCctCursor implements AutoCloseable {
+
+    private final MappedCctFile file;
+    private final ByteBuffer view;
+    private final int[] depths;
+    private int index = -1;
+    private RecordHeader header;
+
+    private BinaryCctCursor(MappedCctFile file) {
+        this.file = file;
+        this.view = file.view();
+        this.depths = new int[file.getNodeCount()];
+    }
+
+    public static BinaryCctCursor open(File file) throws IOException {
+        return new BinaryCctCursor(MappedCctFile.open(file));
+    }
+
+    /**
+     * Moves to the next record, returning false once all records were read.
+     */
+    public boolean next() {
+        if (index + 1 >= depths.length) {
+            header = null;
+            return false;
+        }
+        // the children of a record follow its body, so the next record in pre-order starts there
+        int offset = header == null ? file.getRootOffset() : header.childrenStart;
+        header = RecordHeader.read(view, offset);
+        index++;
+        depths[index] = index == 0 ? 0 : depths[index - header.parentOffset] + 1;
+        return true;
+    }
+
+    /**
+     * Depth of the current record, 0 for the root.
+     */
+    public int getDepth() {
+        return depths[index];
+    }
+
+    public String getMethodName() {
+        return file.string(header.methodRef);
+    }
+
+    /**
+     * The current record as a node without parent and children.
+     */
+    public StackTraceTreeNode readNode() {
+        StackTraceTreeNode node = new StackTraceTreeNode(null, new ArrayList<>(),
+                StackTraceTreePayload.ofMethodId(file.methodId(header.methodRef), header.vm));
+        node.setInitialWeight(header.initialWeight);
+        if (header.hasMeasurements() || header.hasVmMeasurements() || header.hasStatistics()) {
+            view.position(header.measurementsStart);
+            if (header.hasMeasurements()) {
+                node.setMeasurements(BinaryCctReader.readMeasurements(view, file::string));
+            }
+            if (header.hasVmMeasurements()) {
+                node.setVmMeasurements(BinaryCctReader.readVmMeasurements(view, file::string));
+            }
+            if (header.hasStatistics()) {
+                node.setStatistics(BinaryCctReader.readStatistics(view, file::string));
+            }
+        }
+        return node;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,222 @@
+package io.github.terahidro2003.cct.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Layout of the binary call context tree format.
+ * <pre>
+ * file     := MAGIC VERSION strings nodeCount record
+ * strings  := varint count, (varint (length + 1), UTF-8 bytes)*     method names and measurement identifiers
+ * record   := varint recordBytes, body, record*                      a node followed by the records of its children
+ * body     := varint method, zigzag vm, varint parentOffset, varint childCount, byte flags,
+ *             [value initialWeight], [varint measurementBytes, [measurements], [vmMeasurements], [statistics]]
+ * measurements   := varint count, (varint identifier, varint n, value*)*
+ * vmMeasurements := varint count, (varint identifier, varint k, (zigzag vm, varint (n &lt;&lt; 1 | s), value*, [stats])*)*
+ * statistics     := varint count, (varint identifier, stats)*
+ * stats          := varint n, value mean, value m2, value min, value max
+ * </pre>
+ * <code>recordBytes</code> is the length of the body and all descendant records, and <code>measurementBytes</code>
+ * the length of the measurements, so a reader can skip a subtree or reach the children of a node without decoding
+ * anything in between. <code>parentOffset</code> is the distance in pre-order index to the parent (0 for the root).
+ * Method names and identifiers are references into the string table; a string of length 0 in the table is written
+ * as 1, and a missing string, e.g. the method name of a payload without signature, as 0. Values (weights) are usually whole sample
+ * counts; integral values are stored as a zigzag varint shifted left by one, all others as the tag 1 followed by
+ * the raw little-endian bits of the double, so every value round-trips exactly. A VM measurement with
+ * <code>s = 1</code> keeps {@link io.github.terahidro2003.cct.result.OnlineStatistics statistics} instead of its
+ * values.
+ */
+public final class BinaryCctFormat {
+
+    public static final int MAGIC = 0x53434354;
+    public static final byte VERSION = 1;
+
+    static final int FLAG_INITIAL_WEIGHT = 1;
+    static final int FLAG_MEASUREMENTS = 2;
+    static final int FLAG_VM_MEASUREMENTS = 4;
+    static final int FLAG_STATISTICS = 8;
+    static final int FLAGS_WITH_MEASUREMENT_BYTES = FLAG_MEASUREMENTS | FLAG_VM_MEASUREMENTS | FLAG_STATISTICS;
+
+    private static final int RAW_VALUE = 1;
+    private static final long MAX_INTEGRAL = 1L << 53;
+
+    private BinaryCctFormat() {
+    }
+
+    /**
+     * Growable byte array the writer encodes records into.
+     */
+    static final class ByteSink {
+        private byte[] bytes = new byte[1 << 16];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        byte[] bytes() {
+            return bytes;
+        }
+
+        void writeMagic() {
+            ensureCapacity(Integer.BYTES);
+            for (int i = 0; i < Integer.BYTES; i++) {
+                bytes[size++] = (byte) (MAGIC >>> (8 * i));
+            }
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) value;
+        }
+
+        void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeZigzag(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeValue(double value) {
+            long integral = (long) value;
+            if (integral > -MAX_INTEGRAL && integral < MAX_INTEGRAL
+                    && Double.doubleToRawLongBits(integral) == Double.doubleToRawLongBits(value)) {
+                writeVarint(((integral << 1) ^ (integral >> 63)) << 1);
+            } else {
+                ensureCapacity(9);
+                bytes[size++] = RAW_VALUE;
+                long bits = Double.doubleToRawLongBits(value);
+                for (int i = 0; i < 8; i++) {
+                    bytes[size++] = (byte) (bits >>> (8 * i));
+                }
+            }
+        }
+
+        void writeBytes(ByteSink other) {
+            ensureCapacity(other.size);
+            System.arraycopy(other.bytes, 0, bytes, size, other.size);
+            size += other.size;
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(encoded.length + 1L);
+            ensureCapacity(encoded.length);
+            System.arraycopy(encoded, 0, bytes, size, encoded.length);
+            size += encoded.length;
+        }
+
+        private void ensureCapacity(int additional) {
+            if (size + additional > bytes.length) {
+                long capacity = Math.max((long) bytes.length * 2, (long) size + additional);
+                if (capacity > Integer.MAX_VALUE - 8) {
+                    throw new IllegalStateException("Tree is too large for the binary format");
+                }
+                bytes = Arrays.copyOf(bytes, (int) capacity);
+            }
+        }
+    }
+
+    static ByteBuffer order(ByteBuffer buffer) {
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static long readVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint at position " + buffer.position());
+    }
+
+    static int readInt(ByteBuffer buffer) {
+        long value = readVarint(buffer);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Value out of range at position " + buffer.position() + ": " + value);
+        }
+        return (int) value;
+    }
+
+    static long readZigzag(ByteBuffer buffer) {
+        long value = readVarint(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static double readValue(ByteBuffer buffer) {
+        long token = readVarint(buffer);
+        if (token == RAW_VALUE) {
+            return Double.longBitsToDouble(buffer.getLong());
+        }
+        long zigzag = token >>> 1;
+        return (double) ((zigzag >>> 1) ^ -(zigzag & 1));
+    }
+
+    static void skipValue(ByteBuffer buffer) {
+        if (readVarint(buffer) == RAW_VALUE) {
+            buffer.position(buffer.position() + Long.BYTES);
+        }
+    }
+
+    static String readString(ByteBuffer buffer) {
+        int length = readInt(buffer) - 1;
+        if (length < 0) {
+            return null;
+        }
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(buffer.position(), bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    static void skipString(ByteBuffer buffer) {
+        int length = readInt(buffer) - 1;
+        if (length > 0) {
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    static int varintLength(long value) {
+        int length = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    static void checkHeader(ByteBuffer buffer) {
+        if (buffer.remaining() < 5 || buffer.getInt() != MAGIC) {
+            throw new IllegalStateException("Not a binary call context tree file");
+        }
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalStateException("Unsupported binary call context tree version " + version);
+        }
+    }
+}
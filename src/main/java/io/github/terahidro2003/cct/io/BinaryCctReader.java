@@ -0,0 +1,172 @@
+package io.github.terahidro2003.cct.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.terahidro2003.cct.result.DoubleList;
+import io.github.terahidro2003.cct.result.OnlineStatistics;
+import io.github.terahidro2003.cct.result.SignatureTable;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.cct.result.StackTraceTreePayload;
+import io.github.terahidro2003.cct.result.VmMeasurement;
+
+/**
+ * Reads a complete call context tree written by {@link BinaryCctWriter}. Method names are interned once per
+ * string table entry, and the parent of every record is found through its parent offset, so the tree is
+ * rebuilt in a single pass over the records.
+ */
+public class BinaryCctReader {
+
+    private static final Logger log = LoggerFactory.getLogger(BinaryCctReader.class);
+
+    private static final int NOT_INTERNED = -2;
+
+    public static StackTraceTreeNode read(File file) throws IOException {
+        log.info("Reading binary call context tree from {}", file.getAbsolutePath());
+        return read(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+    }
+
+    public static StackTraceTreeNode read(InputStream in) throws IOException {
+        return read(ByteBuffer.wrap(in.readAllBytes()));
+    }
+
+    public static StackTraceTreeNode read(ByteBuffer buffer) {
+        buffer = BinaryCctFormat.order(buffer.slice());
+        BinaryCctFormat.checkHeader(buffer);
+
+        String[] strings = new String[BinaryCctFormat.readInt(buffer)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = BinaryCctFormat.readString(buffer);
+        }
+        int[] methodIds = new int[strings.length];
+        Arrays.fill(methodIds, NOT_INTERNED);
+
+        int nodeCount = BinaryCctFormat.readInt(buffer);
+        if (nodeCount == 0) {
+            return null;
+        }
+        StackTraceTreeNode[] nodes = new StackTraceTreeNode[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            // the record length is only needed to skip subtrees
+            BinaryCctFormat.readVarint(buffer);
+
+            int methodRef = BinaryCctFormat.readInt(buffer);
+            if (methodIds[methodRef] == NOT_INTERNED) {
+                methodIds[methodRef] = SignatureTable.intern(strings[methodRef]);
+            }
+            int vm = (int) BinaryCctFormat.readZigzag(buffer);
+            int parentOffset = BinaryCctFormat.readInt(buffer);
+            int childCount = BinaryCctFormat.readInt(buffer);
+            if ((i == 0) != (parentOffset == 0) || parentOffset > i) {
+                throw new IllegalStateException("Invalid parent offset " + parentOffset + " of record " + i);
+            }
+
+            StackTraceTreeNode parent = i == 0 ? null : nodes[i - parentOffset];
+            StackTraceTreeNode node = new StackTraceTreeNode(parent, new ArrayList<>(childCount),
+                    StackTraceTreePayload.ofMethodId(methodIds[methodRef], vm));
+            if (parent != null) {
+                parent.getChildren().add(node);
+            }
+            nodes[i] = node;
+
+            readNodeMeasurements(buffer, node, strings);
+        }
+        return nodes[0];
+    }
+
+    private static void readNodeMeasurements(ByteBuffer buffer, StackTraceTreeNode node, String[] strings) {
+        int flags = buffer.get();
+        if ((flags & BinaryCctFormat.FLAG_INITIAL_WEIGHT) != 0) {
+            node.setInitialWeight(BinaryCctFormat.readValue(buffer));
+        }
+        if ((flags & BinaryCctFormat.FLAGS_WITH_MEASUREMENT_BYTES) == 0) {
+            return;
+        }
+        // the measurement length is only needed to reach the children without decoding the measurements
+        BinaryCctFormat.readVarint(buffer);
+        if ((flags & BinaryCctFormat.FLAG_MEASUREMENTS) != 0) {
+            node.setMeasurements(readMeasurements(buffer, i -> strings[i]));
+        }
+        if ((flags & BinaryCctFormat.FLAG_VM_MEASUREMENTS) != 0) {
+            node.setVmMeasurements(readVmMeasurements(buffer, i -> strings[i]));
+        }
+        if ((flags & BinaryCctFormat.FLAG_STATISTICS) != 0) {
+            node.setStatistics(readStatistics(buffer, i -> strings[i]));
+        }
+    }
+
+    static Map<String, List<Double>> readMeasurements(ByteBuffer buffer, IntFunction<String> strings) {
+        int identifiers = BinaryCctFormat.readInt(buffer);
+        Map<String, List<Double>> measurements = new HashMap<>(2);
+        for (int i = 0; i < identifiers; i++) {
+            String identifier = strings.apply(BinaryCctFormat.readInt(buffer));
+            measurements.put(identifier, readValues(buffer));
+        }
+        return measurements;
+    }
+
+    static Map<String, List<VmMeasurement>> readVmMeasurements(ByteBuffer buffer, IntFunction<String> strings) {
+        int identifiers = BinaryCctFormat.readInt(buffer);
+        Map<String, List<VmMeasurement>> vmMeasurements = new HashMap<>(2);
+        for (int i = 0; i < identifiers; i++) {
+            String identifier = strings.apply(BinaryCctFormat.readInt(buffer));
+            int count = BinaryCctFormat.readInt(buffer);
+            List<VmMeasurement> measurements = new ArrayList<>(count);
+            for (int j = 0; j < count; j++) {
+                int vm = (int) BinaryCctFormat.readZigzag(buffer);
+                long header = BinaryCctFormat.readVarint(buffer);
+                DoubleList values = readValues(buffer, (int) (header >>> 1));
+                if ((header & 1) != 0) {
+                    measurements.add(VmMeasurement.withStatistics(readStatistics(buffer), vm));
+                } else {
+                    measurements.add(new VmMeasurement(values, vm));
+                }
+            }
+            vmMeasurements.put(identifier, measurements);
+        }
+        return vmMeasurements;
+    }
+
+    static Map<String, OnlineStatistics> readStatistics(ByteBuffer buffer, IntFunction<String> strings) {
+        int identifiers = BinaryCctFormat.readInt(buffer);
+        Map<String, OnlineStatistics> statistics = new HashMap<>(2);
+        for (int i = 0; i < identifiers; i++) {
+            String identifier = strings.apply(BinaryCctFormat.readInt(buffer));
+            statistics.put(identifier, readStatistics(buffer));
+        }
+        return statistics;
+    }
+
+    static OnlineStatistics readStatistics(ByteBuffer buffer) {
+        long count = BinaryCctFormat.readVarint(buffer);
+        double mean = BinaryCctFormat.readValue(buffer);
+        double m2 = BinaryCctFormat.readValue(buffer);
+        double min = BinaryCctFormat.readValue(buffer);
+        double max = BinaryCctFormat.readValue(buffer);
+        return new OnlineStatistics(count, mean, m2, min, max);
+    }
+
+    static DoubleList readValues(ByteBuffer buffer) {
+        return readValues(buffer, BinaryCctFormat.readInt(buffer));
+    }
+
+    private static DoubleList readValues(ByteBuffer buffer, int count) {
+        DoubleList values = new DoubleList(count);
+        for (int i = 0; i < count; i++) {
+            values.addDouble(BinaryCctFormat.readValue(buffer));
+        }
+        return values;
+    }
+}
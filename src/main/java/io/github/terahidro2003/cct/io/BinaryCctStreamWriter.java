@@ -0,0 +1,163 @@
+package io.github.terahidro2003.cct.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.terahidro2003.cct.io.BinaryCctFormat.ByteSink;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+
+/**
+ * Writes a call context tree in the {@link BinaryCctFormat} node by node in pre-order, without keeping the nodes.
+ * Weights and measurements of every node are buffered in a temporary file next to the output; only the method,
+ * VM, parent and child count of each node stay in memory until the record lengths are known on {@link #close()}.
+ * The children of a node are given by {@link #add(int, StackTraceTreeNode)}, not by the node itself.
+ */
+public class BinaryCctStreamWriter implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(BinaryCctStreamWriter.class);
+
+    private final File file;
+    private final File contentFile;
+    private final OutputStream content;
+    private final BinaryCctWriter encoder = new BinaryCctWriter();
+    private final ByteSink sink = new ByteSink();
+
+    private int nodeCount;
+    private int[] methodRefs = new int[1024];
+    private int[] vms = new int[1024];
+    private int[] parentIndexes = new int[1024];
+    private int[] childCounts = new int[1024];
+    private int[] contentLengths = new int[1024];
+    // pre-order indexes of the most recently added node and its ancestors
+    private int[] path = new int[64];
+    private int depth;
+
+    public BinaryCctStreamWriter(File file) throws IOException {
+        this.file = file;
+        this.contentFile = new File(file.getAbsolutePath() + ".content");
+        this.content = new BufferedOutputStream(Files.newOutputStream(contentFile.toPath()), 1 << 16);
+    }
+
+    /**
+     * Adds the next node in pre-order, ignoring its children.
+     *
+     * @param parentIndex index of the parent, which must be the previously added node or one of its ancestors,
+     *                    or -1 for the root
+     * @return the pre-order index of the node
+     */
+    public int add(int parentIndex, StackTraceTreeNode node) throws IOException {
+        if (parentIndex < 0) {
+            if (nodeCount != 0) {
+                throw new IllegalArgumentException("Only the first node can be the root");
+            }
+            depth = 0;
+        } else {
+            while (depth > 0 && path[depth - 1] != parentIndex) {
+                depth--;
+            }
+            if (depth == 0) {
+                throw new IllegalArgumentException("Node " + parentIndex + " is not an ancestor of the previous node");
+            }
+            childCounts[parentIndex]++;
+        }
+
+        int index = nodeCount++;
+        ensureCapacity(nodeCount);
+        methodRefs[index] = encoder.stringIndex(node.getPayload().getMethodName());
+        vms[index] = node.getPayload().getVm();
+        parentIndexes[index] = parentIndex;
+
+        sink.reset();
+        encoder.writeContent(node, sink);
+        content.write(sink.bytes(), 0, sink.size());
+        contentLengths[index] = sink.size();
+
+        if (depth == path.length) {
+            path = Arrays.copyOf(path, depth * 2);
+        }
+        path[depth++] = index;
+        return index;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        content.close();
+        try {
+            write();
+        } finally {
+            Files.deleteIfExists(contentFile.toPath());
+        }
+        log.info("Wrote binary call context tree with {} nodes to {} ({} bytes)", nodeCount, file.getAbsolutePath(),
+                file.length());
+    }
+
+    private void write() throws IOException {
+        // descendants follow their ancestor, so record lengths are accumulated in reverse pre-order
+        long[] recordBytes = new long[nodeCount];
+        for (int i = nodeCount - 1; i >= 0; i--) {
+            recordBytes[i] += headLength(i) + contentLengths[i];
+            if (i > 0) {
+                recordBytes[parentIndexes[i]] += BinaryCctFormat.varintLength(recordBytes[i]) + recordBytes[i];
+            }
+        }
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()), 1 << 16);
+             InputStream in = new BufferedInputStream(Files.newInputStream(contentFile.toPath()), 1 << 16)) {
+            BinaryCctWriter.writeHeader(encoder.strings(), nodeCount, out);
+            byte[] buffer = new byte[1 << 12];
+            for (int i = 0; i < nodeCount; i++) {
+                sink.reset();
+                sink.writeVarint(recordBytes[i]);
+                sink.writeVarint(methodRefs[i]);
+                sink.writeZigzag(vms[i]);
+                sink.writeVarint(parentOffset(i));
+                sink.writeVarint(childCounts[i]);
+                out.write(sink.bytes(), 0, sink.size());
+
+                int remaining = contentLengths[i];
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new IOException("Content of node " + i + " is truncated in " + contentFile);
+                    }
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+        }
+    }
+
+    private int headLength(int index) {
+        long zigzagVm = ((long) vms[index] << 1) ^ ((long) vms[index] >> 63);
+        return BinaryCctFormat.varintLength(methodRefs[index]) + BinaryCctFormat.varintLength(zigzagVm)
+                + BinaryCctFormat.varintLength(parentOffset(index)) + BinaryCctFormat.varintLength(childCounts[index]);
+    }
+
+    private int parentOffset(int index) {
+        return index == 0 ? 0 : index - parentIndexes[index];
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > methodRefs.length) {
+            int capacity = Math.max(methodRefs.length * 2, size);
+            methodRefs = Arrays.copyOf(methodRefs, capacity);
+            vms = Arrays.copyOf(vms, capacity);
+            parentIndexes = Arrays.copyOf(parentIndexes, capacity);
+            childCounts = Arrays.copyOf(childCounts, capacity);
+            contentLengths = Arrays.copyOf(contentLengths, capacity);
+        }
+    }
+}
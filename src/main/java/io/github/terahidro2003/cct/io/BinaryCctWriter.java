@@ -0,0 +1,246 @@
+package io.github.terahidro2003.cct.io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.terahidro2003.cct.TreeWalker;
+import io.github.terahidro2003.cct.io.BinaryCctFormat.ByteSink;
+import io.github.terahidro2003.cct.result.DoubleList;
+import io.github.terahidro2003.cct.result.OnlineStatistics;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.cct.result.VmMeasurement;
+
+/**
+ * Writes a call context tree in the {@link BinaryCctFormat}. The records are encoded in a first pass; the
+ * record lengths, which precede each record, are only known afterwards and are prepended while writing.
+ */
+public class BinaryCctWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(BinaryCctWriter.class);
+
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final ByteSink measurementSink = new ByteSink();
+
+    public static void write(StackTraceTreeNode tree, File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()), 1 << 16)) {
+            write(tree, out);
+        }
+        log.info("Wrote binary call context tree to {} ({} bytes)", file.getAbsolutePath(), file.length());
+    }
+
+    public static void write(StackTraceTreeNode tree, OutputStream out) throws IOException {
+        new BinaryCctWriter().writeTree(tree, out);
+    }
+
+    private void writeTree(StackTraceTreeNode tree, OutputStream out) throws IOException {
+        List<StackTraceTreeNode> nodes = new ArrayList<>();
+        List<Integer> parentIndexes = new ArrayList<>();
+        preOrder(tree, nodes, parentIndexes);
+        int[] bodyOffsets = new int[nodes.size() + 1];
+
+        ByteSink bodies = new ByteSink();
+        for (int i = 0; i < nodes.size(); i++) {
+            bodyOffsets[i] = bodies.size();
+            writeBody(nodes.get(i), i == 0 ? 0 : i - parentIndexes.get(i), bodies);
+        }
+        bodyOffsets[nodes.size()] = bodies.size();
+
+        // descendants follow their ancestor, so record lengths are accumulated in reverse pre-order
+        long[] recordBytes = new long[nodes.size()];
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            recordBytes[i] += bodyOffsets[i + 1] - bodyOffsets[i];
+            if (i > 0) {
+                recordBytes[parentIndexes.get(i)] += BinaryCctFormat.varintLength(recordBytes[i]) + recordBytes[i];
+            }
+        }
+
+        writeHeader(strings, nodes.size(), out);
+
+        ByteSink prefix = new ByteSink();
+        for (int i = 0; i < nodes.size(); i++) {
+            prefix.writeVarint(recordBytes[i]);
+            out.write(prefix.bytes(), 0, prefix.size());
+            prefix.reset();
+            out.write(bodies.bytes(), bodyOffsets[i], bodyOffsets[i + 1] - bodyOffsets[i]);
+        }
+    }
+
+    static void writeHeader(List<String> strings, int nodeCount, OutputStream out) throws IOException {
+        ByteSink header = new ByteSink();
+        header.writeMagic();
+        header.writeByte(BinaryCctFormat.VERSION);
+        header.writeVarint(strings.size());
+        for (String string : strings) {
+            header.writeString(string);
+        }
+        header.writeVarint(nodeCount);
+        out.write(header.bytes(), 0, header.size());
+    }
+
+    /**
+     * Collects the nodes in pre-order together with the pre-order index of their parent (-1 for the root).
+     */
+    private static void preOrder(StackTraceTreeNode tree, List<StackTraceTreeNode> nodes, List<Integer> parentIndexes) {
+        TreeWalker.walk(tree, new TreeWalker.Visitor() {
+            // pre-order indexes of the ancestors of the entered node by depth
+            private int[] ancestors = new int[64];
+
+            @Override
+            public TreeWalker.Action enter(StackTraceTreeNode currentNode, int depth) {
+                if (depth == ancestors.length) {
+                    ancestors = Arrays.copyOf(ancestors, depth * 2);
+                }
+                ancestors[depth] = nodes.size();
+                parentIndexes.add(depth == 0 ? -1 : ancestors[depth - 1]);
+                nodes.add(currentNode);
+                return TreeWalker.Action.CONTINUE;
+            }
+        });
+    }
+
+    private void writeBody(StackTraceTreeNode node, int parentOffset, ByteSink sink) {
+        sink.writeVarint(stringIndex(node.getPayload().getMethodName()));
+        sink.writeZigzag(node.getPayload().getVm());
+        sink.writeVarint(parentOffset);
+        sink.writeVarint(childCount(node));
+        writeContent(node, sink);
+    }
+
+    /**
+     * Writes the part of the body after the child count: flags, initial weight and measurements.
+     */
+    void writeContent(StackTraceTreeNode node, ByteSink sink) {
+        Map<String, List<Double>> measurements = node.getMeasurements();
+        Map<String, List<VmMeasurement>> vmMeasurements = node.getVmMeasurements();
+        Map<String, OnlineStatistics> statistics = node.getStatistics();
+        int flags = 0;
+        if (node.getInitialWeight() != null) {
+            flags |= BinaryCctFormat.FLAG_INITIAL_WEIGHT;
+        }
+        if (!measurements.isEmpty()) {
+            flags |= BinaryCctFormat.FLAG_MEASUREMENTS;
+        }
+        if (!vmMeasurements.isEmpty()) {
+            flags |= BinaryCctFormat.FLAG_VM_MEASUREMENTS;
+        }
+        if (!statistics.isEmpty()) {
+            flags |= BinaryCctFormat.FLAG_STATISTICS;
+        }
+        sink.writeByte(flags);
+
+        if (node.getInitialWeight() != null) {
+            sink.writeValue(node.getInitialWeight());
+        }
+        if ((flags & BinaryCctFormat.FLAGS_WITH_MEASUREMENT_BYTES) == 0) {
+            return;
+        }
+
+        ByteSink measurementSink = this.measurementSink;
+        measurementSink.reset();
+        if (!measurements.isEmpty()) {
+            measurementSink.writeVarint(measurements.size());
+            for (Map.Entry<String, List<Double>> entry : measurements.entrySet()) {
+                measurementSink.writeVarint(stringIndex(entry.getKey()));
+                writeValues(entry.getValue(), measurementSink);
+            }
+        }
+        if (!vmMeasurements.isEmpty()) {
+            measurementSink.writeVarint(vmMeasurements.size());
+            for (Map.Entry<String, List<VmMeasurement>> entry : vmMeasurements.entrySet()) {
+                measurementSink.writeVarint(stringIndex(entry.getKey()));
+                measurementSink.writeVarint(entry.getValue().size());
+                for (VmMeasurement vmMeasurement : entry.getValue()) {
+                    measurementSink.writeZigzag(vmMeasurement.getVm());
+                    boolean hasStatistics = !vmMeasurement.isRetainingValues();
+                    writeValues(vmMeasurement.getMeasurements(), hasStatistics, measurementSink);
+                    if (hasStatistics) {
+                        writeStatistics(vmMeasurement.getStatistics(), measurementSink);
+                    }
+                }
+            }
+        }
+        if (!statistics.isEmpty()) {
+            measurementSink.writeVarint(statistics.size());
+            for (Map.Entry<String, OnlineStatistics> entry : statistics.entrySet()) {
+                measurementSink.writeVarint(stringIndex(entry.getKey()));
+                writeStatistics(entry.getValue(), measurementSink);
+            }
+        }
+        sink.writeVarint(measurementSink.size());
+        sink.writeBytes(measurementSink);
+    }
+
+    private static void writeValues(List<Double> values, ByteSink sink) {
+        sink.writeVarint(values.size());
+        writeValueList(values, sink);
+    }
+
+    /**
+     * Writes the values of a VM measurement, whose count also tells whether statistics follow.
+     */
+    private static void writeValues(List<Double> values, boolean hasStatistics, ByteSink sink) {
+        sink.writeVarint(((long) values.size() << 1) | (hasStatistics ? 1 : 0));
+        writeValueList(values, sink);
+    }
+
+    private static void writeStatistics(OnlineStatistics statistics, ByteSink sink) {
+        sink.writeVarint(statistics.getCount());
+        sink.writeValue(statistics.getMean());
+        sink.writeValue(statistics.getM2());
+        sink.writeValue(statistics.getMin());
+        sink.writeValue(statistics.getMax());
+    }
+
+    private static void writeValueList(List<Double> values, ByteSink sink) {
+        if (values instanceof DoubleList) {
+            DoubleList doubles = (DoubleList) values;
+            for (int i = 0; i < doubles.size(); i++) {
+                sink.writeValue(doubles.getDouble(i));
+            }
+            return;
+        }
+        for (Double value : values) {
+            if (value == null) {
+                throw new IllegalArgumentException("Measurements must not contain null values");
+            }
+            sink.writeValue(value);
+        }
+    }
+
+    private static int childCount(StackTraceTreeNode node) {
+        int count = 0;
+        for (StackTraceTreeNode child : node.getChildren()) {
+            if (child != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    List<String> strings() {
+        return strings;
+    }
+
+    int stringIndex(String value) {
+        Integer index = stringIndexes.get(value);
+        if (index == null) {
+            index = strings.size();
+            strings.add(value);
+            stringIndexes.put(value, index);
+        }
+        return index;
+    }
+
+}
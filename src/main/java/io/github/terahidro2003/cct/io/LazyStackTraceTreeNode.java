@@ -0,0 +1,191 @@
+package io.github.terahidro2003.cct.io;
+
+import java.io.NotSerializableException;
+import java.io.ObjectStreamException;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import io.github.terahidro2003.cct.result.OnlineStatistics;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.cct.result.StackTraceTreePayload;
+import io.github.terahidro2003.cct.result.VmMeasurement;
+
+/**
+ * Node of a {@link MappedCctFile}. The method, the VM and the initial weight are read when the node is created;
+ * children and measurements are decoded from the mapped file on first access. Modifications load the affected
+ * part first and are only kept in memory.
+ */
+public class LazyStackTraceTreeNode extends StackTraceTreeNode {
+    private static final long serialVersionUID = -2981731021387429075L;
+
+    private final transient MappedCctFile file;
+    private final int childrenStart;
+    private final int recordEnd;
+    private final int childCount;
+    private final int measurementsStart;
+    private final boolean hasMeasurements;
+    private final boolean hasVmMeasurements;
+    private final boolean hasStatistics;
+
+    private boolean childrenLoaded;
+    private boolean measurementsLoaded;
+    private boolean vmMeasurementsLoaded;
+    private boolean statisticsLoaded;
+
+    LazyStackTraceTreeNode(MappedCctFile file, RecordHeader header, StackTraceTreeNode parent, StackTraceTreePayload payload) {
+        super(parent, null, payload);
+        this.file = file;
+        this.childrenStart = header.childrenStart;
+        this.recordEnd = header.recordEnd;
+        this.childCount = header.childCount;
+        this.measurementsStart = header.measurementsStart;
+        this.hasMeasurements = header.hasMeasurements();
+        this.hasVmMeasurements = header.hasVmMeasurements();
+        this.hasStatistics = header.hasStatistics();
+        this.measurementsLoaded = !hasMeasurements;
+        this.vmMeasurementsLoaded = !hasVmMeasurements;
+        this.statisticsLoaded = !hasStatistics;
+        super.setInitialWeight(header.initialWeight);
+    }
+
+    /**
+     * Number of children, known without loading them.
+     */
+    @JsonIgnore
+    public int getChildCount() {
+        return childrenLoaded ? super.getChildren().size() : childCount;
+    }
+
+    @JsonIgnore
+    public boolean isChildrenLoaded() {
+        return childrenLoaded;
+    }
+
+    @JsonIgnore
+    public boolean isMeasurementsLoaded() {
+        return measurementsLoaded && vmMeasurementsLoaded && statisticsLoaded;
+    }
+
+    @Override
+    public List<StackTraceTreeNode> getChildren() {
+        if (!childrenLoaded) {
+            super.setChildren(file.readChildren(this, childrenStart, recordEnd, childCount));
+            childrenLoaded = true;
+        }
+        return super.getChildren();
+    }
+
+    @Override
+    public void setChildren(List<StackTraceTreeNode> children) {
+        super.setChildren(children);
+        childrenLoaded = true;
+    }
+
+    @Override
+    public Map<String, List<Double>> getMeasurements() {
+        loadMeasurements();
+        return super.getMeasurements();
+    }
+
+    @Override
+    public void setMeasurements(Map<String, List<Double>> measurements) {
+        super.setMeasurements(measurements);
+        measurementsLoaded = true;
+    }
+
+    @Override
+    public void addMeasurement(String identifier, Double weight) {
+        loadMeasurements();
+        super.addMeasurement(identifier, weight);
+    }
+
+    @Override
+    public void addMeasurements(String identifier, List<Double> weights) {
+        loadMeasurements();
+        super.addMeasurements(identifier, weights);
+    }
+
+    @Override
+    public Map<String, List<VmMeasurement>> getVmMeasurements() {
+        loadVmMeasurements();
+        return super.getVmMeasurements();
+    }
+
+    @Override
+    public void setVmMeasurements(Map<String, List<VmMeasurement>> vmMeasurements) {
+        super.setVmMeasurements(vmMeasurements);
+        vmMeasurementsLoaded = true;
+    }
+
+    @Override
+    public void addMeasurement(String identifier, VmMeasurement weights) {
+        loadVmMeasurements();
+        super.addMeasurement(identifier, weights);
+    }
+
+    @Override
+    public void mergeVmMeasurement(String identifier, VmMeasurement weights) {
+        loadVmMeasurements();
+        super.mergeVmMeasurement(identifier, weights);
+    }
+
+    @Override
+    public void resetVmMeasurements() {
+        super.resetVmMeasurements();
+        vmMeasurementsLoaded = true;
+    }
+
+    @Override
+    public Map<String, OnlineStatistics> getStatistics() {
+        loadStatistics();
+        return super.getStatistics();
+    }
+
+    @Override
+    public void setStatistics(Map<String, OnlineStatistics> statistics) {
+        super.setStatistics(statistics);
+        statisticsLoaded = true;
+    }
+
+    @Override
+    public void addStatistic(String identifier, double weight) {
+        loadStatistics();
+        super.addStatistic(identifier, weight);
+    }
+
+    @Override
+    public void mergeStatistics(String identifier, OnlineStatistics other) {
+        loadStatistics();
+        super.mergeStatistics(identifier, other);
+    }
+
+    private void loadMeasurements() {
+        if (!measurementsLoaded) {
+            super.setMeasurements(file.readMeasurements(measurementsStart));
+            measurementsLoaded = true;
+        }
+    }
+
+    private void loadVmMeasurements() {
+        if (!vmMeasurementsLoaded) {
+            super.setVmMeasurements(file.readVmMeasurements(measurementsStart, hasMeasurements));
+            vmMeasurementsLoaded = true;
+        }
+    }
+
+    private void loadStatistics() {
+        if (!statisticsLoaded) {
+            super.setStatistics(file.readStatistics(measurementsStart, hasMeasurements, hasVmMeasurements));
+            statisticsLoaded = true;
+        }
+    }
+
+    /**
+     * Lazy nodes depend on the mapped file; serialize a tree read with {@link BinaryCctReader} instead.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        throw new NotSerializableException(LazyStackTraceTreeNode.class.getName());
+    }
+}
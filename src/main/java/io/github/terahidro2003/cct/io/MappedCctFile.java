@@ -0,0 +1,280 @@
+package io.github.terahidro2003.cct.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.terahidro2003.cct.result.CallPath;
+import io.github.terahidro2003.cct.result.SignatureTable;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.cct.result.StackTraceTreePayload;
+import io.github.terahidro2003.cct.result.OnlineStatistics;
+import io.github.terahidro2003.cct.result.VmMeasurement;
+
+/**
+ * Memory-mapped call context tree in the {@link BinaryCctFormat}. Opening the file only reads the header and the
+ * positions of the strings; nodes are created as {@link LazyStackTraceTreeNode}s when they are reached, and decode
+ * their children and measurements on first access. Lookups by path skip every subtree that is not on the path,
+ * and lookups by method name scan the records without creating nodes, so a single testcase subtree can be taken
+ * out of a large tree without reading the rest of it.
+ * <p>
+ * Instances are not thread safe. Nodes stay usable after {@link #close()}, since the mapping is only released
+ * once it is no longer referenced.
+ */
+public class MappedCctFile implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedCctFile.class);
+
+    private static final int NOT_INTERNED = -2;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int[] stringOffsets;
+    private final String[] strings;
+    private final int[] methodIds;
+    private Map<String, Integer> stringIndexes;
+    private final int nodeCount;
+    private final int rootOffset;
+    private final Map<Integer, LazyStackTraceTreeNode> nodes = new HashMap<>();
+
+    private MappedCctFile(FileChannel channel, ByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+
+        ByteBuffer view = view();
+        BinaryCctFormat.checkHeader(view);
+        stringOffsets = new int[BinaryCctFormat.readInt(view)];
+        for (int i = 0; i < stringOffsets.length; i++) {
+            stringOffsets[i] = view.position();
+            BinaryCctFormat.skipString(view);
+        }
+        strings = new String[stringOffsets.length];
+        methodIds = new int[stringOffsets.length];
+        Arrays.fill(methodIds, NOT_INTERNED);
+        nodeCount = BinaryCctFormat.readInt(view);
+        rootOffset = view.position();
+    }
+
+    public static MappedCctFile open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Binary call context tree files larger than 2 GB are not supported: " + file);
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            MappedCctFile mappedFile = new MappedCctFile(channel, buffer);
+            log.info("Mapped binary call context tree {} with {} nodes", file.getAbsolutePath(), mappedFile.nodeCount);
+            return mappedFile;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public LazyStackTraceTreeNode getRoot() {
+        return nodeCount == 0 ? null : node(rootOffset, null);
+    }
+
+    public LazyStackTraceTreeNode find(List<String> path) {
+        int[] refs = new int[path.size()];
+        for (int i = 0; i < refs.length; i++) {
+            Integer ref = stringIndexes().get(path.get(i));
+            if (ref == null) {
+                return null;
+            }
+            refs[i] = ref;
+        }
+        return find(refs);
+    }
+
+    public LazyStackTraceTreeNode find(CallPath path) {
+        return find(path.getMethodNames());
+    }
+
+    /**
+     * Finds the node whose path (root first) equals the given method names. Only the records along the path and
+     * the headers of their siblings are read.
+     */
+    private LazyStackTraceTreeNode find(int[] refs) {
+        if (refs.length == 0 || nodeCount == 0) {
+            return null;
+        }
+        ByteBuffer view = view();
+        int[] offsets = new int[refs.length];
+        RecordHeader header = RecordHeader.read(view, rootOffset);
+        if (header.methodRef != refs[0]) {
+            return null;
+        }
+        offsets[0] = rootOffset;
+
+        for (int level = 1; level < refs.length; level++) {
+            int position = header.childrenStart;
+            int end = header.recordEnd;
+            RecordHeader child = null;
+            while (position < end) {
+                RecordHeader candidate = RecordHeader.read(view, position);
+                if (candidate.methodRef == refs[level]) {
+                    child = candidate;
+                    break;
+                }
+                position = candidate.recordEnd;
+            }
+            if (child == null) {
+                return null;
+            }
+            offsets[level] = child.recordStart;
+            header = child;
+        }
+
+        LazyStackTraceTreeNode node = null;
+        for (int offset : offsets) {
+            node = node(offset, node);
+        }
+        return node;
+    }
+
+    /**
+     * All nodes whose method name contains the given content, in pre-order; nested matches are included, like
+     * {@link io.github.terahidro2003.cct.TreeUtils#filterMultiple}, which however visits the last child of a node
+     * first. The records are scanned without creating nodes,
+     * only the matches and their ancestors are created.
+     */
+    public List<StackTraceTreeNode> findAll(String searchableContent) {
+        byte[] matches = new byte[strings.length];
+        List<StackTraceTreeNode> found = new ArrayList<>();
+        Deque<int[]> ancestors = new ArrayDeque<>();
+
+        ByteBuffer view = view();
+        int position = rootOffset;
+        for (int i = 0; i < nodeCount; i++) {
+            RecordHeader header = RecordHeader.read(view, position);
+            int parentIndex = i - header.parentOffset;
+            while (!ancestors.isEmpty() && ancestors.peekLast()[0] != parentIndex) {
+                ancestors.removeLast();
+            }
+
+            if (matches[header.methodRef] == 0) {
+                String methodName = string(header.methodRef);
+                matches[header.methodRef] = (byte) (methodName != null && methodName.contains(searchableContent) ? 1 : 2);
+            }
+            if (matches[header.methodRef] == 1) {
+                LazyStackTraceTreeNode node = null;
+                for (int[] ancestor : ancestors) {
+                    node = node(ancestor[1], node);
+                }
+                found.add(node(position, node));
+            }
+
+            ancestors.addLast(new int[] {i, position});
+            // records are in pre-order, so the next record starts right after the body of this one
+            position = header.childrenStart;
+        }
+        return found;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    LazyStackTraceTreeNode node(int offset, LazyStackTraceTreeNode parent) {
+        LazyStackTraceTreeNode node = nodes.get(offset);
+        if (node == null) {
+            RecordHeader header = RecordHeader.read(view(), offset);
+            StackTraceTreePayload payload = StackTraceTreePayload.ofMethodId(methodId(header.methodRef), header.vm);
+            node = new LazyStackTraceTreeNode(this, header, parent, payload);
+            nodes.put(offset, node);
+        }
+        return node;
+    }
+
+    List<StackTraceTreeNode> readChildren(LazyStackTraceTreeNode parent, int childrenStart, int recordEnd, int childCount) {
+        List<StackTraceTreeNode> children = new ArrayList<>(childCount);
+        ByteBuffer view = view();
+        int position = childrenStart;
+        while (position < recordEnd) {
+            children.add(node(position, parent));
+            position = RecordHeader.read(view, position).recordEnd;
+        }
+        return children;
+    }
+
+    Map<String, List<Double>> readMeasurements(int offset) {
+        ByteBuffer view = view();
+        view.position(offset);
+        return BinaryCctReader.readMeasurements(view, this::string);
+    }
+
+    Map<String, List<VmMeasurement>> readVmMeasurements(int offset, boolean skipMeasurements) {
+        ByteBuffer view = view();
+        view.position(offset);
+        if (skipMeasurements) {
+            BinaryCctReader.readMeasurements(view, this::string);
+        }
+        return BinaryCctReader.readVmMeasurements(view, this::string);
+    }
+
+    Map<String, OnlineStatistics> readStatistics(int offset, boolean skipMeasurements, boolean skipVmMeasurements) {
+        ByteBuffer view = view();
+        view.position(offset);
+        if (skipMeasurements) {
+            BinaryCctReader.readMeasurements(view, this::string);
+        }
+        if (skipVmMeasurements) {
+            BinaryCctReader.readVmMeasurements(view, this::string);
+        }
+        return BinaryCctReader.readStatistics(view, this::string);
+    }
+
+    int getRootOffset() {
+        return rootOffset;
+    }
+
+    ByteBuffer view() {
+        return BinaryCctFormat.order(buffer.duplicate());
+    }
+
+    String string(int index) {
+        String string = strings[index];
+        if (string == null) {
+            ByteBuffer view = view();
+            view.position(stringOffsets[index]);
+            string = BinaryCctFormat.readString(view);
+            strings[index] = string;
+        }
+        return string;
+    }
+
+    int methodId(int methodRef) {
+        if (methodIds[methodRef] == NOT_INTERNED) {
+            methodIds[methodRef] = SignatureTable.intern(string(methodRef));
+        }
+        return methodIds[methodRef];
+    }
+
+    private Map<String, Integer> stringIndexes() {
+        if (stringIndexes == null) {
+            stringIndexes = new HashMap<>();
+            for (int i = 0; i < strings.length; i++) {
+                stringIndexes.putIfAbsent(string(i), i);
+            }
+        }
+        return stringIndexes;
+    }
+}
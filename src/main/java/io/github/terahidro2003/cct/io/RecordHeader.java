@@ -0,0 +1,56 @@
+package io.github.terahidro2003.cct.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The fixed part of a record of the {@link BinaryCctFormat}, decoded without touching measurements or children.
+ */
+final class RecordHeader {
+    int recordStart;
+    int recordEnd;
+    int methodRef;
+    int vm;
+    int parentOffset;
+    int childCount;
+    int flags;
+    Double initialWeight;
+    int measurementsStart;
+    int childrenStart;
+
+    static RecordHeader read(ByteBuffer buffer, int offset) {
+        RecordHeader header = new RecordHeader();
+        header.recordStart = offset;
+        buffer.position(offset);
+        int recordBytes = BinaryCctFormat.readInt(buffer);
+        header.recordEnd = buffer.position() + recordBytes;
+        header.methodRef = BinaryCctFormat.readInt(buffer);
+        header.vm = (int) BinaryCctFormat.readZigzag(buffer);
+        header.parentOffset = BinaryCctFormat.readInt(buffer);
+        header.childCount = BinaryCctFormat.readInt(buffer);
+        header.flags = buffer.get();
+        if ((header.flags & BinaryCctFormat.FLAG_INITIAL_WEIGHT) != 0) {
+            header.initialWeight = BinaryCctFormat.readValue(buffer);
+        }
+        if ((header.flags & BinaryCctFormat.FLAGS_WITH_MEASUREMENT_BYTES) != 0) {
+            int measurementBytes = BinaryCctFormat.readInt(buffer);
+            header.measurementsStart = buffer.position();
+            header.childrenStart = header.measurementsStart + measurementBytes;
+        } else {
+            header.measurementsStart = buffer.position();
+            header.childrenStart = buffer.position();
+        }
+        return header;
+    }
+
+    boolean hasMeasurements() {
+        return (flags & BinaryCctFormat.FLAG_MEASUREMENTS) != 0;
+    }
+
+    boolean hasVmMeasurements() {
+        return (flags & BinaryCctFormat.FLAG_VM_MEASUREMENTS) != 0;
+    }
+
+    boolean hasStatistics() {
+        return (flags & BinaryCctFormat.FLAG_STATISTICS) != 0;
+    }
+}
@@ -0,0 +1,282 @@
+package io.github.terahidro2003.cct.io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteConstraints;
+
+import io.github.terahidro2003.cct.result.DoubleList;
+import io.github.terahidro2003.cct.result.OnlineStatistics;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.cct.result.StackTraceTreePayload;
+import io.github.terahidro2003.cct.result.VmMeasurement;
+import io.github.terahidro2003.config.Constants;
+
+/**
+ * Streams a call context tree as JSON through a {@link JsonGenerator}. By default the output is identical to
+ * serializing the tree with {@link Constants#OBJECT_MAPPER}, but the tree is walked without recursion and
+ * without bean introspection, and the path of each node is written from the traversal instead of being
+ * materialized as a list per node.
+ * <p>
+ * The <code>parentMethodNames</code> of every node repeat the path that is already given by the nesting; leaving
+ * them out makes the output linear in the number of nodes instead of quadratic in the depth. Output can also be
+ * compressed with gzip while it is written.
+ */
+public class StackTraceTreeJsonWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(StackTraceTreeJsonWriter.class);
+
+    /**
+     * Every node adds two levels of nesting, so Jackson's default limit of 1000 levels would already reject
+     * call trees deeper than 500 frames.
+     */
+    private static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+            .streamWriteConstraints(StreamWriteConstraints.builder().maxNestingDepth(Integer.MAX_VALUE).build())
+            .build();
+
+    private final boolean writePath;
+    private final boolean gzip;
+
+    /**
+     * Writer producing the same JSON as Jackson, uncompressed.
+     */
+    public StackTraceTreeJsonWriter() {
+        this(true, false);
+    }
+
+    /**
+     * @param writePath whether every node contains its <code>parentMethodNames</code>
+     * @param gzip whether the output is compressed with gzip
+     */
+    public StackTraceTreeJsonWriter(boolean writePath, boolean gzip) {
+        this.writePath = writePath;
+        this.gzip = gzip;
+    }
+
+    public void write(StackTraceTreeNode tree, File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()), 1 << 16)) {
+            write(tree, out);
+        }
+        log.info("Wrote call context tree to {} ({} bytes)", file.getAbsolutePath(), file.length());
+    }
+
+    /**
+     * Writes the tree to the stream; the stream is left open.
+     */
+    public void write(StackTraceTreeNode tree, OutputStream out) throws IOException {
+        if (gzip) {
+            GZIPOutputStream gzipOut = new GZIPOutputStream(out, 1 << 16);
+            writeJson(tree, gzipOut);
+            gzipOut.finish();
+        } else {
+            writeJson(tree, out);
+        }
+    }
+
+    private void writeJson(StackTraceTreeNode tree, OutputStream out) throws IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            if (tree == null) {
+                generator.writeNull();
+                return;
+            }
+
+            // a subtree of a larger tree keeps the path of its ancestors, like its parentMethodNames
+            List<String> ancestors = writePath ? tree.getParentMethodNames() : List.of();
+            String[] path = ancestors.toArray(new String[Math.max(16, ancestors.size())]);
+            int rootIndex = ancestors.size() - 1;
+
+            // null children are written as null, which the TreeWalker would skip; a node without children list
+            // gets an empty iterator, as the deque does not take null, and is told apart by its list when it is ended
+            Deque<Iterator<StackTraceTreeNode>> stack = new ArrayDeque<>();
+            Deque<StackTraceTreeNode> nodes = new ArrayDeque<>();
+            startNode(generator, tree, path, rootIndex);
+            nodes.push(tree);
+            stack.push(children(tree));
+
+            while (!stack.isEmpty()) {
+                Iterator<StackTraceTreeNode> children = stack.peek();
+                if (children.hasNext()) {
+                    StackTraceTreeNode child = children.next();
+                    if (child == null) {
+                        generator.writeNull();
+                        continue;
+                    }
+                    int childIndex = rootIndex + nodes.size();
+                    if (writePath) {
+                        if (childIndex >= path.length) {
+                            path = Arrays.copyOf(path, path.length * 2);
+                        }
+                        path[childIndex] = methodName(child);
+                    }
+                    startNode(generator, child, path, childIndex);
+                    nodes.push(child);
+                    stack.push(children(child));
+                } else {
+                    stack.pop();
+                    StackTraceTreeNode node = nodes.pop();
+                    endNode(generator, node, node.getChildren() != null);
+                }
+            }
+        }
+    }
+
+    private static Iterator<StackTraceTreeNode> children(StackTraceTreeNode node) {
+        return node.getChildren() == null ? Collections.emptyIterator() : node.getChildren().iterator();
+    }
+
+    private static String methodName(StackTraceTreeNode node) {
+        return node.getPayload() == null ? null : node.getPayload().getMethodName();
+    }
+
+    /**
+     * Writes the fields of the node before its children, and opens the children array.
+     */
+    private void startNode(JsonGenerator generator, StackTraceTreeNode node, String[] path, int pathIndex) throws IOException {
+        generator.writeStartObject();
+        if (writePath) {
+            generator.writeFieldName("parentMethodNames");
+            generator.writeStartArray();
+            for (int i = 0; i <= pathIndex; i++) {
+                generator.writeString(path[i]);
+            }
+            generator.writeEndArray();
+        }
+
+        generator.writeFieldName("children");
+        if (node.getChildren() == null) {
+            generator.writeNull();
+        } else {
+            generator.writeStartArray();
+        }
+    }
+
+    /**
+     * Closes the children array and writes the fields of the node after its children.
+     */
+    private static void endNode(JsonGenerator generator, StackTraceTreeNode node, boolean hasChildren) throws IOException {
+        if (hasChildren) {
+            generator.writeEndArray();
+        }
+
+        StackTraceTreePayload payload = node.getPayload();
+        generator.writeFieldName("payload");
+        if (payload == null) {
+            generator.writeNull();
+        } else {
+            generator.writeStartObject();
+            generator.writeStringField("methodName", payload.getMethodName());
+            generator.writeNumberField("vm", payload.getVm());
+            generator.writeEndObject();
+        }
+
+        generator.writeFieldName("measurements");
+        generator.writeStartObject();
+        for (Map.Entry<String, List<Double>> entry : node.getMeasurements().entrySet()) {
+            generator.writeFieldName(entry.getKey());
+            writeValues(generator, entry.getValue());
+        }
+        generator.writeEndObject();
+
+        generator.writeFieldName("vmMeasurements");
+        generator.writeStartObject();
+        for (Map.Entry<String, List<VmMeasurement>> entry : node.getVmMeasurements().entrySet()) {
+            generator.writeFieldName(entry.getKey());
+            if (entry.getValue() == null) {
+                generator.writeNull();
+                continue;
+            }
+            generator.writeStartArray();
+            for (VmMeasurement vmMeasurement : entry.getValue()) {
+                if (vmMeasurement == null) {
+                    generator.writeNull();
+                    continue;
+                }
+                generator.writeStartObject();
+                generator.writeFieldName("measurements");
+                writeValues(generator, vmMeasurement.getMeasurements());
+                generator.writeNumberField("vm", vmMeasurement.getVm());
+                if (vmMeasurement.getStatistics() != null) {
+                    generator.writeFieldName("statistics");
+                    writeStatistics(generator, vmMeasurement.getStatistics());
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+
+        if (!node.getStatistics().isEmpty()) {
+            generator.writeFieldName("statistics");
+            generator.writeStartObject();
+            for (Map.Entry<String, OnlineStatistics> entry : node.getStatistics().entrySet()) {
+                generator.writeFieldName(entry.getKey());
+                writeStatistics(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+        }
+
+        generator.writeFieldName("initialWeight");
+        if (node.getInitialWeight() == null) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(node.getInitialWeight());
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeStatistics(JsonGenerator generator, OnlineStatistics statistics) throws IOException {
+        if (statistics == null) {
+            generator.writeNull();
+            return;
+        }
+        generator.writeStartObject();
+        generator.writeNumberField("count", statistics.getCount());
+        generator.writeNumberField("mean", statistics.getMean());
+        generator.writeNumberField("variance", statistics.getVariance());
+        generator.writeNumberField("m2", statistics.getM2());
+        generator.writeNumberField("min", statistics.getMin());
+        generator.writeNumberField("max", statistics.getMax());
+        generator.writeEndObject();
+    }
+
+    private static void writeValues(JsonGenerator generator, List<Double> values) throws IOException {
+        if (values == null) {
+            generator.writeNull();
+            return;
+        }
+        generator.writeStartArray();
+        if (values instanceof DoubleList) {
+            DoubleList doubles = (DoubleList) values;
+            for (int i = 0; i < doubles.size(); i++) {
+                generator.writeNumber(doubles.getDouble(i));
+            }
+        } else {
+            for (Double value : values) {
+                if (value == null) {
+                    generator.writeNull();
+                } else {
+                    generator.writeNumber(value);
+                }
+            }
+        }
+        generator.writeEndArray();
+    }
+}
@@ -1,18 +1,10 @@
 package io.github.terahidro2003.cct.jfr;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import io.github.terahidro2003.cct.TreeUtils;
-import io.github.terahidro2003.config.Constants;
-import lombok.extern.slf4j.Slf4j;
-
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,6 +12,8 @@ import org.slf4j.LoggerFactory;
 public class ExecutionSample {
    
     private static final Logger log = LoggerFactory.getLogger(ExecutionSample.class);
+
+    static final String NOT_FOUND = "[NOT FOUND]";
    
     private String timestamp;
     private String sampledThread;
@@ -60,109 +54,17 @@ public class ExecutionSample {
 
     public static List<ExecutionSample> parseJson(String filePath) throws IOException {
         log.info("Deserializing {}", filePath);
-        ObjectMapper mapper = Constants.OBJECT_MAPPER;
-        var serializedMap = mapper.readValue(new File(filePath), new TypeReference<HashMap<String, Object>>() {});
         List<ExecutionSample> samples = new ArrayList<ExecutionSample>();
-
-        if(serializedMap.get("recording") != null && serializedMap.get("recording") instanceof Map
-                && ((Map<?, ?>) serializedMap.get("recording")).get("events") != null
-                && ((Map<?, ?>) serializedMap.get("recording")).get("events") instanceof List
-        ) {
-            List<Map> events = (List<Map>) ((Map<String, List>) serializedMap.get("recording")).get("events");
-
-            // filter out the events that do not contain samples (such as system and JVM properties)
-            events.stream().filter(event -> event.containsValue("jdk.ExecutionSample")).toList()
-                    .forEach(event -> {
-                        var eventValue = event.get("values");
-                        if(eventValue instanceof Map) {
-                            var eventMap = (Map<String, Object>) eventValue;
-                            ExecutionSample sample = new ExecutionSample();
-
-                            if(eventMap.containsKey("startTime")) {
-                                sample.setTimestamp(eventMap.get("startTime").toString());
-                            } else {
-                                log.error("Couldn't find start time in JFR recording sample");
-                            }
-
-                            // TODO: thread name and state parsing does not work
-                            if(eventMap.containsKey("sampledThread")) {
-                                if(eventMap.get("sampledThread") instanceof Map) {
-                                    var threadMap = (Map<String, Map>) eventMap.get("sampledThread"); // fails here
-                                    String threadName = (threadMap != null && threadMap.get("sampledThread") != null)
-                                            ? (String) threadMap.get("sampledThread").get("osName") : null;
-                                    if(threadName != null) {
-                                        sample.setSampledThread(threadName);
-                                    } else {
-                                        log.debug("Couldn't find sampled thread name in JFR recording sample");
-                                        sample.setSampledThread("[NOT FOUND]");
-                                    }
-                                }
-                            } else {
-                                log.error("Couldn't find sampled thread in JFR recording sample");
-                            }
-
-                            if(eventMap.containsKey("stackTrace") && eventMap.get("stackTrace") instanceof Map) {
-                                List<Method> methods = new ArrayList<>();
-                                var stacktraceMap = (Map<String, Object>) eventMap.get("stackTrace");
-                                var frames = stacktraceMap.get("frames");
-                                if(frames instanceof List) {
-                                    var traces = (List) frames;
-                                    traces.forEach(trace -> {
-                                        if (trace instanceof Map) {
-                                            Method method = new Method();
-                                            var frameMap = (Map<String, Object>) trace;
-                                            if(frameMap.containsKey("method") && frameMap.get("method") instanceof Map) {
-                                                var methodMap = (Map<String, Object>) frameMap.get("method");
-                                                if(methodMap.containsKey("type")) {
-                                                    var methodType = methodMap.get("type");
-                                                    if(methodType != null && methodType instanceof Map) {
-                                                        method.setClassLoader(propertyFromMapAsString((Map<?, ?>) methodType, "classLoader"));
-                                                        method.setClassSignature(propertyFromMapAsString((Map<?, ?>) methodType, "name"));
-                                                        method.setPackageName(propertyFromMapAsString((Map<?, ?>) methodType, "package"));
-                                                        method.setClassModifier(propertyFromMapAsString((Map<?, ?>) methodType, "modifiers"));
-                                                    }
-
-                                                    method.setMethodName(propertyFromMapAsString((Map<?, ?>) methodMap, "name"));
-                                                    method.setMethodDescriptor(propertyFromMapAsString((Map<?, ?>) methodMap, "descriptor"));
-                                                    method.setMethodModifier(propertyFromMapAsString((Map<?, ?>) methodMap, "modifiers"));
-                                                    method.setHidden(Boolean.parseBoolean(propertyFromMapAsString((Map<?, ?>) methodMap, "hidden")));
-                                                }
-                                            }
-
-                                            method.setLineNumber(Integer.parseInt(propertyFromMapAsString((Map<?, ?>) frameMap, "lineNumber")));
-                                            method.setByteCodeIndex(Integer.parseInt(propertyFromMapAsString((Map<?, ?>) frameMap, "bytecodeIndex")));
-                                            method.setType(propertyFromMapAsString((Map<?, ?>) frameMap, "type"));
-
-                                            if (method.getType() != null
-                                                    &&
-                                                    (method.getType().contains("Native") ||
-                                                    method.getType().contains("native") || method.getType().contains("C++")
-                                                    || method.getType().contains("c++")
-                                            )) {
-//                                                log.info("Skipping native method " + method);
-                                            } else {
-                                                methods.add(method);
-                                            }
-                                        }
-                                    });
-                                }
-                                sample.setStackTrace(methods);
-                            }
-                            samples.add(sample);
-                            // TODO: add parsing logic into try-catch (just in case)
-                        }
-                    });
-        }
+        parseJson(filePath, samples::add);
         return samples;
     }
 
-    private static String propertyFromMapAsString(Map<?, ?> map, String key) {
-        if(map.containsKey(key) && map.get(key) != null) {
-            return map.get(key).toString();
-        } else {
-            log.debug("Couldn't find property {} in JFR recording sample", key);
-            return "[NOT FOUND]";
-        }
+    /**
+     * Streams the execution samples of a <code>jfr print --json</code> file to the consumer one event at a time,
+     * without deserializing the whole recording into memory.
+     */
+    public static void parseJson(String filePath, Consumer<ExecutionSample> consumer) throws IOException {
+        ExecutionSampleJsonParser.parse(new File(filePath), consumer);
     }
 
     public List<String> getMethodSignatures() {
@@ -0,0 +1,254 @@
+package io.github.terahidro2003.cct.jfr;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import io.github.terahidro2003.config.Constants;
+
+/**
+ * Token-level parser for the output of <code>jfr print --json</code>.
+ * Every <code>jdk.ExecutionSample</code> event is handed to the consumer as soon as the event object is closed,
+ * so only a single event is kept in memory at any time, independent of the size of the file.
+ */
+public class ExecutionSampleJsonParser {
+
+    private static final Logger log = LoggerFactory.getLogger(ExecutionSampleJsonParser.class);
+
+    public static void parse(File file, Consumer<ExecutionSample> consumer) throws IOException {
+        log.info("Streaming execution samples from {}", file.getName());
+        try (JsonParser parser = Constants.OBJECT_MAPPER.getFactory().createParser(file)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                log.error("JFR json {} does not start with an object", file.getName());
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("recording".equals(field) && parser.currentToken() == JsonToken.START_OBJECT) {
+                    parseRecording(parser, consumer);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private static void parseRecording(JsonParser parser, Consumer<ExecutionSample> consumer) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("events".equals(field) && parser.currentToken() == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    ExecutionSample sample = parseEvent(parser);
+                    if (sample != null) {
+                        consumer.accept(sample);
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Parses a single event object. Returns null if the event is not an execution sample
+     * (e.g. system and JVM properties).
+     */
+    private static ExecutionSample parseEvent(JsonParser parser) throws IOException {
+        String type = null;
+        ExecutionSample sample = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("type".equals(field)) {
+                type = parser.getValueAsString();
+            } else if ("values".equals(field) && parser.currentToken() == JsonToken.START_OBJECT
+                    && (type == null || JfrRecordingReader.EXECUTION_SAMPLE_EVENT.equals(type))) {
+                sample = parseValues(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return JfrRecordingReader.EXECUTION_SAMPLE_EVENT.equals(type) ? sample : null;
+    }
+
+    private static ExecutionSample parseValues(JsonParser parser) throws IOException {
+        ExecutionSample sample = new ExecutionSample();
+        sample.setSampledThread(ExecutionSample.NOT_FOUND);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "startTime":
+                    sample.setTimestamp(valueAsString(parser));
+                    break;
+                case "sampledThread":
+                    if (token == JsonToken.START_OBJECT) {
+                        sample.setSampledThread(parseThreadName(parser));
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                case "state":
+                    sample.setThreadState(valueAsString(parser));
+                    break;
+                case "stackTrace":
+                    if (token == JsonToken.START_OBJECT) {
+                        sample.setStackTrace(parseStackTrace(parser));
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        if (sample.getTimestamp() == null) {
+            log.error("Couldn't find start time in JFR recording sample");
+        }
+        return sample;
+    }
+
+    private static String parseThreadName(JsonParser parser) throws IOException {
+        String threadName = ExecutionSample.NOT_FOUND;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("osName".equals(field) && parser.currentToken() == JsonToken.VALUE_STRING) {
+                threadName = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return threadName;
+    }
+
+    private static List<Method> parseStackTrace(JsonParser parser) throws IOException {
+        List<Method> methods = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("frames".equals(field) && parser.currentToken() == JsonToken.START_ARRAY) {
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (parser.currentToken() != JsonToken.START_OBJECT) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    Method method = parseFrame(parser);
+                    if (!method.isNative()) {
+                        methods.add(method);
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return methods;
+    }
+
+    private static Method parseFrame(JsonParser parser) throws IOException {
+        Method method = new Method();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "method":
+                    if (token == JsonToken.START_OBJECT) {
+                        parseMethod(parser, method);
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                case "lineNumber":
+                    method.setLineNumber(parser.getValueAsInt());
+                    break;
+                case "bytecodeIndex":
+                    method.setByteCodeIndex(parser.getValueAsInt());
+                    break;
+                case "type":
+                    method.setType(valueAsString(parser));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return method;
+    }
+
+    private static void parseMethod(JsonParser parser, Method method) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "type":
+                    if (token == JsonToken.START_OBJECT) {
+                        parseType(parser, method);
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                case "name":
+                    method.setMethodName(valueAsString(parser));
+                    break;
+                case "descriptor":
+                    method.setMethodDescriptor(valueAsString(parser));
+                    break;
+                case "modifiers":
+                    method.setMethodModifier(valueAsString(parser));
+                    break;
+                case "hidden":
+                    method.setHidden(Boolean.parseBoolean(valueAsString(parser)));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
+
+    private static void parseType(JsonParser parser, Method method) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "classLoader":
+                    method.setClassLoader(valueAsString(parser));
+                    break;
+                case "name":
+                    method.setClassSignature(valueAsString(parser));
+                    break;
+                case "package":
+                    method.setPackageName(valueAsString(parser));
+                    break;
+                case "modifiers":
+                    method.setClassModifier(valueAsString(parser));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Scalars are returned as text; nested values (such as class loaders and packages) are small
+     * and are rendered the same way the map based parser rendered them.
+     */
+    private static String valueAsString(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return ExecutionSample.NOT_FOUND;
+        } else if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            return parser.readValueAs(Object.class).toString();
+        }
+        return parser.getText();
+    }
+}
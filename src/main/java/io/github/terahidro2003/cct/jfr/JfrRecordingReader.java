@@ -0,0 +1,121 @@
+package io.github.terahidro2003.cct.jfr;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedClassLoader;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedObject;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Reads <code>jdk.ExecutionSample</code> events directly from a JFR recording using
+ * {@link RecordingFile}, without converting the recording to JSON with the <code>jfr</code> tool first.
+ * Events are read one by one, so the recording is never held in memory as a whole.
+ */
+public class JfrRecordingReader {
+
+    private static final Logger log = LoggerFactory.getLogger(JfrRecordingReader.class);
+
+    public static final String EXECUTION_SAMPLE_EVENT = "jdk.ExecutionSample";
+
+    public static List<ExecutionSample> readExecutionSamples(File jfr) throws IOException {
+        List<ExecutionSample> samples = new ArrayList<>();
+        readExecutionSamples(jfr, samples::add);
+        return samples;
+    }
+
+    /**
+     * Passes every execution sample of the recording to the consumer as soon as it has been read.
+     */
+    public static void readExecutionSamples(File jfr, Consumer<ExecutionSample> consumer) throws IOException {
+        log.info("Reading execution samples from {}", jfr.getName());
+        int amount = 0;
+        try (RecordingFile recording = new RecordingFile(jfr.toPath())) {
+            while (recording.hasMoreEvents()) {
+                RecordedEvent event = recording.readEvent();
+                if (EXECUTION_SAMPLE_EVENT.equals(event.getEventType().getName())) {
+                    consumer.accept(toExecutionSample(event));
+                    amount++;
+                }
+            }
+        }
+        log.info("Read {} execution samples from {}", amount, jfr.getName());
+    }
+
+    static ExecutionSample toExecutionSample(RecordedEvent event) {
+        ExecutionSample sample = new ExecutionSample();
+        sample.setTimestamp(event.getStartTime().toString());
+
+        RecordedThread thread = event.getThread("sampledThread");
+        if (thread != null && thread.getOSName() != null) {
+            sample.setSampledThread(thread.getOSName());
+        } else {
+            sample.setSampledThread(ExecutionSample.NOT_FOUND);
+        }
+
+        if (event.hasField("state")) {
+            sample.setThreadState(event.getString("state"));
+        }
+
+        List<Method> methods = new ArrayList<>();
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        if (stackTrace != null) {
+            for (RecordedFrame frame : stackTrace.getFrames()) {
+                Method method = toMethod(frame);
+                if (!method.isNative()) {
+                    methods.add(method);
+                }
+            }
+        }
+        sample.setStackTrace(methods);
+        return sample;
+    }
+
+    static Method toMethod(RecordedFrame frame) {
+        Method method = new Method();
+        RecordedMethod recordedMethod = frame.getMethod();
+        if (recordedMethod != null) {
+            RecordedClass type = recordedMethod.getType();
+            if (type != null) {
+                RecordedClassLoader classLoader = type.getClassLoader();
+                method.setClassLoader(classLoader != null && classLoader.getName() != null
+                        ? classLoader.getName() : ExecutionSample.NOT_FOUND);
+                method.setClassSignature(type.getName());
+                method.setPackageName(packageName(type));
+                method.setClassModifier(String.valueOf(type.getModifiers()));
+            }
+
+            method.setMethodName(recordedMethod.getName());
+            method.setMethodDescriptor(recordedMethod.getDescriptor());
+            method.setMethodModifier(String.valueOf(recordedMethod.getModifiers()));
+            method.setHidden(recordedMethod.isHidden());
+        }
+
+        method.setLineNumber(frame.getLineNumber());
+        method.setByteCodeIndex(frame.getBytecodeIndex());
+        method.setType(frame.getType());
+        return method;
+    }
+
+    private static String packageName(RecordedClass type) {
+        if (type.hasField("package")) {
+            RecordedObject recordedPackage = type.getValue("package");
+            if (recordedPackage != null && recordedPackage.hasField("name")) {
+                return recordedPackage.getString("name");
+            }
+        }
+        return ExecutionSample.NOT_FOUND;
+    }
+}
@@ -119,6 +119,14 @@ public class Method {
         this.type = type;
     }
 
+    /**
+     * Native and C++ frames (as reported by async-profiler) are not part of the Java call context.
+     */
+    public boolean isNative() {
+        return type != null && (type.contains("Native") || type.contains("native")
+                || type.contains("C++") || type.contains("c++"));
+    }
+
     public String getFullMethodSignature() {
         StringBuilder sb = new StringBuilder();
         sb.append(methodModifier);
@@ -0,0 +1,91 @@
+package io.github.terahidro2003.cct.jfr;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.openjdk.jmc.common.IMCFrame;
+import org.openjdk.jmc.common.IMCMethod;
+import org.openjdk.jmc.common.IMCStackTrace;
+import org.openjdk.jmc.common.item.IItem;
+import org.openjdk.jmc.common.item.IItemFilter;
+import org.openjdk.jmc.common.item.IMemberAccessor;
+import org.openjdk.jmc.common.item.IType;
+import org.openjdk.jmc.common.util.FormatToolkit;
+import org.openjdk.jmc.common.util.PredicateToolkit;
+import org.openjdk.jmc.flightrecorder.JfrAttributes;
+
+/**
+ * JMC item filter that keeps the events whose stack trace contains a frame matching a method predicate.
+ * The predicate is evaluated once per method and the result is kept once per stack trace. JMC shares both
+ * between all events of a recording, so unlike a filter on <code>JdkAttributes.STACK_TRACE_STRING</code>,
+ * no stack trace is rendered to a string. Events without a stack trace never match.
+ */
+public class StackTraceFrameFilter implements IItemFilter {
+
+    private final Predicate<IMCMethod> methodPredicate;
+    private final Map<IMCMethod, Boolean> methodResults = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final Map<IMCStackTrace, Boolean> stackTraceResults = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    public StackTraceFrameFilter(Predicate<IMCMethod> methodPredicate) {
+        this.methodPredicate = methodPredicate;
+    }
+
+    /**
+     * Matches frames whose method signature, formatted like the nodes of the call tree, contains the given content.
+     */
+    public static StackTraceFrameFilter methodContains(String searchableContent) {
+        return new StackTraceFrameFilter(method -> FormatToolkit.getHumanReadable(method).contains(searchableContent));
+    }
+
+    /**
+     * Matches frames of methods declared in the class with the given fully qualified name.
+     */
+    public static StackTraceFrameFilter declaredIn(String className) {
+        return new StackTraceFrameFilter(method -> method.getType() != null && className.equals(method.getType().getFullName()));
+    }
+
+    @Override
+    public Predicate<IItem> getPredicate(IType<IItem> type) {
+        IMemberAccessor<IMCStackTrace, IItem> accessor = JfrAttributes.EVENT_STACKTRACE.getAccessor(type);
+        if (accessor == null) {
+            return PredicateToolkit.falsePredicate();
+        }
+        return item -> matches(accessor.getMember(item));
+    }
+
+    public boolean matches(IMCStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return false;
+        }
+        Boolean result = stackTraceResults.get(stackTrace);
+        if (result == null) {
+            result = Boolean.FALSE;
+            for (IMCFrame frame : stackTrace.getFrames()) {
+                if (frame.getMethod() != null && matches(frame.getMethod())) {
+                    result = Boolean.TRUE;
+                    break;
+                }
+            }
+            stackTraceResults.put(stackTrace, result);
+        }
+        return result;
+    }
+
+    private boolean matches(IMCMethod method) {
+        Boolean result = methodResults.get(method);
+        if (result == null) {
+            result = methodPredicate.test(method);
+            methodResults.put(method, result);
+        }
+        return result;
+    }
+
+    /**
+     * Number of distinct stack traces evaluated so far.
+     */
+    public int getEvaluatedStackTraces() {
+        return stackTraceResults.size();
+    }
+}
@@ -0,0 +1,110 @@
+package io.github.terahidro2003.cct.result;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable call path (root first) stored as signature ids, together with a 64-bit fingerprint.
+ * Two paths with different fingerprints are never equal, so most comparisons are decided in O(1);
+ * only paths with equal fingerprints are compared element by element.
+ * <p>
+ * The fingerprint of a path is the same value {@link StackTraceTreeNode#getPathFingerprint()} holds for
+ * the node at the end of that path, which allows looking up nodes by path without materializing node paths.
+ */
+public final class CallPath {
+
+    public static final long EMPTY_FINGERPRINT = 0xcbf29ce484222325L;
+
+    private final int[] methodIds;
+    private final long fingerprint;
+
+    private CallPath(int[] methodIds, long fingerprint) {
+        this.methodIds = methodIds;
+        this.fingerprint = fingerprint;
+    }
+
+    public static CallPath of(List<String> methodNames) {
+        int[] ids = new int[methodNames.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = SignatureTable.intern(methodNames.get(i));
+        }
+        return new CallPath(ids, fingerprint(ids));
+    }
+
+    /**
+     * Path from the topmost ancestor of the node down to (and including) the node.
+     */
+    public static CallPath of(StackTraceTreeNode node) {
+        int[] ids = new int[node.getDepth() + 1];
+        StackTraceTreeNode current = node;
+        for (int i = ids.length - 1; i >= 0; i--) {
+            ids[i] = current.getMethodId();
+            current = current.getParent();
+        }
+        return new CallPath(ids, node.getPathFingerprint());
+    }
+
+    /**
+     * Fingerprint of a path extended by one method, given the fingerprint of the path without it.
+     */
+    public static long extend(long fingerprint, int methodId) {
+        long h = fingerprint * 0x100000001b3L + methodId + 1;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long fingerprint(int[] ids) {
+        long fingerprint = EMPTY_FINGERPRINT;
+        for (int id : ids) {
+            fingerprint = extend(fingerprint, id);
+        }
+        return fingerprint;
+    }
+
+    public int size() {
+        return methodIds.length;
+    }
+
+    public int getMethodId(int index) {
+        return methodIds[index];
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public List<String> getMethodNames() {
+        List<String> methodNames = new ArrayList<>(methodIds.length);
+        for (int methodId : methodIds) {
+            methodNames.add(SignatureTable.lookup(methodId));
+        }
+        return methodNames;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CallPath)) {
+            return false;
+        }
+        CallPath other = (CallPath) obj;
+        return fingerprint == other.fingerprint && Arrays.equals(methodIds, other.methodIds);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(fingerprint);
+    }
+
+    @Override
+    public String toString() {
+        return getMethodNames().toString();
+    }
+}
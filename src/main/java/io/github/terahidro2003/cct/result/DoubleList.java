@@ -0,0 +1,187 @@
+package io.github.terahidro2003.cct.result;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * Growable list of primitive doubles. Measurements are stored without boxing each value, which matters for
+ * merged trees with hundreds of thousands of nodes and dozens of VMs. The {@link List} view boxes on access,
+ * so existing callers keep working; hot paths use {@link #addDouble(double)} and {@link #getDouble(int)}.
+ * Null values are not supported.
+ */
+@JsonSerialize(using = DoubleList.Serializer.class)
+public final class DoubleList extends AbstractList<Double> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 4650839712345519282L;
+
+    private static final double[] EMPTY = new double[0];
+
+    private transient double[] values;
+    private transient int size;
+
+    public DoubleList() {
+        this.values = EMPTY;
+    }
+
+    public DoubleList(int capacity) {
+        this.values = capacity == 0 ? EMPTY : new double[capacity];
+    }
+
+    /**
+     * Returns a copy of the values, which shares no state with them.
+     */
+    public static DoubleList copyOf(Collection<? extends Number> values) {
+        if (values instanceof DoubleList) {
+            DoubleList other = (DoubleList) values;
+            DoubleList list = new DoubleList(other.size);
+            System.arraycopy(other.values, 0, list.values, 0, other.size);
+            list.size = other.size;
+            return list;
+        }
+        DoubleList list = new DoubleList(values.size());
+        for (Number value : values) {
+            list.addDouble(value.doubleValue());
+        }
+        return list;
+    }
+
+    public void addDouble(double value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.max(4, size + (size >> 1)));
+        }
+        values[size++] = value;
+        modCount++;
+    }
+
+    public double getDouble(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    public double[] toDoubleArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    @Override
+    public Double get(int index) {
+        return getDouble(index);
+    }
+
+    @Override
+    public Double set(int index, Double value) {
+        checkIndex(index);
+        double previous = values[index];
+        values[index] = value;
+        return previous;
+    }
+
+    @Override
+    public boolean add(Double value) {
+        addDouble(value);
+        return true;
+    }
+
+    @Override
+    public void add(int index, Double value) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        double unboxed = value;
+        addDouble(0);
+        System.arraycopy(values, index, values, index + 1, size - index - 1);
+        values[index] = unboxed;
+    }
+
+    @Override
+    public Double remove(int index) {
+        checkIndex(index);
+        double previous = values[index];
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Double> other) {
+        if (other instanceof DoubleList) {
+            DoubleList list = (DoubleList) other;
+            if (size + list.size > values.length) {
+                values = Arrays.copyOf(values, Math.max(size + list.size, size + (size >> 1)));
+            }
+            System.arraycopy(list.values, 0, values, size, list.size);
+            size += list.size;
+            modCount++;
+            return list.size > 0;
+        }
+        for (Double value : other) {
+            addDouble(value);
+        }
+        return !other.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeDouble(values[i]);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        size = in.readInt();
+        values = size == 0 ? EMPTY : new double[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = in.readDouble();
+        }
+    }
+
+    /**
+     * Writes the values as a JSON array of numbers, like a list of boxed doubles, without boxing them.
+     */
+    public static class Serializer extends StdSerializer<DoubleList> {
+        private static final long serialVersionUID = 1L;
+
+        public Serializer() {
+            super(DoubleList.class);
+        }
+
+        @Override
+        public void serialize(DoubleList list, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartArray(list, list.size);
+            for (int i = 0; i < list.size; i++) {
+                gen.writeNumber(list.values[i]);
+            }
+            gen.writeEndArray();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package io.github.terahidro2003.cct.result;
+
+import java.io.Serializable;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Count, mean, variance, minimum and maximum of a series of values, updated in O(1) per value without storing the
+ * values. Values are added with Welford's algorithm, and two accumulators, for example of two VMs or two threads,
+ * are combined with the parallel variant of Chan et al., so the result does not depend on how the values were split.
+ * Instances are not thread safe; each thread accumulates its own instance and the instances are merged afterwards.
+ * <p>
+ * The JSON form contains <code>m2</code> next to the derived variance, so statistics read back from JSON can be
+ * merged again; the variance is ignored when reading.
+ */
+@JsonPropertyOrder({"count", "mean", "variance", "m2", "min", "max"})
+@JsonIgnoreProperties(value = "variance", allowGetters = true)
+public final class OnlineStatistics implements Serializable {
+    private static final long serialVersionUID = -3318227049128637562L;
+
+    private long count;
+    private double mean;
+    // sum of squared differences from the mean
+    private double m2;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    public OnlineStatistics() {
+    }
+
+    /**
+     * Statistics with the given state; without values, the mean and m2 are ignored, since they are NaN in JSON.
+     */
+    @JsonCreator
+    public OnlineStatistics(@JsonProperty("count") long count, @JsonProperty("mean") double mean,
+                            @JsonProperty("m2") double m2, @JsonProperty("min") double min,
+                            @JsonProperty("max") double max) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Count must not be negative: " + count);
+        }
+        this.count = count;
+        this.mean = count == 0 ? 0 : mean;
+        this.m2 = count == 0 ? 0 : m2;
+        this.min = min;
+        this.max = max;
+    }
+
+    public static OnlineStatistics of(List<Double> values) {
+        OnlineStatistics statistics = new OnlineStatistics();
+        if (values instanceof DoubleList) {
+            DoubleList doubles = (DoubleList) values;
+            for (int i = 0; i < doubles.size(); i++) {
+                statistics.add(doubles.getDouble(i));
+            }
+        } else if (values != null) {
+            values.forEach(statistics::add);
+        }
+        return statistics;
+    }
+
+    public void add(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        if (count == 1) {
+            min = value;
+            max = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+    }
+
+    public void merge(OnlineStatistics other) {
+        if (other == null || other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            count = other.count;
+            mean = other.mean;
+            m2 = other.m2;
+            min = other.min;
+            max = other.max;
+            return;
+        }
+        long mergedCount = count + other.count;
+        double delta = other.mean - mean;
+        mean += delta * other.count / mergedCount;
+        m2 += other.m2 + delta * delta * ((double) count * other.count / mergedCount);
+        count = mergedCount;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public OnlineStatistics copy() {
+        return new OnlineStatistics(count, mean, m2, min, max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The mean, or NaN without values.
+     */
+    public double getMean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * The sample variance, or NaN with less than two values.
+     */
+    public double getVariance() {
+        return count < 2 ? Double.NaN : m2 / (count - 1);
+    }
+
+    @JsonIgnore
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * The sum of squared differences from the mean, from which the variance is derived.
+     */
+    public double getM2() {
+        return m2;
+    }
+
+    /**
+     * The smallest value, or NaN without values.
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * The largest value, or NaN without values.
+     */
+    public double getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + count + ", mean=" + getMean() + ", variance=" + getVariance() + ", min=" + min + ", max=" + max;
+    }
+}
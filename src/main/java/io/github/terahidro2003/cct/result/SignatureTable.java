@@ -0,0 +1,58 @@
+package io.github.terahidro2003.cct.result;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process wide symbol table of method signatures. Every distinct signature is stored once and
+ * identified by a dense int id, so tree nodes can be compared and hashed by id instead of by string.
+ * Ids are only valid inside the running JVM and must not be persisted; persist the signature instead.
+ * <p>
+ * Ids are never reused, since trees, call paths and matchers keep them, so signatures are never removed. The table
+ * grows with the distinct methods the process has seen, which is bounded by the code of the measured applications.
+ */
+public final class SignatureTable {
+
+    public static final int NO_SIGNATURE = -1;
+
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] signatures = new String[1024];
+    private static int size = 0;
+
+    private SignatureTable() {
+    }
+
+    public static int intern(String signature) {
+        if (signature == null) {
+            return NO_SIGNATURE;
+        }
+
+        Integer id = ids.get(signature);
+        if (id != null) {
+            return id;
+        }
+
+        synchronized (SignatureTable.class) {
+            id = ids.get(signature);
+            if (id != null) {
+                return id;
+            }
+
+            String[] current = signatures;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[size] = signature;
+            signatures = current;
+            ids.put(signature, size);
+            return size++;
+        }
+    }
+
+    public static String lookup(int id) {
+        if (id == NO_SIGNATURE) {
+            return null;
+        }
+        return signatures[id];
+    }
+}
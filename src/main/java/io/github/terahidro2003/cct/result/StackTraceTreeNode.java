@@ -1,25 +1,45 @@
 package io.github.terahidro2003.cct.result;
 
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 
+@JsonPropertyOrder({"parentMethodNames", "children", "payload", "measurements", "vmMeasurements", "statistics", "initialWeight"})
 public class StackTraceTreeNode implements Serializable {
     private static final long serialVersionUID = 2020639317534105695L;
 
-    private final List<String> parentMethodNames = new ArrayList<>();
+    /**
+     * The path of a node is not stored; it is derived from the parent pointers when requested.
+     * Only its length and its {@link CallPath} fingerprint are kept, so paths can be compared in O(1).
+     * Both are computed from the parent, and recomputed lazily after the node was moved or deserialized.
+     */
+    private transient int depth;
+    private transient long pathFingerprint;
+    private transient boolean pathValid;
 
     @JsonIgnore
     private StackTraceTreeNode parent;
     private List<StackTraceTreeNode> children;
     private StackTraceTreePayload payload;
 
-    private Map<String, List<Double>> measurements = new HashMap<>();
-    private Map<String, List<VmMeasurement>> vmMeasurements = new HashMap<>();
+    /**
+     * Measurements are allocated on first use; most nodes of a tree never get any. The weights themselves are
+     * stored as primitive doubles ({@link DoubleList}).
+     */
+    private Map<String, List<Double>> measurements;
+    private Map<String, List<VmMeasurement>> vmMeasurements;
+    /**
+     * Statistics of measurements whose values are not retained, see {@link #addStatistic(String, double)}.
+     */
+    private Map<String, OnlineStatistics> statistics;
 
     private Double initialWeight;
 
@@ -27,10 +47,56 @@ public class StackTraceTreeNode implements Serializable {
         this.parent = parent;
         this.children = children;
         this.payload = payload;
-        if(parent != null) {
-            this.parentMethodNames.addAll(parent.parentMethodNames);
+        if (payload != null) {
+            payload.setNode(this);
+        }
+        ensurePath();
+    }
+
+    private void ensurePath() {
+        if (pathValid) {
+            return;
+        }
+        // a valid node only has valid ancestors, so the invalid part of the chain is computed top-down
+        Deque<StackTraceTreeNode> invalid = new ArrayDeque<>();
+        StackTraceTreeNode current = this;
+        while (current != null && !current.pathValid) {
+            invalid.push(current);
+            current = current.parent;
+        }
+        while (!invalid.isEmpty()) {
+            invalid.pop().updatePath();
+        }
+    }
+
+    private void updatePath() {
+        if (parent != null) {
+            this.depth = parent.depth + 1;
+            this.pathFingerprint = CallPath.extend(parent.pathFingerprint, getMethodId());
+        } else {
+            this.depth = 0;
+            this.pathFingerprint = CallPath.extend(CallPath.EMPTY_FINGERPRINT, getMethodId());
+        }
+        this.pathValid = true;
+    }
+
+    /**
+     * Marks the paths of this node and its descendants as outdated, e.g. after the node has been moved.
+     */
+    void invalidateSubtreePaths() {
+        Deque<StackTraceTreeNode> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            StackTraceTreeNode current = stack.pop();
+            current.pathValid = false;
+            if (current.children != null) {
+                for (StackTraceTreeNode child : current.children) {
+                    if (child != null && child.pathValid) {
+                        stack.push(child);
+                    }
+                }
+            }
         }
-        this.parentMethodNames.add(this.payload.getMethodName());
     }
 
     public void printTree() {
@@ -39,8 +105,8 @@ public class StackTraceTreeNode implements Serializable {
 
     private void printTreeRecursive(StackTraceTreeNode node, String prefix, boolean isLast) {
         final StringBuilder measurementsAsString = new StringBuilder();
-        if(!node.vmMeasurements.isEmpty()) {
-            node.vmMeasurements.forEach((k,v) -> {
+        if(!node.getVmMeasurements().isEmpty()) {
+            node.getVmMeasurements().forEach((k,v) -> {
                 v.forEach(value -> {
                     StringBuilder second = new StringBuilder();
                     value.getMeasurements().forEach(e -> {
@@ -52,7 +118,7 @@ public class StackTraceTreeNode implements Serializable {
                 });
             });
         } else {
-            node.measurements.forEach((k,v) -> {
+            node.getMeasurements().forEach((k,v) -> {
                 StringBuilder second = new StringBuilder();
                 v.forEach(value -> {
                     second.append(value);
@@ -75,18 +141,22 @@ public class StackTraceTreeNode implements Serializable {
     }
 
     public void addMeasurement(String identifier, Double weight) {
-        if (!measurements.containsKey(identifier)) {
-            measurements.put(identifier, new ArrayList<Double>());
-        }
-        measurements.get(identifier).add(weight);
+        measurementsOf(identifier).add(weight);
     }
 
-    public void addMeasurement(String identifier, VmMeasurement weights) {
-        if (!vmMeasurements.containsKey(identifier)) {
-            vmMeasurements.put(identifier, new ArrayList<>());
+    public void addMeasurements(String identifier, List<Double> weights) {
+        measurementsOf(identifier).addAll(weights);
+    }
+
+    private List<Double> measurementsOf(String identifier) {
+        if (measurements == null) {
+            measurements = new HashMap<>(2);
         }
+        return measurements.computeIfAbsent(identifier, k -> new DoubleList());
+    }
 
-        vmMeasurements.get(identifier).add(weights);
+    public void addMeasurement(String identifier, VmMeasurement weights) {
+        vmMeasurementsOf(identifier).add(weights);
 
 //        var currentWeights = vmMeasurements.get(identifier)
 //                .stream().filter(w -> w.vm == weights.vm)
@@ -98,8 +168,57 @@ public class StackTraceTreeNode implements Serializable {
 //        }
     }
 
+    /**
+     * Appends the weights to the VM measurement of the same VM, or adds them as a new VM measurement if this node
+     * has none for that VM yet.
+     */
+    public void mergeVmMeasurement(String identifier, VmMeasurement weights) {
+        List<VmMeasurement> current = vmMeasurementsOf(identifier);
+        for (VmMeasurement vmMeasurement : current) {
+            if (vmMeasurement.getVm() == weights.getVm()) {
+                vmMeasurement.merge(weights);
+                return;
+            }
+        }
+        current.add(weights);
+    }
+
+    private List<VmMeasurement> vmMeasurementsOf(String identifier) {
+        if (vmMeasurements == null) {
+            vmMeasurements = new HashMap<>(2);
+        }
+        return vmMeasurements.computeIfAbsent(identifier, k -> new ArrayList<>());
+    }
+
+    /**
+     * Adds a measurement without retaining its value; only the statistics of the identifier are updated.
+     */
+    public void addStatistic(String identifier, double weight) {
+        statisticsOf(identifier).add(weight);
+    }
+
+    public void mergeStatistics(String identifier, OnlineStatistics other) {
+        statisticsOf(identifier).merge(other);
+    }
+
+    private OnlineStatistics statisticsOf(String identifier) {
+        if (statistics == null) {
+            statistics = new HashMap<>(2);
+        }
+        return statistics.computeIfAbsent(identifier, k -> new OnlineStatistics());
+    }
+
+    /**
+     * Statistics of all measurements of the identifier, retained or not.
+     */
+    public OnlineStatistics computeStatistics(String identifier) {
+        OnlineStatistics result = OnlineStatistics.of(getMeasurements().get(identifier));
+        result.merge(getStatistics().get(identifier));
+        return result;
+    }
+
     public void resetVmMeasurements() {
-        this.vmMeasurements = new HashMap<>();
+        this.vmMeasurements = null;
     }
 
     @Override
@@ -110,32 +229,92 @@ public class StackTraceTreeNode implements Serializable {
                 var payload = this.getPayload();
                 var otherPayload = other.getPayload();
 
-                if(!payload.getMethodName().equals(otherPayload.getMethodName())) {
+                if(payload.getMethodId() != otherPayload.getMethodId()) {
+                    return false;
+                }
+
+                if(this.getDepth() != other.getDepth() || this.getPathFingerprint() != other.getPathFingerprint()) {
                     return false;
                 }
 
-                List<String> o1 = other.getParentMethodNames();
-                List<String> o2 = this.getParentMethodNames();
-                return o1.equals(o2);
+                return hasSameAncestors(this, other);
             }
         }
         return false;
     }
 
+    @Override
+    public int hashCode() {
+        return Long.hashCode(getPathFingerprint());
+    }
+
+    private static boolean hasSameAncestors(StackTraceTreeNode node, StackTraceTreeNode other) {
+        StackTraceTreeNode current = node.parent;
+        StackTraceTreeNode otherCurrent = other.parent;
+        while (current != null && otherCurrent != null) {
+            if (current == otherCurrent) {
+                return true;
+            }
+            if (current.getMethodId() != otherCurrent.getMethodId()) {
+                return false;
+            }
+            current = current.parent;
+            otherCurrent = otherCurrent.parent;
+        }
+        return current == null && otherCurrent == null;
+    }
+
+    /**
+     * Checks whether the path of this node (topmost ancestor first) equals the given path.
+     */
+    public boolean hasPath(CallPath path) {
+        if (path.size() != getDepth() + 1 || path.getFingerprint() != getPathFingerprint()) {
+            return false;
+        }
+        StackTraceTreeNode current = this;
+        for (int i = path.size() - 1; i >= 0; i--) {
+            if (current.getMethodId() != path.getMethodId(i)) {
+                return false;
+            }
+            current = current.parent;
+        }
+        return true;
+    }
+
+   /**
+    * Id of this node's method signature in the {@link SignatureTable}.
+    */
+   @JsonIgnore
+   public int getMethodId() {
+      return payload.getMethodId();
+   }
+
    public StackTraceTreeNode getParent() {
       return parent;
    }
 
    public void setParent(StackTraceTreeNode parent) {
       this.parent = parent;
+      invalidateSubtreePaths();
    }
 
    public List<StackTraceTreeNode> getChildren() {
       return children;
    }
 
+   /**
+    * Replaces the children. Children that belonged to another parent are moved to this node, so their paths are
+    * derived from it afterwards.
+    */
    public void setChildren(List<StackTraceTreeNode> children) {
       this.children = children;
+      if (children != null) {
+         for (StackTraceTreeNode child : children) {
+            if (child != null && child.parent != this) {
+               child.setParent(this);
+            }
+         }
+      }
    }
 
    public StackTraceTreePayload getPayload() {
@@ -144,9 +323,20 @@ public class StackTraceTreeNode implements Serializable {
 
    public void setPayload(StackTraceTreePayload payload) {
       this.payload = payload;
+      if (payload != null) {
+         payload.setNode(this);
+      }
+      invalidateSubtreePaths();
    }
 
+   /**
+    * Measurements per identifier. The map is only allocated once it is requested or a measurement is added, and
+    * changes to it change the node.
+    */
    public Map<String, List<Double>> getMeasurements() {
+      if (measurements == null) {
+         measurements = new HashMap<>(2);
+      }
       return measurements;
    }
 
@@ -154,7 +344,13 @@ public class StackTraceTreeNode implements Serializable {
       this.measurements = measurements;
    }
 
+   /**
+    * VM measurements per identifier, allocated like {@link #getMeasurements()}.
+    */
    public Map<String, List<VmMeasurement>> getVmMeasurements() {
+      if (vmMeasurements == null) {
+         vmMeasurements = new HashMap<>(2);
+      }
       return vmMeasurements;
    }
 
@@ -162,6 +358,22 @@ public class StackTraceTreeNode implements Serializable {
       this.vmMeasurements = vmMeasurements;
    }
 
+   /**
+    * Statistics of measurements whose values are not retained per identifier, allocated like
+    * {@link #getMeasurements()}.
+    */
+   @JsonInclude(JsonInclude.Include.NON_EMPTY)
+   public Map<String, OnlineStatistics> getStatistics() {
+      if (statistics == null) {
+         statistics = new HashMap<>(2);
+      }
+      return statistics;
+   }
+
+   public void setStatistics(Map<String, OnlineStatistics> statistics) {
+      this.statistics = statistics;
+   }
+
    public Double getInitialWeight() {
       return initialWeight;
    }
@@ -170,7 +382,28 @@ public class StackTraceTreeNode implements Serializable {
       this.initialWeight = initialWeight;
    }
 
+   /**
+    * Method names from the topmost ancestor down to this node, derived from the parent pointers.
+    * The returned list is a copy.
+    */
    public List<String> getParentMethodNames() {
-      return parentMethodNames;
+      return getCallPath().getMethodNames();
+   }
+
+   @JsonIgnore
+   public CallPath getCallPath() {
+      return CallPath.of(this);
+   }
+
+   @JsonIgnore
+   public int getDepth() {
+      ensurePath();
+      return depth;
+   }
+
+   @JsonIgnore
+   public long getPathFingerprint() {
+      ensurePath();
+      return pathFingerprint;
    }
 }
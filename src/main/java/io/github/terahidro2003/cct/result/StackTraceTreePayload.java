@@ -1,30 +1,72 @@
 package io.github.terahidro2003.cct.result;
 
-import lombok.AllArgsConstructor;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import lombok.Builder;
-import lombok.Getter;
 import lombok.NoArgsConstructor;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
-@Getter
-@Builder
 @NoArgsConstructor
-@AllArgsConstructor
+@JsonPropertyOrder({"methodName", "vm"})
 public class StackTraceTreePayload implements Serializable {
-    private String methodName;
+    private static final long serialVersionUID = -3105263744587930530L;
+
+    /**
+     * Id of the method signature in the {@link SignatureTable}; the signature itself is only stored once per JVM.
+     */
+    private transient int methodId = SignatureTable.NO_SIGNATURE;
     private int vm;
+    /**
+     * Node the payload was last attached to, whose cached call paths depend on the signature.
+     */
+    private transient StackTraceTreeNode node;
 
     public StackTraceTreePayload(String methodName) {
-        this.methodName = methodName;
+        this.methodId = SignatureTable.intern(methodName);
+    }
+
+    @Builder
+    public StackTraceTreePayload(String methodName, int vm) {
+        this.methodId = SignatureTable.intern(methodName);
+        this.vm = vm;
+    }
+
+    /**
+     * Creates a payload for a signature that is already interned in the {@link SignatureTable}.
+     */
+    public static StackTraceTreePayload ofMethodId(int methodId, int vm) {
+        StackTraceTreePayload payload = new StackTraceTreePayload();
+        payload.methodId = methodId;
+        payload.vm = vm;
+        return payload;
     }
 
     public String getMethodName() {
-        return methodName;
+        return SignatureTable.lookup(methodId);
     }
 
+    /**
+     * Changes the signature; the call paths of the node the payload is attached to, and of its descendants, are
+     * derived again.
+     */
     public void setMethodName(String methodName) {
-        this.methodName = methodName;
+        this.methodId = SignatureTable.intern(methodName);
+        if (node != null && node.getPayload() == this) {
+            node.invalidateSubtreePaths();
+        }
+    }
+
+    @JsonIgnore
+    public int getMethodId() {
+        return methodId;
+    }
+
+    void setNode(StackTraceTreeNode node) {
+        this.node = node;
     }
 
     public int getVm() {
@@ -34,4 +76,14 @@ public class StackTraceTreePayload implements Serializable {
     public void setVm(int vm) {
         this.vm = vm;
     }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(getMethodName());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.methodId = SignatureTable.intern((String) in.readObject());
+    }
 }
@@ -1,21 +1,48 @@
 package io.github.terahidro2003.cct.result;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 public class VmMeasurement implements Serializable {
-    
+
    private static final long serialVersionUID = -5204256744692818564L;
-   
-   List<Double> measurements = new ArrayList<Double>();
+
+   DoubleList measurements;
    int vm;
+   /**
+    * Only set if the values are not retained; it then replaces them.
+    */
+   OnlineStatistics statistics;
 
+   public VmMeasurement(int vm) {
+      this.measurements = new DoubleList();
+      this.vm = vm;
+   }
+
+   /**
+    * The measurements are stored as primitive doubles; lists of another type are copied.
+    */
    public VmMeasurement(List<Double> measurements, int vm) {
-      this.measurements = measurements;
+      this.measurements = DoubleList.copyOf(measurements);
       this.vm = vm;
    }
 
+   /**
+    * A VM measurement that only keeps the statistics of its values, so its size does not grow with the values.
+    */
+   public static VmMeasurement withoutValues(int vm) {
+      return withStatistics(new OnlineStatistics(), vm);
+   }
+
+   public static VmMeasurement withStatistics(OnlineStatistics statistics, int vm) {
+      VmMeasurement vmMeasurement = new VmMeasurement(vm);
+      vmMeasurement.statistics = statistics;
+      return vmMeasurement;
+   }
+
    public int getVm() {
         return vm;
     }
@@ -24,15 +51,58 @@ public class VmMeasurement implements Serializable {
         this.vm = vm;
     }
 
+    /**
+     * The values; empty if they are not retained.
+     */
     public List<Double> getMeasurements() {
         return measurements;
     }
 
     public void setMeasurements(List<Double> measurements) {
-        this.measurements = measurements;
+        this.measurements = DoubleList.copyOf(measurements);
     }
 
     public void addMeasurement(double value) {
-        measurements.add(value);
+        if (statistics != null) {
+            statistics.add(value);
+        } else {
+            measurements.addDouble(value);
+        }
+    }
+
+    @JsonIgnore
+    public boolean isRetainingValues() {
+        return statistics == null;
+    }
+
+    /**
+     * The statistics that replace the values, or null if the values are retained.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public OnlineStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * The statistics of all values, whether they are retained or not.
+     */
+    public OnlineStatistics computeStatistics() {
+        return statistics != null ? statistics.copy() : OnlineStatistics.of(measurements);
+    }
+
+    /**
+     * Appends the values of the other measurement. If either of both does not retain its values, only the
+     * statistics of both are kept.
+     */
+    public void merge(VmMeasurement other) {
+        if (statistics == null && other.statistics == null) {
+            measurements.addAll(other.measurements);
+            return;
+        }
+        if (statistics == null) {
+            statistics = OnlineStatistics.of(measurements);
+            measurements = new DoubleList();
+        }
+        statistics.merge(other.statistics != null ? other.statistics : OnlineStatistics.of(other.measurements));
     }
 }
@@ -11,14 +11,40 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.file.Files;
+import java.util.List;
 
 @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.ANY)
 @JsonSerialize
 public record Config(String executable, String mainClass, String profilerPath, String outputPath, Boolean JfrEnabled,
-                     Integer interval, Boolean timeoutDisabled) implements Serializable {
+                     Integer interval, Boolean timeoutDisabled, List<String> frameExclusions,
+                     Long treeCacheBytes, Boolean iterationTreesInBackground) implements Serializable {
 
     private static final Logger log = LoggerFactory.getLogger(Config.class);
 
+    /**
+     * Config without frame exclusions, so trees are only filtered with the default JVM and native frame exclusions.
+     */
+    public Config(String executable, String mainClass, String profilerPath, String outputPath, Boolean JfrEnabled,
+                  Integer interval, Boolean timeoutDisabled) {
+        this(executable, mainClass, profilerPath, outputPath, JfrEnabled, interval, timeoutDisabled, null);
+    }
+
+    /**
+     * Config without a cache of parsed recordings.
+     */
+    public Config(String executable, String mainClass, String profilerPath, String outputPath, Boolean JfrEnabled,
+                  Integer interval, Boolean timeoutDisabled, List<String> frameExclusions) {
+        this(executable, mainClass, profilerPath, outputPath, JfrEnabled, interval, timeoutDisabled, frameExclusions, null);
+    }
+
+    /**
+     * Config that builds the iteration trees after the measurement instead of in the background.
+     */
+    public Config(String executable, String mainClass, String profilerPath, String outputPath, Boolean JfrEnabled,
+                  Integer interval, Boolean timeoutDisabled, List<String> frameExclusions, Long treeCacheBytes) {
+        this(executable, mainClass, profilerPath, outputPath, JfrEnabled, interval, timeoutDisabled, frameExclusions, treeCacheBytes, false);
+    }
+
     public static Config retrieveConfiguration(File configPath) {
         ObjectReader reader = Constants.OBJECT_MAPPER.readerFor(Config.class);
         try {
@@ -37,7 +63,7 @@ public record Config(String executable, String mainClass, String profilerPath, S
         if(!config.executable.contains(".jar") && config.executable.contains(".txt")) {
             try {
                 String classPath = FileUtils.readFileToString(config.executable);
-                return new Config(classPath, config.mainClass, config.profilerPath, config.outputPath, config.JfrEnabled, config.interval, false);
+                return new Config(classPath, config.mainClass, config.profilerPath, config.outputPath, config.JfrEnabled, config.interval, false, config.frameExclusions, config.treeCacheBytes, config.iterationTreesInBackground);
             } catch (IOException e) {
                 return config;
             }
@@ -47,7 +73,7 @@ public record Config(String executable, String mainClass, String profilerPath, S
     }
 
     public static Config clone(Config config, String outputPath) {
-        return new Config(config.executable(), config.mainClass, config.profilerPath, outputPath, config.JfrEnabled, config.interval, false);
+        return new Config(config.executable(), config.mainClass, config.profilerPath, outputPath, config.JfrEnabled, config.interval, false, config.frameExclusions, config.treeCacheBytes, config.iterationTreesInBackground);
     }
 
     private boolean hasValidProfilerExecutable() {
@@ -6,6 +6,9 @@ import io.github.terahidro2003.utils.FileUtils;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class ConfigBuilder {
     private Config config;
@@ -17,6 +20,9 @@ public class ConfigBuilder {
     private Boolean JfrEnabled;
     private Integer interval;
     private Boolean timeoutDisabled = true;
+    private List<String> frameExclusions;
+    private Long treeCacheBytes;
+    private Boolean iterationTreesInBackground = false;
 
     public ConfigBuilder() {
         this.config = new Config(null, null, null, null, false, 0, false);
@@ -79,6 +85,41 @@ public class ConfigBuilder {
         return this;
     }
 
+    /**
+     * Frames to leave out of call trees, see {@link io.github.terahidro2003.cct.FrameExclusionFilter} for the
+     * pattern syntax. The exclusions are added to the common JVM and native frames, which are always left out.
+     */
+    public ConfigBuilder frameExclusions(List<String> frameExclusions) {
+        this.frameExclusions = frameExclusions == null ? null : List.copyOf(frameExclusions);
+        return this;
+    }
+
+    public ConfigBuilder excludeFrames(String... patterns) {
+        List<String> exclusions = new ArrayList<>(this.frameExclusions == null ? List.of() : this.frameExclusions);
+        exclusions.addAll(Arrays.asList(patterns));
+        this.frameExclusions = List.copyOf(exclusions);
+        return this;
+    }
+
+    /**
+     * Caches the stack traces parsed from JFR recordings up to the given total size, see
+     * {@link io.github.terahidro2003.cct.builder.VmTreeCache}.
+     */
+    public ConfigBuilder treeCacheBytes(long treeCacheBytes) {
+        this.treeCacheBytes = treeCacheBytes;
+        return this;
+    }
+
+    /**
+     * Builds the tree of every measured iteration while the next iteration is measured, see
+     * {@link io.github.terahidro2003.cct.builder.IterationTreePipeline}. The parsing competes with the measured
+     * workload for CPU, so this is only advisable if the machine has spare cores.
+     */
+    public ConfigBuilder iterationTreesInBackground(boolean iterationTreesInBackground) {
+        this.iterationTreesInBackground = iterationTreesInBackground;
+        return this;
+    }
+
     public Config build() {
         Config config1 = new Config(
                 this.executable,
@@ -87,7 +128,10 @@ public class ConfigBuilder {
                 this.outputPath,
                 this.JfrEnabled,
                 this.interval,
-                this.timeoutDisabled
+                this.timeoutDisabled,
+                this.frameExclusions,
+                this.treeCacheBytes,
+                this.iterationTreesInBackground
         );
         return config1;
     }
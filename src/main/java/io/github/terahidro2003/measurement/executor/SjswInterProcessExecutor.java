@@ -3,10 +3,17 @@ package io.github.terahidro2003.measurement.executor;
 import java.io.File;
 import java.util.List;
 
-public interface SjswInterProcessExecutor {
+public interface SjswInterProcessExecutor extends AutoCloseable {
     List<File> prepareForIterativeMeasurements(File resultsFolder, int iterations);
 
     void measure(File resultsFolder, int interval, String... include);
 
     void stopMeasure();
+
+    /**
+     * Finishes the work that is left after the last measurement and releases the resources of the executor.
+     */
+    @Override
+    default void close() {
+    }
 }
@@ -1,5 +1,7 @@
 package io.github.terahidro2003.measurement.executor.asprof;
 
+import io.github.terahidro2003.cct.builder.IterationTreePipeline;
+import io.github.terahidro2003.config.Config;
 import io.github.terahidro2003.config.Constants;
 import io.github.terahidro2003.measurement.executor.SjswInterProcessExecutor;
 import one.profiler.AsyncProfiler;
@@ -10,8 +12,44 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
+/**
+ * Measures the iterations of a testcase from inside the measured JVM. With an {@link IterationTreePipeline}, the
+ * tree of every iteration is built once its measurement is stopped; after the last prepared iteration, or on
+ * {@link #close()}, the merged tree is written next to the recordings and the pipeline is closed.
+ */
 public class AsprofInterProcessExecutor implements SjswInterProcessExecutor {
     private final AsyncProfiler asyncProfiler = getAsProfInstance();
+    private final IterationTreePipeline iterationTreePipeline;
+    private File currentResultFile;
+    private int preparedIterations;
+    private boolean closed;
+
+    public AsprofInterProcessExecutor() {
+        this(null);
+    }
+
+    /**
+     * @param iterationTreePipeline pipeline that builds the tree of each iteration once its measurement is stopped,
+     *                              or null to leave the JFRs for post-processing
+     */
+    public AsprofInterProcessExecutor(IterationTreePipeline iterationTreePipeline) {
+        this.iterationTreePipeline = iterationTreePipeline;
+    }
+
+    /**
+     * Executor that builds the tree of every iteration of the testcase without the frames the config excludes, if
+     * the config enables {@link Config#iterationTreesInBackground() background tree building}. Otherwise the JFRs
+     * are left for post-processing.
+     */
+    public AsprofInterProcessExecutor(Config config, String testcase, String commit, int vm) {
+        this(Boolean.TRUE.equals(config.iterationTreesInBackground())
+                ? IterationTreePipeline.of(config, testcase, commit, vm)
+                : null);
+    }
+
+    public IterationTreePipeline getIterationTreePipeline() {
+        return iterationTreePipeline;
+    }
 
     @Override
     public List<File> prepareForIterativeMeasurements(File resultsFolder, int iterations) {
@@ -25,6 +63,7 @@ public class AsprofInterProcessExecutor implements SjswInterProcessExecutor {
 
         List<File> resultFiles = new ArrayList<>();
         UUID uuid = UUID.randomUUID();
+        preparedIterations = iterations;
 
         for (int i = 0; i<iterations; i++) {
             resultFiles.add(new File(resultsFolder, "unprocessed_sjsw_iterative_result" + uuid + "_iteration_" + i + ".jfr"));
@@ -50,6 +89,7 @@ public class AsprofInterProcessExecutor implements SjswInterProcessExecutor {
             } else {
                 asyncProfiler.execute("start,jfr,alluser,exclude=*jdk.internal.*,event=cpu,interval=" + interval + "ms,cstack=dwarf,file=" + resultFile.getAbsolutePath());
             }
+            currentResultFile = resultFile;
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -58,6 +98,29 @@ public class AsprofInterProcessExecutor implements SjswInterProcessExecutor {
     @Override
     public void stopMeasure() {
         asyncProfiler.stop();
+        if (iterationTreePipeline != null && currentResultFile != null && !closed) {
+            iterationTreePipeline.submit(currentResultFile);
+            if (iterationTreePipeline.getSubmittedIterations() == preparedIterations) {
+                close();
+            }
+        }
+        currentResultFile = null;
+    }
+
+    /**
+     * Writes the merged tree of the measured iterations and closes the pipeline, if there is one.
+     */
+    @Override
+    public void close() {
+        if (iterationTreePipeline == null || closed) {
+            return;
+        }
+        closed = true;
+        try {
+            iterationTreePipeline.writeTree();
+        } finally {
+            iterationTreePipeline.close();
+        }
     }
 
     private static AsyncProfiler getAsProfInstance() {
@@ -151,7 +151,7 @@ public class FileUtils {
             }
             String profilerPath = io.github.terahidro2003.utils.FileUtils.retrieveAsyncProfilerExecutable(folder.toPath());
             log.warn("Downloaded profiler path: {}", profilerPath);
-            return new Config(config.executable(), config.mainClass(), profilerPath, config.outputPath(), config.JfrEnabled(), config.interval(), false);
+            return new Config(config.executable(), config.mainClass(), profilerPath, config.outputPath(), config.JfrEnabled(), config.interval(), false, config.frameExclusions(), config.treeCacheBytes(), config.iterationTreesInBackground());
         }
         return config;
     }
@@ -0,0 +1,106 @@
+package io.github.terahidro2003.samplers.asyncprofiler;
+
+import io.github.terahidro2003.cct.SamplerResultsProcessor;
+import io.github.terahidro2003.cct.TreeUtils;
+import io.github.terahidro2003.cct.io.BinaryCctReader;
+import io.github.terahidro2003.cct.io.BinaryCctWriter;
+import io.github.terahidro2003.cct.io.MappedCctFile;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.cct.result.StackTraceTreePayload;
+import io.github.terahidro2003.cct.result.VmMeasurement;
+import io.github.terahidro2003.config.Constants;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BinaryCctFormatTest {
+
+    final File resourcesDir = new File("src/test/resources");
+
+    @Test
+    public void testRoundTripOfRecordedTree(@TempDir File tempDir) throws IOException {
+        StackTraceTreeNode tree = new SamplerResultsProcessor().getTreeFromJfr(List.of(new File(resourcesDir, "1111_1.jfr")));
+        TreeUtils.addWeightsAsMeasurements(tree, "1111");
+        TreeUtils.addWeightsAsVmMeasurements(tree, "2222", 3);
+
+        File json = new File(tempDir, "tree.json");
+        File binary = new File(tempDir, "tree.cct");
+        TreeUtils.writeCCTtoFile(tree, json);
+        TreeUtils.writeCCTtoBinaryFile(tree, binary);
+
+        StackTraceTreeNode read = TreeUtils.readCCTfromBinaryFile(binary);
+
+        Assertions.assertEquals(Constants.OBJECT_MAPPER.writeValueAsString(tree), Constants.OBJECT_MAPPER.writeValueAsString(read));
+        Assertions.assertTrue(binary.length() * 10 < json.length(),
+                "Binary file has " + binary.length() + " bytes, JSON file " + json.length() + " bytes");
+    }
+
+    @Test
+    public void testValuesRoundTripExactly() throws IOException {
+        double[] values = {0.0, -0.0, 1.0, -1.0, 0.5, Double.NaN, Double.POSITIVE_INFINITY, 1e300, -(double) (1L << 53),
+                (double) Long.MAX_VALUE, Double.MIN_VALUE};
+
+        StackTraceTreeNode root = new StackTraceTreeNode(null, new ArrayList<>(), new StackTraceTreePayload("root", -1));
+        StackTraceTreeNode child = new StackTraceTreeNode(root, new ArrayList<>(), new StackTraceTreePayload("child()", 7));
+        root.getChildren().add(child);
+        VmMeasurement vmMeasurement = new VmMeasurement(2);
+        for (double value : values) {
+            child.addMeasurement("commit", value);
+            vmMeasurement.addMeasurement(value);
+        }
+        child.addMeasurement("commit", vmMeasurement);
+        child.setInitialWeight(-0.0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryCctWriter.write(root, out);
+        StackTraceTreeNode read = BinaryCctReader.read(new ByteArrayInputStream(out.toByteArray()));
+
+        Assertions.assertNull(read.getInitialWeight());
+        Assertions.assertEquals(-1, read.getPayload().getVm());
+        StackTraceTreeNode readChild = read.getChildren().get(0);
+        Assertions.assertEquals(List.of("root", "child()"), readChild.getParentMethodNames());
+        Assertions.assertEquals(7, readChild.getPayload().getVm());
+        Assertions.assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(readChild.getInitialWeight()));
+        List<Double> measurements = readChild.getMeasurements().get("commit");
+        List<Double> vmMeasurements = readChild.getVmMeasurements().get("commit").get(0).getMeasurements();
+        Assertions.assertEquals(2, readChild.getVmMeasurements().get("commit").get(0).getVm());
+        for (int i = 0; i < values.length; i++) {
+            Assertions.assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(measurements.get(i)));
+            Assertions.assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(vmMeasurements.get(i)));
+        }
+    }
+
+    @Test
+    public void testNodesWithoutSignature(@TempDir File tempDir) throws IOException {
+        StackTraceTreeNode root = new StackTraceTreeNode(null, new ArrayList<>(), new StackTraceTreePayload("root", -1));
+        StackTraceTreeNode unnamed = new StackTraceTreeNode(root, new ArrayList<>(), new StackTraceTreePayload(null, 1));
+        StackTraceTreeNode empty = new StackTraceTreeNode(unnamed, new ArrayList<>(), new StackTraceTreePayload("", 1));
+        root.getChildren().add(unnamed);
+        unnamed.getChildren().add(empty);
+
+        File binary = new File(tempDir, "tree.cct");
+        BinaryCctWriter.write(root, binary);
+
+        StackTraceTreeNode read = BinaryCctReader.read(binary).getChildren().get(0);
+        Assertions.assertNull(read.getPayload().getMethodName());
+        Assertions.assertEquals(Arrays.asList("root", null, ""), read.getChildren().get(0).getParentMethodNames());
+        try (MappedCctFile mapped = MappedCctFile.open(binary)) {
+            Assertions.assertNull(mapped.getRoot().getChildren().get(0).getPayload().getMethodName());
+            Assertions.assertEquals(1, mapped.findAll("root").size());
+        }
+    }
+
+    @Test
+    public void testRejectsOtherFiles() {
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> BinaryCctReader.read(new ByteArrayInputStream("{\"children\":[]}".getBytes())));
+    }
+}
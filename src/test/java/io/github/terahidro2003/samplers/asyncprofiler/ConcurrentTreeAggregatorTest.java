@@ -0,0 +1,110 @@
+package io.github.terahidro2003.samplers.asyncprofiler;
+
+import io.github.terahidro2003.cct.TreeWalker;
+import io.github.terahidro2003.cct.builder.CallTreeInserter;
+import io.github.terahidro2003.cct.builder.ConcurrentTreeAggregator;
+import io.github.terahidro2003.cct.builder.ExecutionSampleTreeBuilder;
+import io.github.terahidro2003.cct.result.SignatureTable;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.cct.result.StackTraceTreePayload;
+import io.github.terahidro2003.config.Constants;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+public class ConcurrentTreeAggregatorTest {
+
+    @Test
+    public void testSingleThreadEqualsInserter() throws Exception {
+        List<int[]> paths = randomPaths(500, 1);
+        StackTraceTreeNode expectedRoot = new StackTraceTreeNode(null, new ArrayList<>(), new StackTraceTreePayload("root()"));
+        expectedRoot.setInitialWeight(0.0);
+        CallTreeInserter inserter = new CallTreeInserter(expectedRoot);
+        ConcurrentTreeAggregator aggregator = new ConcurrentTreeAggregator("root()");
+        for (int[] path : paths) {
+            expectedRoot.setInitialWeight(expectedRoot.getInitialWeight() + 1);
+            inserter.insert(path, path.length, 1.0);
+            aggregator.addRootWeight(1.0);
+            aggregator.insert(path, path.length, 1.0);
+        }
+
+        Assertions.assertEquals(Constants.OBJECT_MAPPER.writeValueAsString(expectedRoot),
+                Constants.OBJECT_MAPPER.writeValueAsString(aggregator.freeze()));
+        Assertions.assertThrows(IllegalStateException.class, () -> aggregator.insert(paths.get(0), 1, 1.0));
+    }
+
+    @Test
+    public void testConcurrentInsertion() throws InterruptedException {
+        int threads = 8;
+        List<int[]> paths = randomPaths(2000, 2);
+        StackTraceTreeNode expectedRoot = new StackTraceTreeNode(null, new ArrayList<>(), new StackTraceTreePayload("root()"));
+        CallTreeInserter inserter = new CallTreeInserter(expectedRoot);
+        for (int i = 0; i < threads; i++) {
+            paths.forEach(path -> inserter.insert(path, path.length, 1.0));
+        }
+
+        ConcurrentTreeAggregator aggregator = new ConcurrentTreeAggregator("root()");
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                paths.forEach(path -> aggregator.insert(path, path.length, 1.0));
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        Assertions.assertEquals(weightsByPath(expectedRoot), weightsByPath(aggregator.freeze()));
+    }
+
+    @Test
+    public void testRecordingsReadInParallel() {
+        File first = new File("src/test/resources/1111_1.jfr");
+        File second = new File("src/test/resources/1111_2.jfr");
+        ExecutionSampleTreeBuilder builder = new ExecutionSampleTreeBuilder();
+
+        Set<List<String>> expectedPaths = new HashSet<>(weightsByPath(builder.buildFromJfr(first)).keySet());
+        expectedPaths.addAll(weightsByPath(builder.buildFromJfr(second)).keySet());
+
+        Map<List<String>, Double> aggregated = weightsByPath(builder.buildFromJfrs(List.of(first, second), 2));
+        Assertions.assertEquals(expectedPaths, aggregated.keySet());
+        Assertions.assertTrue(aggregated.values().stream().allMatch(weight -> weight == null));
+    }
+
+    private static Map<List<String>, Double> weightsByPath(StackTraceTreeNode tree) {
+        Map<List<String>, Double> weights = new HashMap<>();
+        TreeWalker.forEach(tree, node -> weights.put(node.getParentMethodNames(), node.getInitialWeight()));
+        return weights;
+    }
+
+    private static List<int[]> randomPaths(int count, long seed) {
+        Random random = new Random(seed);
+        List<int[]> paths = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int[] path = new int[1 + random.nextInt(12)];
+            for (int j = 0; j < path.length; j++) {
+                path[j] = SignatureTable.intern("method" + random.nextInt(6) + "()");
+            }
+            paths.add(path);
+        }
+        return paths;
+    }
+}
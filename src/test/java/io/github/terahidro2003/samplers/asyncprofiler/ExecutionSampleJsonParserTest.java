@@ -0,0 +1,51 @@
+package io.github.terahidro2003.samplers.asyncprofiler;
+
+import io.github.terahidro2003.cct.jfr.ExecutionSample;
+import io.github.terahidro2003.cct.jfr.JfrRecordingReader;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ExecutionSampleJsonParserTest {
+
+    final File resourcesDir = new File("src/test/resources");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testStreamingParserMatchesRecording() throws IOException, InterruptedException {
+        File jfr = new File(resourcesDir + "/iterativeSamples/checked_sjsw_partial_vm_0_iteration_0_commit_55bbfafd67ee1f7dc721ea945714a324708787c6.jfr");
+        File jfrTool = Path.of(System.getProperty("java.home"), "bin", "jfr").toFile();
+        Assumptions.assumeTrue(jfrTool.exists(), "jfr tool is not available in this JDK");
+
+        File json = tempDir.resolve("samples.json").toFile();
+        Process process = new ProcessBuilder(jfrTool.getAbsolutePath(), "print", "--json", "--stack-depth", "2048", jfr.getAbsolutePath())
+                .redirectOutput(json)
+                .start();
+        Assertions.assertEquals(0, process.waitFor());
+
+        List<ExecutionSample> streamed = new ArrayList<>();
+        ExecutionSample.parseJson(json.getAbsolutePath(), streamed::add);
+        List<ExecutionSample> recorded = JfrRecordingReader.readExecutionSamples(jfr);
+
+        Assertions.assertFalse(streamed.isEmpty());
+        Assertions.assertEquals(recorded.size(), streamed.size());
+        // jfr print orders events by time, while the recording is read in chunk order
+        Assertions.assertEquals(describe(recorded), describe(streamed));
+    }
+
+    private static List<String> describe(List<ExecutionSample> samples) {
+        return samples.stream()
+                .map(sample -> sample.getSampledThread() + " " + sample.getMethodSignatures())
+                .sorted()
+                .toList();
+    }
+}
@@ -0,0 +1,170 @@
+package io.github.terahidro2003.samplers.asyncprofiler;
+
+import io.github.terahidro2003.cct.FrameExclusionFilter;
+import io.github.terahidro2003.cct.SamplerResultsProcessor;
+import io.github.terahidro2003.cct.TreeUtils;
+import io.github.terahidro2003.cct.TreeWalker;
+import io.github.terahidro2003.cct.builder.IterationTreePipeline;
+import io.github.terahidro2003.cct.builder.IterativeContextTreeBuilder;
+import io.github.terahidro2003.cct.builder.JfrTreeBuilder;
+import io.github.terahidro2003.cct.builder.VmContextTreeBuilder;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.config.Config;
+import io.github.terahidro2003.config.ConfigBuilder;
+import io.github.terahidro2003.config.Constants;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FrameExclusionFilterTest {
+
+    final File jfr = new File("src/test/resources/1111_1.jfr");
+
+    @Test
+    public void testPatternKinds() {
+        FrameExclusionFilter filter = FrameExclusionFilter.compile(
+                "libjvm.so",
+                "prefix:java.util.concurrent.",
+                "glob:*$$Proxy?.invoke",
+                "regex:^int de\\.dagere\\.");
+
+        Assertions.assertTrue(filter.excludes("libjvm.so.GangWorker::run()"));
+        Assertions.assertTrue(filter.excludes("void java.util.concurrent.ThreadPoolExecutor.runWorker(ThreadPoolExecutor$Worker)"));
+        Assertions.assertFalse(filter.excludes("void java.util.ArrayList.add(Object)"));
+        Assertions.assertFalse(filter.excludes("void de.dagere.Caller.run(java.util.concurrent.Callable)"));
+        Assertions.assertTrue(filter.excludes("Object com.sun.Bean$$Proxy1.invoke(Object[])"));
+        Assertions.assertFalse(filter.excludes("Object com.sun.Bean$$Proxy12.invoke(Object[])"));
+        Assertions.assertTrue(filter.excludes("int de.dagere.Calculator.add(int, int)"));
+        Assertions.assertFalse(filter.excludes("void de.dagere.Calculator.reset()"));
+    }
+
+    @Test
+    public void testOverlappingTexts() {
+        FrameExclusionFilter filter = FrameExclusionFilter.compile("abcd", "bc", "cde");
+
+        Assertions.assertTrue(filter.excludes("xabce"));
+        Assertions.assertTrue(filter.excludes("xxcdex"));
+        Assertions.assertFalse(filter.excludes("abdcab"));
+        Assertions.assertFalse(FrameExclusionFilter.compile().excludes("void a()"));
+    }
+
+    @Test
+    public void testConfiguredExclusions() {
+        Config defaults = new ConfigBuilder().build();
+        Assertions.assertSame(FrameExclusionFilter.JVM_NODES, FrameExclusionFilter.of(defaults));
+
+        Config config = new ConfigBuilder().excludeFrames("prefix:java.", "libc.so").build();
+        List<String> expected = new ArrayList<>(FrameExclusionFilter.JVM_NODES.getPatterns());
+        expected.add("prefix:java.");
+        FrameExclusionFilter exclusions = FrameExclusionFilter.of(config);
+        Assertions.assertEquals(expected, exclusions.getPatterns());
+        Assertions.assertTrue(exclusions.excludes("void jdk.internal.misc.Unsafe.park(boolean, long)"));
+        Assertions.assertTrue(exclusions.excludes("void java.lang.Thread.run()"));
+    }
+
+    @Test
+    public void testFilterFramesEqualsContainedTexts() {
+        StackTraceTreeNode tree = testcaseTree();
+        StackTraceTreeNode expected = removeContaining(testcaseTree(), FrameExclusionFilter.JVM_NODES.getPatterns());
+
+        StackTraceTreeNode filtered = TreeUtils.filterFrames(tree, FrameExclusionFilter.JVM_NODES);
+
+        Assertions.assertEquals(names(expected), names(filtered));
+        Assertions.assertNull(TreeUtils.filterFrames(testcaseTree(), FrameExclusionFilter.compile("testMe()")));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testDeprecatedRecursiveFilter() {
+        List<String> exclude = List.of("jdk.internal", "Random");
+        StackTraceTreeNode expected = removeContaining(testcaseTree(), exclude);
+
+        Assertions.assertEquals(names(expected), names(TreeUtils.filterJvmNodesRecursive(testcaseTree(), exclude)));
+    }
+
+    @Test
+    public void testExclusionsAreAppliedWhileBuilding() {
+        FrameExclusionFilter exclusions = FrameExclusionFilter.compile("prefix:de.dagere.peass.MainTest.test");
+        StackTraceTreeNode tree = new JfrTreeBuilder("testMe()", exclusions).buildFromJfr(jfr);
+        StackTraceTreeNode expected = TreeUtils.filterFrames(new JfrTreeBuilder("testMe()", false).buildFromJfr(jfr), exclusions);
+
+        Assertions.assertNull(expected);
+        Assertions.assertNull(tree);
+
+        exclusions = FrameExclusionFilter.compile("glob:java.*");
+        tree = new JfrTreeBuilder("testMe()", exclusions).buildFromJfr(jfr);
+        expected = TreeUtils.filterFrames(new JfrTreeBuilder("testMe()", false).buildFromJfr(jfr), exclusions);
+
+        Assertions.assertEquals(names(expected), names(tree));
+        TreeWalker.forEach(tree, node ->
+                Assertions.assertFalse(node.getPayload().getMethodName().contains(" java."), node.getPayload().getMethodName()));
+    }
+
+    @Test
+    public void testConfiguredExclusionsAreUsedByBuilders(@TempDir Path tempDir) throws IOException {
+        Config config = new ConfigBuilder().excludeFrames("glob:java.*").build();
+        FrameExclusionFilter exclusions = FrameExclusionFilter.of(config);
+
+        StackTraceTreeNode vmTree = new VmContextTreeBuilder(config).buildTree(List.of(jfr), "1111", 1, "testMe()", true);
+        Assertions.assertEquals(names(new VmContextTreeBuilder().buildTree(List.of(jfr), "1111", 1, "testMe()", exclusions)),
+                names(vmTree));
+
+        String commit = "55bbfafd67ee1f7dc721ea945714a324708787c6";
+        List<File> jfrs = TreeFixtures.copyIterativeSamples(tempDir,
+                (dir, name) -> name.contains("_vm_0_") && name.contains(commit) && name.endsWith(".jfr"));
+        StackTraceTreeNode expected = new IterativeContextTreeBuilder().buildTree(jfrs, commit, "testMe()", exclusions, false, 0);
+
+        StackTraceTreeNode iterativeTree = new IterativeContextTreeBuilder(config).buildTree(jfrs, commit, "testMe()", true, false, 0);
+        StackTraceTreeNode pipelineTree;
+        try (IterationTreePipeline pipeline = IterationTreePipeline.of(config, "testMe()", commit, 0)) {
+            jfrs.forEach(pipeline::submit);
+            pipelineTree = pipeline.awaitTree();
+        }
+
+        Assertions.assertEquals(Constants.OBJECT_MAPPER.writeValueAsString(expected), Constants.OBJECT_MAPPER.writeValueAsString(iterativeTree));
+        Assertions.assertEquals(Constants.OBJECT_MAPPER.writeValueAsString(expected), Constants.OBJECT_MAPPER.writeValueAsString(pipelineTree));
+        TreeWalker.forEach(pipelineTree, node ->
+                Assertions.assertFalse(node.getPayload().getMethodName().contains(" java."), node.getPayload().getMethodName()));
+    }
+
+    private static StackTraceTreeNode removeContaining(StackTraceTreeNode node, List<String> texts) {
+        if (texts.stream().anyMatch(node.getPayload().getMethodName()::contains)) {
+            return null;
+        }
+        List<StackTraceTreeNode> kept = new ArrayList<>();
+        for (StackTraceTreeNode child : node.getChildren()) {
+            StackTraceTreeNode keptChild = child == null ? null : removeContaining(child, texts);
+            if (keptChild != null) {
+                kept.add(keptChild);
+            }
+        }
+        node.setChildren(kept);
+        return node;
+    }
+
+    private StackTraceTreeNode testcaseTree() {
+        StackTraceTreeNode bat = new SamplerResultsProcessor().getTreeFromJfr(List.of(jfr));
+        StackTraceTreeNode tree = TreeUtils.mergeTrees(TreeUtils.filterMultiple("testMe()", bat, false));
+        tree.setParent(null);
+        return tree;
+    }
+
+    private static List<String> names(StackTraceTreeNode node) {
+        List<String> names = new ArrayList<>();
+        collect(node, "", names);
+        names.sort(String::compareTo);
+        return names;
+    }
+
+    private static void collect(StackTraceTreeNode node, String path, List<String> names) {
+        String nodePath = path + "/" + node.getPayload().getMethodName();
+        names.add(nodePath + " " + node.getInitialWeight());
+        node.getChildren().forEach(child -> collect(child, nodePath, names));
+    }
+}
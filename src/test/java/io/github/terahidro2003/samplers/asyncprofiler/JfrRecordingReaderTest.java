@@ -0,0 +1,41 @@
+package io.github.terahidro2003.samplers.asyncprofiler;
+
+import io.github.terahidro2003.cct.TreeUtils;
+import io.github.terahidro2003.cct.builder.ExecutionSampleTreeBuilder;
+import io.github.terahidro2003.cct.jfr.ExecutionSample;
+import io.github.terahidro2003.cct.jfr.JfrRecordingReader;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+public class JfrRecordingReaderTest {
+
+    final File resourcesDir = new File("src/test/resources");
+
+    @Test
+    public void testReadExecutionSamples() throws IOException {
+        List<ExecutionSample> samples = JfrRecordingReader.readExecutionSamples(new File(resourcesDir + "/1111_1.jfr"));
+
+        Assertions.assertFalse(samples.isEmpty());
+        for (ExecutionSample sample : samples) {
+            Assertions.assertNotNull(sample.getTimestamp());
+            Assertions.assertNotNull(sample.getStackTrace());
+            sample.getStackTrace().forEach(method -> Assertions.assertFalse(method.isNative()));
+        }
+        Assertions.assertTrue(samples.stream()
+                .anyMatch(sample -> sample.getStackTrace().stream().anyMatch(method -> "testMe".equals(method.getMethodName()))));
+    }
+
+    @Test
+    public void testBuildTreeFromJfr() {
+        ExecutionSampleTreeBuilder builder = new ExecutionSampleTreeBuilder();
+        StackTraceTreeNode tree = builder.buildFromJfr(new File(resourcesDir + "/1111_1.jfr"));
+
+        Assertions.assertFalse(tree.getChildren().isEmpty());
+        Assertions.assertNotNull(TreeUtils.search("testMe", tree));
+    }
+}
@@ -0,0 +1,56 @@
+package io.github.terahidro2003.samplers.asyncprofiler;
+
+import io.github.terahidro2003.cct.FrameExclusionFilter;
+import io.github.terahidro2003.cct.SamplerResultsProcessor;
+import io.github.terahidro2003.cct.TreeUtils;
+import io.github.terahidro2003.cct.TreeWalker;
+import io.github.terahidro2003.cct.builder.JfrTreeBuilder;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+
+public class JfrTreeBuilderTest {
+
+    final File jfr = new File("src/test/resources/1111_1.jfr");
+
+    @Test
+    public void testEqualsStacktraceTreeModelPipeline() {
+        for (boolean filterJvmNativeNodes : List.of(false, true)) {
+            StackTraceTreeNode bat = new SamplerResultsProcessor().getTreeFromJfr(List.of(jfr));
+            StackTraceTreeNode expected = TreeUtils.mergeTrees(TreeUtils.filterMultiple("testMe()", bat, false));
+            expected.setParent(null);
+            if (filterJvmNativeNodes) {
+                expected = TreeUtils.filterJvmNodes(expected);
+            }
+
+            StackTraceTreeNode tree = new JfrTreeBuilder("testMe()", filterJvmNativeNodes).buildFromJfr(jfr);
+
+            Assertions.assertEquals(dump(expected), dump(tree));
+        }
+    }
+
+    @Test
+    public void testJvmNodesAreExcluded() {
+        StackTraceTreeNode tree = new JfrTreeBuilder("testMe()", true).buildFromJfr(jfr);
+
+        Assertions.assertEquals(List.of("void de.dagere.peass.MainTest.testMe()"), tree.getParentMethodNames());
+        Assertions.assertEquals(2634.0, tree.getInitialWeight());
+        TreeWalker.forEach(tree, node -> {
+            for (String exclusion : FrameExclusionFilter.JVM_NODES.getPatterns()) {
+                Assertions.assertFalse(node.getPayload().getMethodName().contains(exclusion), node.getPayload().getMethodName());
+            }
+        });
+    }
+
+    @Test
+    public void testUnknownTestcase() {
+        Assertions.assertNull(new JfrTreeBuilder("unknownTestcase()", false).buildFromJfr(jfr));
+    }
+
+    private static String dump(StackTraceTreeNode tree) {
+        return TreeFixtures.dump(tree, node -> " " + node.getInitialWeight());
+    }
+}
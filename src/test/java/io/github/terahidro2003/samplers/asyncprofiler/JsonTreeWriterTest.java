@@ -0,0 +1,111 @@
+package io.github.terahidro2003.samplers.asyncprofiler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.github.terahidro2003.cct.SamplerResultsProcessor;
+import io.github.terahidro2003.cct.TreeUtils;
+import io.github.terahidro2003.cct.io.StackTraceTreeJsonWriter;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.cct.result.StackTraceTreePayload;
+import io.github.terahidro2003.config.Constants;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+public class JsonTreeWriterTest {
+
+    static StackTraceTreeNode tree;
+
+    @BeforeAll
+    public static void buildTree() {
+        tree = new SamplerResultsProcessor().getTreeFromJfr(List.of(new File("src/test/resources/1111_1.jfr")));
+        TreeUtils.addWeightsAsMeasurements(tree, "1111");
+        TreeUtils.addWeightsAsVmMeasurements(tree, "2222", 3);
+    }
+
+    @Test
+    public void testOutputEqualsJackson(@TempDir File tempDir) throws IOException {
+        File file = new File(tempDir, "tree.json");
+        TreeUtils.writeCCTtoFile(tree, file);
+
+        Assertions.assertArrayEquals(Constants.OBJECT_MAPPER.writeValueAsBytes(tree), Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testSubtreeKeepsPathOfAncestors() throws IOException {
+        StackTraceTreeNode subtree = TreeUtils.search("testMe()", tree);
+        Assertions.assertNotNull(subtree.getParent());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new StackTraceTreeJsonWriter().write(subtree, out);
+
+        Assertions.assertArrayEquals(Constants.OBJECT_MAPPER.writeValueAsBytes(subtree), out.toByteArray());
+    }
+
+    @Test
+    public void testGzipWithoutPath(@TempDir File tempDir) throws IOException {
+        File file = new File(tempDir, "tree.json.gz");
+        TreeUtils.writeCCTtoFile(tree, file, false, true);
+
+        JsonNode written;
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            written = Constants.OBJECT_MAPPER.readTree(in);
+        }
+        JsonNode expected = Constants.OBJECT_MAPPER.valueToTree(tree);
+        removePaths(expected);
+
+        Assertions.assertEquals(expected, written);
+    }
+
+    @Test
+    public void testDeepTree() throws IOException {
+        StackTraceTreeNode root = new StackTraceTreeNode(null, new ArrayList<>(), new StackTraceTreePayload("method0()"));
+        StackTraceTreeNode current = root;
+        for (int i = 1; i < 20000; i++) {
+            StackTraceTreeNode child = new StackTraceTreeNode(current, new ArrayList<>(), new StackTraceTreePayload("method" + i + "()"));
+            current.getChildren().add(child);
+            current = child;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new StackTraceTreeJsonWriter(false, false).write(root, out);
+
+        Assertions.assertTrue(out.toString().endsWith("\"initialWeight\":null}"));
+    }
+
+    @Test
+    public void testNullChildren(@TempDir File tempDir) throws IOException {
+        StackTraceTreeNode root = new StackTraceTreeNode(null, new ArrayList<>(), new StackTraceTreePayload("root"));
+        StackTraceTreeNode leaf = new StackTraceTreeNode(root, null, new StackTraceTreePayload("leaf()"));
+        root.getChildren().add(leaf);
+        root.getChildren().add(null);
+        leaf.addMeasurement("commit", 1.0);
+
+        File file = new File(tempDir, "tree.json");
+        TreeUtils.writeCCTtoFile(root, file);
+        Assertions.assertArrayEquals(Constants.OBJECT_MAPPER.writeValueAsBytes(root), Files.readAllBytes(file.toPath()));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new StackTraceTreeJsonWriter().write(leaf, out);
+        Assertions.assertArrayEquals(Constants.OBJECT_MAPPER.writeValueAsBytes(leaf), out.toByteArray());
+    }
+
+    private static void removePaths(JsonNode node) {
+        ((ObjectNode) node).remove("parentMethodNames");
+        for (Iterator<JsonNode> children = node.get("children").elements(); children.hasNext(); ) {
+            removePaths(children.next());
+        }
+    }
+}
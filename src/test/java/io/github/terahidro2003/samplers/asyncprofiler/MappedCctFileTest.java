@@ -0,0 +1,84 @@
+package io.github.terahidro2003.samplers.asyncprofiler;
+
+import io.github.terahidro2003.cct.SamplerResultsProcessor;
+import io.github.terahidro2003.cct.TreeUtils;
+import io.github.terahidro2003.cct.io.LazyStackTraceTreeNode;
+import io.github.terahidro2003.cct.io.MappedCctFile;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.config.Constants;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+public class MappedCctFileTest {
+
+    final File resourcesDir = new File("src/test/resources");
+
+    @Test
+    public void testLazyTreeEqualsEagerTree(@TempDir File tempDir) throws IOException {
+        File binary = writeRecordedTree(tempDir);
+        StackTraceTreeNode eager = TreeUtils.readCCTfromBinaryFile(binary);
+
+        try (MappedCctFile file = MappedCctFile.open(binary)) {
+            LazyStackTraceTreeNode root = file.getRoot();
+            Assertions.assertFalse(root.isChildrenLoaded());
+            Assertions.assertFalse(root.isMeasurementsLoaded());
+            Assertions.assertEquals(eager.getInitialWeight(), root.getInitialWeight());
+            Assertions.assertEquals(eager.getChildren().size(), root.getChildCount());
+
+            Assertions.assertEquals(Constants.OBJECT_MAPPER.writeValueAsString(eager), Constants.OBJECT_MAPPER.writeValueAsString(root));
+            Assertions.assertSame(root.getChildren().get(0), root.getChildren().get(0));
+        }
+    }
+
+    @Test
+    public void testFindLoadsOnlyThePath(@TempDir File tempDir) throws IOException {
+        File binary = writeRecordedTree(tempDir);
+        StackTraceTreeNode eager = TreeUtils.readCCTfromBinaryFile(binary);
+        StackTraceTreeNode expected = TreeUtils.filterMultiple("testMe()", eager, false).get(0);
+
+        try (MappedCctFile file = MappedCctFile.open(binary)) {
+            LazyStackTraceTreeNode found = file.find(expected.getCallPath());
+
+            Assertions.assertNotNull(found);
+            Assertions.assertEquals(expected.getParentMethodNames(), found.getParentMethodNames());
+            Assertions.assertFalse(file.getRoot().isChildrenLoaded());
+            Assertions.assertFalse(found.isMeasurementsLoaded());
+            Assertions.assertEquals(expected.getMeasurements(), found.getMeasurements());
+            Assertions.assertEquals(Constants.OBJECT_MAPPER.writeValueAsString(expected), Constants.OBJECT_MAPPER.writeValueAsString(found));
+
+            Assertions.assertNull(file.find(List.of("unknown()")));
+            Assertions.assertNull(file.find(List.of(eager.getPayload().getMethodName(), "unknown()")));
+        }
+    }
+
+    @Test
+    public void testFindAll(@TempDir File tempDir) throws IOException {
+        File binary = writeRecordedTree(tempDir);
+        StackTraceTreeNode eager = TreeUtils.readCCTfromBinaryFile(binary);
+        List<StackTraceTreeNode> expected = TreeUtils.filterMultiple("testMe()", eager, false);
+
+        try (MappedCctFile file = MappedCctFile.open(binary)) {
+            List<StackTraceTreeNode> found = file.findAll("testMe()");
+
+            Assertions.assertEquals(expected.size(), found.size());
+            for (StackTraceTreeNode node : found) {
+                Assertions.assertTrue(node.getPayload().getMethodName().contains("testMe()"));
+                Assertions.assertTrue(expected.stream().anyMatch(e -> e.getParentMethodNames().equals(node.getParentMethodNames())));
+            }
+        }
+    }
+
+    private File writeRecordedTree(File tempDir) {
+        StackTraceTreeNode tree = new SamplerResultsProcessor().getTreeFromJfr(List.of(new File(resourcesDir, "1111_1.jfr")));
+        TreeUtils.addWeightsAsMeasurements(tree, "1111");
+        TreeUtils.addWeightsAsVmMeasurements(tree, "2222", 3);
+        File binary = new File(tempDir, "tree.cct");
+        TreeUtils.writeCCTtoBinaryFile(tree, binary);
+        return binary;
+    }
+}
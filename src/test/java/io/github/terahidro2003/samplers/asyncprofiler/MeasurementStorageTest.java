@@ -0,0 +1,102 @@
+package io.github.terahidro2003.samplers.asyncprofiler;
+
+import io.github.terahidro2003.cct.result.DoubleList;
+import io.github.terahidro2003.cct.result.OnlineStatistics;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.cct.result.StackTraceTreePayload;
+import io.github.terahidro2003.cct.result.VmMeasurement;
+import io.github.terahidro2003.config.Constants;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+
+public class MeasurementStorageTest {
+
+    @Test
+    public void testDoubleListBehavesLikeList() {
+        DoubleList list = new DoubleList();
+        for (int i = 0; i < 100; i++) {
+            list.addDouble(i);
+        }
+        list.add(0, -1.0);
+        list.remove(1);
+
+        Assertions.assertEquals(100, list.size());
+        Assertions.assertEquals(-1.0, list.get(0));
+        Assertions.assertEquals(99.0, list.getDouble(99));
+
+        List<Double> boxed = new ArrayList<>(list);
+        Assertions.assertEquals(boxed, list);
+        Assertions.assertEquals(boxed.hashCode(), list.hashCode());
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> list.get(100));
+    }
+
+    @Test
+    public void testIteratorsFailFast() {
+        DoubleList list = new DoubleList();
+        list.addDouble(1.0);
+        list.addDouble(2.0);
+
+        Assertions.assertThrows(ConcurrentModificationException.class, () -> {
+            for (Double value : list) {
+                list.add(value);
+            }
+        });
+        Assertions.assertThrows(ConcurrentModificationException.class, () -> {
+            for (Double value : list) {
+                list.addAll(List.of(value));
+            }
+        });
+    }
+
+    @Test
+    public void testMeasurementMapsAreLive() {
+        StackTraceTreeNode node = new StackTraceTreeNode(null, new ArrayList<>(), new StackTraceTreePayload("a()"));
+        node.addMeasurement("commit", 1.0);
+        node.getMeasurements().put("other", new ArrayList<>(List.of(2.0)));
+        Assertions.assertEquals(List.of(2.0), node.getMeasurements().get("other"));
+
+        StackTraceTreeNode empty = new StackTraceTreeNode(null, new ArrayList<>(), new StackTraceTreePayload("b()"));
+        empty.getMeasurements().put("commit", new ArrayList<>(List.of(1.0)));
+        empty.getVmMeasurements().put("commit", new ArrayList<>(List.of(new VmMeasurement(0))));
+        empty.getStatistics().put("commit", OnlineStatistics.of(List.of(1.0)));
+        Assertions.assertEquals(List.of(1.0), empty.getMeasurements().get("commit"));
+        Assertions.assertEquals(1, empty.getVmMeasurements().get("commit").size());
+        Assertions.assertEquals(1, empty.getStatistics().get("commit").getCount());
+    }
+
+    @Test
+    public void testCopiesDoNotShareValues() {
+        DoubleList values = new DoubleList();
+        values.addDouble(1.0);
+        VmMeasurement first = new VmMeasurement(values, 0);
+        VmMeasurement second = new VmMeasurement(first.getMeasurements(), 1);
+
+        first.addMeasurement(2.0);
+        values.addDouble(3.0);
+        Assertions.assertEquals(List.of(1.0, 2.0), first.getMeasurements());
+        Assertions.assertEquals(List.of(1.0), second.getMeasurements());
+    }
+
+    @Test
+    public void testJsonShapeIsUnchanged() throws Exception {
+        StackTraceTreeNode node = new StackTraceTreeNode(null, new ArrayList<>(), new StackTraceTreePayload("a()"));
+        node.addMeasurement("commit", 1.0);
+        node.addMeasurement("commit", 2.5);
+        VmMeasurement vmMeasurement = new VmMeasurement(3);
+        vmMeasurement.addMeasurement(4.0);
+        node.addMeasurement("other", vmMeasurement);
+
+        String json = Constants.OBJECT_MAPPER.writeValueAsString(node);
+
+        Assertions.assertTrue(json.contains("\"measurements\":{\"commit\":[1.0,2.5]}"), json);
+        Assertions.assertTrue(json.contains("\"vmMeasurements\":{\"other\":[{\"measurements\":[4.0],\"vm\":3}]}"), json);
+
+        StackTraceTreeNode empty = new StackTraceTreeNode(null, new ArrayList<>(), new StackTraceTreePayload("b()"));
+        String emptyJson = Constants.OBJECT_MAPPER.writeValueAsString(empty);
+        Assertions.assertTrue(emptyJson.contains("\"measurements\":{},\"vmMeasurements\":{}"), emptyJson);
+    }
+}
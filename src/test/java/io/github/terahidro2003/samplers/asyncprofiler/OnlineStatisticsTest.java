@@ -0,0 +1,157 @@
+package io.github.terahidro2003.samplers.asyncprofiler;
+
+import io.github.terahidro2003.cct.TreeUtils;
+import io.github.terahidro2003.cct.builder.IterativeContextTreeBuilder;
+import io.github.terahidro2003.cct.io.BinaryCctReader;
+import io.github.terahidro2003.cct.io.BinaryCctWriter;
+import io.github.terahidro2003.cct.io.MappedCctFile;
+import io.github.terahidro2003.cct.io.StackTraceTreeJsonWriter;
+import io.github.terahidro2003.cct.result.OnlineStatistics;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.cct.result.VmMeasurement;
+import io.github.terahidro2003.config.Constants;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class OnlineStatisticsTest {
+
+    final String testcase = "testMe()";
+    final String commit = "55bbfafd67ee1f7dc721ea945714a324708787c6";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testStatisticsEqualDirectComputation() {
+        List<Double> values = List.of(4.0, 7.0, 13.0, 16.0, 1e9 + 4, 1e9 + 7);
+        OnlineStatistics statistics = OnlineStatistics.of(values);
+
+        double mean = values.stream().mapToDouble(Double::doubleValue).sum() / values.size();
+        double squares = values.stream().mapToDouble(value -> (value - mean) * (value - mean)).sum();
+        Assertions.assertEquals(6, statistics.getCount());
+        Assertions.assertEquals(mean, statistics.getMean(), 1e-6);
+        Assertions.assertEquals(squares / (values.size() - 1), statistics.getVariance(), 1e-6 * squares);
+        Assertions.assertEquals(4.0, statistics.getMin());
+        Assertions.assertEquals(1e9 + 7, statistics.getMax());
+
+        OnlineStatistics merged = OnlineStatistics.of(values.subList(0, 2));
+        merged.merge(new OnlineStatistics());
+        merged.merge(OnlineStatistics.of(values.subList(2, 5)));
+        merged.merge(OnlineStatistics.of(values.subList(5, 6)));
+        Assertions.assertEquals(statistics.getCount(), merged.getCount());
+        Assertions.assertEquals(statistics.getMean(), merged.getMean(), 1e-6);
+        Assertions.assertEquals(statistics.getVariance(), merged.getVariance(), 1e-6 * squares);
+        Assertions.assertEquals(statistics.getMin(), merged.getMin());
+        Assertions.assertEquals(statistics.getMax(), merged.getMax());
+
+        OnlineStatistics empty = new OnlineStatistics();
+        Assertions.assertTrue(Double.isNaN(empty.getMean()));
+        Assertions.assertTrue(Double.isNaN(OnlineStatistics.of(List.of(1.0)).getVariance()));
+    }
+
+    @Test
+    public void testMergingVmMeasurementWithoutValues() {
+        VmMeasurement retained = new VmMeasurement(List.of(1.0, 2.0), 0);
+        VmMeasurement withoutValues = VmMeasurement.withoutValues(0);
+        withoutValues.addMeasurement(6.0);
+
+        retained.merge(withoutValues);
+        Assertions.assertFalse(retained.isRetainingValues());
+        Assertions.assertTrue(retained.getMeasurements().isEmpty());
+        Assertions.assertEquals(3, retained.getStatistics().getCount());
+        Assertions.assertEquals(3.0, retained.getStatistics().getMean(), 1e-12);
+        Assertions.assertEquals(6.0, retained.getStatistics().getMax());
+    }
+
+    @Test
+    public void testIterativeTreeWithoutValues() throws IOException {
+        List<File> jfrs = TreeFixtures.copyIterativeSamples(tempDir);
+        StackTraceTreeNode retained = new IterativeContextTreeBuilder().buildTree(jfrs, commit, testcase, false, false, 0);
+        StackTraceTreeNode statisticsOnly = new IterativeContextTreeBuilder(false).buildTree(jfrs, commit, testcase, false, false, 0);
+
+        Assertions.assertEquals(dump(retained, true), dump(statisticsOnly, false));
+        for (VmMeasurement vmMeasurement : statisticsOnly.getVmMeasurements().get(commit)) {
+            Assertions.assertTrue(vmMeasurement.getMeasurements().isEmpty());
+            Assertions.assertNotNull(vmMeasurement.getStatistics());
+        }
+    }
+
+    @Test
+    public void testSerializationOfStatistics() throws IOException {
+        StackTraceTreeNode tree = new IterativeContextTreeBuilder(false).buildTree(TreeFixtures.copyIterativeSamples(tempDir), commit, testcase, false, false, 0);
+        TreeUtils.addWeightsAsMeasurements(tree, "total", false);
+        String expected = dump(tree, false);
+
+        File file = tempDir.resolve("tree.cct").toFile();
+        BinaryCctWriter.write(tree, file);
+        Assertions.assertEquals(expected, dump(BinaryCctReader.read(file), false));
+        try (MappedCctFile mapped = MappedCctFile.open(file)) {
+            Assertions.assertEquals(expected, dump(mapped.getRoot(), false));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new StackTraceTreeJsonWriter().write(tree, out);
+        Assertions.assertArrayEquals(Constants.OBJECT_MAPPER.writeValueAsBytes(tree), out.toByteArray());
+        Assertions.assertTrue(out.toString().contains("\"statistics\":{\"total\":{\"count\":1,"));
+    }
+
+    @Test
+    public void testStatisticsReadFromJsonCanBeMerged() throws IOException {
+        OnlineStatistics first = OnlineStatistics.of(List.of(3.0, 5.0, 10.0));
+        OnlineStatistics second = OnlineStatistics.of(List.of(4.0, 8.0));
+
+        String json = Constants.OBJECT_MAPPER.writeValueAsString(first);
+        Assertions.assertTrue(json.contains("\"m2\":"));
+        OnlineStatistics read = Constants.OBJECT_MAPPER.readValue(json, OnlineStatistics.class);
+        Assertions.assertEquals(json, Constants.OBJECT_MAPPER.writeValueAsString(read));
+
+        read.merge(second);
+        OnlineStatistics all = OnlineStatistics.of(List.of(3.0, 5.0, 10.0, 4.0, 8.0));
+        Assertions.assertEquals(all.getCount(), read.getCount());
+        Assertions.assertEquals(all.getMean(), read.getMean(), 1e-9);
+        Assertions.assertEquals(all.getVariance(), read.getVariance(), 1e-9);
+        Assertions.assertEquals(all.getMin(), read.getMin());
+        Assertions.assertEquals(all.getMax(), read.getMax());
+
+        OnlineStatistics empty = Constants.OBJECT_MAPPER.readValue(
+                Constants.OBJECT_MAPPER.writeValueAsString(new OnlineStatistics()), OnlineStatistics.class);
+        empty.add(2.0);
+        Assertions.assertEquals(2.0, empty.getMean());
+    }
+    /**
+     * Dumps count, mean, minimum and maximum of every node; the exact statistics of retained values are computed
+     * from them, so both variants agree up to rounding of the mean.
+     */
+    private static String dump(StackTraceTreeNode tree, boolean computeStatistics) {
+        return TreeFixtures.dump(tree, node -> statistics(node, computeStatistics));
+    }
+
+    private static String statistics(StackTraceTreeNode node, boolean computeStatistics) {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, OnlineStatistics> entry : new TreeMap<>(node.getStatistics()).entrySet()) {
+            builder.append(' ').append(entry.getKey()).append('=').append(format(entry.getValue()));
+        }
+        for (Map.Entry<String, List<VmMeasurement>> entry : new TreeMap<>(node.getVmMeasurements()).entrySet()) {
+            builder.append(' ').append(entry.getKey());
+            for (VmMeasurement vmMeasurement : entry.getValue()) {
+                OnlineStatistics statistics = computeStatistics ? vmMeasurement.computeStatistics() : vmMeasurement.getStatistics();
+                builder.append(' ').append(vmMeasurement.getVm()).append('=').append(format(statistics));
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String format(OnlineStatistics statistics) {
+        return String.format("%d/%.6f/%.6f/%s/%s", statistics.getCount(), statistics.getMean(), statistics.getVariance(),
+                statistics.getMin(), statistics.getMax());
+    }
+}
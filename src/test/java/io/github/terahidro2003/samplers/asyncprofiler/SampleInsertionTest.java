@@ -0,0 +1,90 @@
+package io.github.terahidro2003.samplers.asyncprofiler;
+
+import io.github.terahidro2003.cct.TreeUtils;
+import io.github.terahidro2003.cct.builder.CallTreeInserter;
+import io.github.terahidro2003.cct.builder.StackTraceDataTreeBuilder;
+import io.github.terahidro2003.cct.result.CallPath;
+import io.github.terahidro2003.cct.result.SignatureTable;
+import io.github.terahidro2003.cct.result.StackTraceData;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.cct.result.StackTraceTreePayload;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SampleInsertionTest {
+
+    @Test
+    public void testSharedPrefixesAreMerged() {
+        List<String> first = List.of("c()", "b()", "a()");
+        List<String> second = List.of("d()", "b()", "a()");
+        List<StackTraceData> samples = List.of(
+                new StackTraceData(first, 10L, 50.0, 1),
+                new StackTraceData(second, 10L, 50.0, 1));
+
+        StackTraceTreeNode root = new StackTraceDataTreeBuilder().build(samples);
+
+        Assertions.assertEquals(1, root.getChildren().size());
+        StackTraceTreeNode a = root.getChildren().get(0);
+        Assertions.assertEquals("a()", a.getPayload().getMethodName());
+        StackTraceTreeNode b = a.getChildren().get(0);
+        Assertions.assertEquals(2, b.getChildren().size());
+        Assertions.assertEquals(List.of("root", "a()", "b()", "c()"), b.getChildren().get(0).getParentMethodNames());
+
+        // the samples themselves are left untouched
+        Assertions.assertEquals(List.of("c()", "b()", "a()"), samples.get(0).getMethods());
+    }
+
+    @Test
+    public void testDeepStack() {
+        List<String> methods = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            methods.add("method" + i + "()");
+        }
+
+        StackTraceTreeNode root = new StackTraceDataTreeBuilder().build(List.of(new StackTraceData(methods, 1L, 100.0, 1)));
+
+        StackTraceTreeNode current = root;
+        int depth = 0;
+        while (!current.getChildren().isEmpty()) {
+            current = current.getChildren().get(0);
+            depth++;
+        }
+        Assertions.assertEquals(methods.size(), depth);
+        Assertions.assertEquals("method0()", current.getPayload().getMethodName());
+    }
+
+    @Test
+    public void testReplacedChildren() {
+        StackTraceTreeNode root = new StackTraceTreeNode(null, new ArrayList<>(), new StackTraceTreePayload("root"));
+        CallTreeInserter inserter = new CallTreeInserter(root);
+        int a = SignatureTable.intern("a()");
+        int b = SignatureTable.intern("b()");
+        StackTraceTreeNode oldB = inserter.insert(new int[] {a, b}, 2);
+        Assertions.assertEquals(List.of("root", "a()", "b()"), oldB.getParentMethodNames());
+
+        // b() is moved below the root, and the inserter indexes the new children
+        root.setChildren(new ArrayList<>(List.of(oldB)));
+        Assertions.assertSame(root, oldB.getParent());
+        Assertions.assertEquals(List.of("root", "b()"), oldB.getParentMethodNames());
+        Assertions.assertSame(oldB, inserter.insert(new int[] {b}, 1));
+        StackTraceTreeNode newA = inserter.insert(new int[] {a}, 1);
+        Assertions.assertEquals(List.of(oldB, newA), root.getChildren());
+    }
+
+    @Test
+    public void testRenamedPayload() {
+        StackTraceTreeNode root = new StackTraceTreeNode(null, new ArrayList<>(), new StackTraceTreePayload("root"));
+        CallTreeInserter inserter = new CallTreeInserter(root);
+        StackTraceTreeNode b = inserter.insert(new int[] {SignatureTable.intern("a()"), SignatureTable.intern("b()")}, 2);
+        Assertions.assertTrue(b.hasPath(CallPath.of(List.of("root", "a()", "b()"))));
+
+        // renaming a() changes the path of its descendants
+        b.getParent().getPayload().setMethodName("c()");
+        Assertions.assertTrue(b.hasPath(CallPath.of(List.of("root", "c()", "b()"))));
+        Assertions.assertSame(b, TreeUtils.search(CallPath.of(List.of("root", "c()", "b()")), root));
+        Assertions.assertNull(TreeUtils.search(CallPath.of(List.of("root", "a()", "b()")), root));
+    }
+}
@@ -0,0 +1,148 @@
+package io.github.terahidro2003.samplers.asyncprofiler;
+
+import io.github.terahidro2003.cct.TreeUtils;
+import io.github.terahidro2003.cct.builder.IterativeContextTreeBuilder;
+import io.github.terahidro2003.cct.builder.SpillingTreeMerger;
+import io.github.terahidro2003.cct.io.BinaryCctReader;
+import io.github.terahidro2003.cct.io.BinaryCctStreamWriter;
+import io.github.terahidro2003.cct.io.BinaryCctWriter;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.cct.result.StackTraceTreePayload;
+import io.github.terahidro2003.cct.result.VmMeasurement;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class SpillingTreeMergerTest {
+
+    final String testcase = "testMe()";
+    final String commit = "55bbfafd67ee1f7dc721ea945714a324708787c6";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testSpilledMergeEqualsInMemoryMerge() throws IOException {
+        List<File> jfrs = TreeFixtures.copyIterativeSamples(tempDir);
+        IterativeContextTreeBuilder builder = new IterativeContextTreeBuilder();
+        StackTraceTreeNode expected = builder.buildTree(jfrs, commit, testcase, false, false, 0);
+
+        try (SpillingTreeMerger merger = new SpillingTreeMerger(tempDir.resolve("runs").toFile(), 3)) {
+            builder.aggregateTrees(jfrs, commit, testcase, null, merger);
+            Assertions.assertEquals(3, merger.getRunCount());
+
+            StackTraceTreeNode merged = merger.mergeToTree();
+            Assertions.assertEquals(4, merger.getRunCount());
+            Assertions.assertEquals(dump(expected), dump(merged));
+
+            File output = tempDir.resolve("merged.cct").toFile();
+            merger.mergeToFile(output);
+            Assertions.assertEquals(dump(expected), dump(BinaryCctReader.read(output)));
+        }
+        try (var runs = Files.list(tempDir.resolve("runs"))) {
+            Assertions.assertEquals(0, runs.count());
+        }
+    }
+
+    @Test
+    public void testRootOfLastTreeIsKept() {
+        for (int maxTreesInMemory : new int[] {1, 10}) {
+            StackTraceTreeNode expected = TreeUtils.mergeTrees(differentRoots());
+            try (SpillingTreeMerger merger = new SpillingTreeMerger(tempDir.resolve("runs").toFile(), maxTreesInMemory)) {
+                differentRoots().forEach(merger::add);
+                Assertions.assertEquals(dump(expected), dump(merger.mergeToTree()));
+            }
+        }
+    }
+
+    @Test
+    public void testChildrenAreSortedWithoutSpilling() {
+        try (SpillingTreeMerger merger = new SpillingTreeMerger(tempDir.resolve("runs").toFile(), 10)) {
+            merger.add(TreeFixtures.tree(List.of(List.of("a()", "c()"), List.of("a()", "b()"))));
+            StackTraceTreeNode merged = merger.mergeToTree();
+            Assertions.assertEquals(0, merger.getRunCount());
+            Assertions.assertEquals(List.of("b()", "c()"), methodNames(merged.getChildren()));
+        }
+    }
+
+    @Test
+    public void testNodesWithoutSignature() {
+        try (SpillingTreeMerger merger = new SpillingTreeMerger(tempDir.resolve("runs").toFile(), 1)) {
+            for (int i = 0; i < 2; i++) {
+                StackTraceTreeNode tree = TreeFixtures.tree(List.of(List.of("a()", "b()")));
+                StackTraceTreeNode unknown = new StackTraceTreeNode(tree, new ArrayList<>(), new StackTraceTreePayload(null));
+                unknown.setInitialWeight(1.0);
+                tree.getChildren().add(unknown);
+                merger.add(tree);
+            }
+            StackTraceTreeNode merged = merger.mergeToTree();
+            Assertions.assertEquals(2, merger.getRunCount());
+            Assertions.assertEquals(Arrays.asList(null, "b()"), methodNames(merged.getChildren()));
+            Assertions.assertEquals(2.0, merged.getChildren().get(0).getInitialWeight());
+        }
+    }
+
+    @Test
+    public void testStreamWriterEqualsTreeWriter() throws IOException {
+        StackTraceTreeNode tree = new IterativeContextTreeBuilder().buildTree(TreeFixtures.copyIterativeSamples(tempDir), commit, testcase, false, false, 0);
+        File expected = tempDir.resolve("tree.cct").toFile();
+        BinaryCctWriter.write(tree, expected);
+
+        File streamed = tempDir.resolve("streamed.cct").toFile();
+        try (BinaryCctStreamWriter writer = new BinaryCctStreamWriter(streamed)) {
+            writePreOrder(tree, -1, writer);
+            Assertions.assertThrows(IllegalArgumentException.class, () -> writer.add(-1, tree));
+        }
+
+        Assertions.assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(streamed.toPath()));
+    }
+    private static void writePreOrder(StackTraceTreeNode node, int parentIndex, BinaryCctStreamWriter writer) throws IOException {
+        int index = writer.add(parentIndex, node);
+        for (StackTraceTreeNode child : node.getChildren()) {
+            writePreOrder(child, index, writer);
+        }
+    }
+
+    /**
+     * Trees with two roots, of which the root of the last tree is kept by the merge.
+     */
+    private static List<StackTraceTreeNode> differentRoots() {
+        return List.of(
+                TreeFixtures.tree(List.of(List.of("a()", "b()"), List.of("a()", "c()"))),
+                TreeFixtures.tree(List.of(List.of("x()", "y()"))),
+                TreeFixtures.tree(List.of(List.of("a()", "b()"))),
+                TreeFixtures.tree(List.of(List.of("x()", "z()"), List.of("x()", "y()"))));
+    }
+
+    private static List<String> methodNames(List<StackTraceTreeNode> nodes) {
+        List<String> names = new ArrayList<>();
+        nodes.forEach(node -> names.add(node.getPayload().getMethodName()));
+        return names;
+    }
+
+    private static String dump(StackTraceTreeNode tree) {
+        return TreeFixtures.dump(tree, SpillingTreeMergerTest::measurements);
+    }
+
+    private static String measurements(StackTraceTreeNode node) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(' ').append(node.getInitialWeight()).append(' ').append(new TreeMap<>(node.getMeasurements()));
+        for (Map.Entry<String, List<VmMeasurement>> entry : new TreeMap<>(node.getVmMeasurements()).entrySet()) {
+            builder.append(' ').append(entry.getKey());
+            for (VmMeasurement vmMeasurement : entry.getValue()) {
+                builder.append(' ').append(vmMeasurement.getVm()).append('=').append(vmMeasurement.getMeasurements());
+            }
+        }
+        return builder.toString();
+    }
+}
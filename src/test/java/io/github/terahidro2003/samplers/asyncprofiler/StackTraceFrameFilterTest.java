@@ -0,0 +1,45 @@
+package io.github.terahidro2003.samplers.asyncprofiler;
+
+import io.github.terahidro2003.cct.SamplerResultsProcessor;
+import io.github.terahidro2003.cct.TreeUtils;
+import io.github.terahidro2003.cct.jfr.StackTraceFrameFilter;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmc.common.item.IItemCollection;
+import org.openjdk.jmc.common.item.IItemIterable;
+import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
+import org.openjdk.jmc.flightrecorder.jdk.JdkFilters;
+
+import java.io.File;
+import java.util.List;
+
+public class StackTraceFrameFilterTest {
+
+    final File jfr = new File("src/test/resources/1111_1.jfr");
+
+    @Test
+    public void testOnlyTestcaseSamplesAreAggregated() {
+        StackTraceTreeNode tree = new SamplerResultsProcessor().getTreeFromJfr(List.of(jfr), "testMe()");
+
+        double samples = tree.getChildren().stream().mapToDouble(StackTraceTreeNode::getInitialWeight).sum();
+        Assertions.assertEquals(2634.0, samples);
+        StackTraceTreeNode testcaseTree = TreeUtils.mergeTrees(TreeUtils.filterMultiple("testMe()", tree, false));
+        Assertions.assertEquals(2634.0, testcaseTree.getInitialWeight());
+    }
+
+    @Test
+    public void testFilterByClass() throws Exception {
+        IItemCollection items = JfrLoaderToolkit.loadEvents(List.of(jfr));
+        StackTraceFrameFilter filter = StackTraceFrameFilter.declaredIn("de.dagere.peass.MainTest");
+
+        long matching = 0;
+        for (IItemIterable iterable : items.apply(JdkFilters.EXECUTION_SAMPLE).apply(filter)) {
+            matching += iterable.getItemCount();
+        }
+
+        // all testcase samples, and the few samples in other methods of the test class
+        Assertions.assertTrue(matching >= 2634, "Matching samples: " + matching);
+        Assertions.assertTrue(filter.getEvaluatedStackTraces() < matching);
+    }
+}
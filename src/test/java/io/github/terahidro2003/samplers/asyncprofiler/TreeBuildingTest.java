@@ -1,14 +1,25 @@
 package io.github.terahidro2003.samplers.asyncprofiler;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.terahidro2003.cct.FrameExclusionFilter;
+import io.github.terahidro2003.cct.SamplerResultsProcessor;
+import io.github.terahidro2003.cct.builder.IterationTreePipeline;
 import io.github.terahidro2003.cct.builder.IterativeContextTreeBuilder;
 import io.github.terahidro2003.cct.builder.VmContextTreeBuilder;
+import io.github.terahidro2003.cct.builder.VmTreeConsumer;
 import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.config.ConfigBuilder;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.*;
 
 import static io.github.terahidro2003.cct.builder.IterativeContextTreeBuilder.extractVmNumber;
@@ -75,12 +86,95 @@ public class TreeBuildingTest {
         assertTree(mergedTree, 20, "1111", false);
     }
 
+    @Test
+    @DisplayName("[VM] Producer/consumer mode")
+    public void testVmTreeConsumer() throws IOException {
+        String testcase = "testMe()";
+        List<File> jfrs = List.of(
+                new File(resourcesDir + "/1111_1.jfr"),
+                new File(resourcesDir + "/1111_2.jfr"),
+                new File(resourcesDir + "/1111_3.jfr")
+        );
+        VmContextTreeBuilder builder = new VmContextTreeBuilder();
+        StackTraceTreeNode expected = builder.buildTree(jfrs, "1111", 3, testcase, true);
+
+        StackTraceTreeNode consumedTree;
+        try (VmTreeConsumer consumer = builder.startProcessing("1111", 3, testcase, FrameExclusionFilter.JVM_NODES, 1)) {
+            Assertions.assertFalse(consumer.accept(new File(resourcesDir + "/A_2222.jfr")));
+            for (File jfr : jfrs) {
+                Assertions.assertTrue(consumer.accept(jfr));
+            }
+            Assertions.assertFalse(consumer.accept(new File(resourcesDir + "/1111_4.jfr")));
+            consumedTree = consumer.awaitTree();
+        }
+
+        assertTree(consumedTree, 3, "1111", false);
+        ObjectMapper objectMapper = new ObjectMapper();
+        Assertions.assertEquals(objectMapper.writeValueAsString(expected), objectMapper.writeValueAsString(consumedTree));
+    }
+
+    @Test
+    @DisplayName("[VM] Producer/consumer mode after a failed VM")
+    public void testVmTreeConsumerFailure() {
+        List<File> jfrs = List.of(
+                new File(resourcesDir + "/1111_1.jfr"),
+                new File(resourcesDir + "/1111_2.jfr"),
+                new File(resourcesDir + "/1111_3.jfr")
+        );
+        VmContextTreeBuilder builder = new VmContextTreeBuilder();
+        try (VmTreeConsumer consumer = builder.startProcessing("1111", 4, "testMe()", null, 1)) {
+            Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                Assertions.assertTrue(consumer.accept(new File(resourcesDir + "/missing_1111.jfr")));
+                Assertions.assertThrows(RuntimeException.class, () -> jfrs.forEach(consumer::accept));
+                Assertions.assertThrows(RuntimeException.class, consumer::awaitTree);
+            });
+        }
+    }
+
+    @Test
+    @DisplayName("[VM] Producer/consumer mode watching the results folder")
+    public void testVmTreeConsumerWatchingFolder(@TempDir Path resultsFolder) throws IOException {
+        String testcase = "testMe()";
+        VmContextTreeBuilder builder = new VmContextTreeBuilder();
+        StackTraceTreeNode consumedTree;
+        try (VmTreeConsumer consumer = builder.startProcessing("1111", 2, testcase, null, 2)) {
+            consumer.watch(resultsFolder.toFile(), Duration.ofMillis(50));
+            for (String jfr : List.of("1111_1.jfr", "1111_2.jfr")) {
+                Path partial = Files.copy(Path.of(resourcesDir + "/" + jfr), resultsFolder.resolve(jfr + ".part"));
+                Files.move(partial, resultsFolder.resolve(jfr), StandardCopyOption.ATOMIC_MOVE);
+            }
+            consumedTree = consumer.awaitTree();
+        }
+
+        assertTree(consumedTree, 2, "1111", false);
+    }
+
+    @Test
+    @DisplayName("[VM] Several testcases in one pass")
+    public void testVmTreesOfSeveralTestcases() throws IOException {
+        List<File> jfrs = List.of(
+                new File(resourcesDir + "/1111_1.jfr"),
+                new File(resourcesDir + "/1111_2.jfr")
+        );
+        VmContextTreeBuilder builder = new VmContextTreeBuilder();
+        StackTraceTreeNode testMe = builder.buildTree(jfrs, "1111", 2, "testMe()", true);
+        String nested = testMe.getChildren().get(0).getPayload().getMethodName();
+        StackTraceTreeNode nestedTree = builder.buildTree(jfrs, "1111", 2, nested, true);
+
+        Map<String, StackTraceTreeNode> trees = builder.buildTrees(jfrs, "1111", 2,
+                List.of("testMe()", nested, "unknownTestcase()"), FrameExclusionFilter.JVM_NODES);
+
+        Assertions.assertEquals(List.of("testMe()", nested), new ArrayList<>(trees.keySet()));
+        ObjectMapper objectMapper = new ObjectMapper();
+        Assertions.assertEquals(objectMapper.writeValueAsString(testMe), objectMapper.writeValueAsString(trees.get("testMe()")));
+        Assertions.assertEquals(objectMapper.writeValueAsString(nestedTree), objectMapper.writeValueAsString(trees.get(nested)));
+    }
+
     @Test
     @DisplayName("[Iterative] 2 VMs")
-    public void testIterativeTree() throws IOException {
+    public void testIterativeTree(@TempDir Path tempDir) throws IOException {
         String testcase = "testMe()";
-        File folder = new File(resourcesDir + "/iterativeSamples");
-        List<File> jfrs = Arrays.asList(Objects.requireNonNull(folder.listFiles()));
+        List<File> jfrs = TreeFixtures.copyIterativeSamples(tempDir, (dir, name) -> true);
 
         IterativeContextTreeBuilder builder = new IterativeContextTreeBuilder();
         StackTraceTreeNode mergedTree = builder.buildTree(jfrs, "55bbfafd67ee1f7dc721ea945714a324708787c6", testcase, false, false, 0);
@@ -93,6 +187,120 @@ public class TreeBuildingTest {
         // assert serialization results
     }
 
+    @Test
+    @DisplayName("[Iterative] 2 VMs in parallel")
+    public void testIterativeTreeInParallel(@TempDir Path tempDir) throws IOException {
+        String testcase = "testMe()";
+        String commit = "55bbfafd67ee1f7dc721ea945714a324708787c6";
+        List<File> jfrs = TreeFixtures.copyIterativeSamples(tempDir);
+
+        IterativeContextTreeBuilder builder = new IterativeContextTreeBuilder();
+        StackTraceTreeNode sequentialTree = builder.buildTree(jfrs, commit, testcase, false, false, 0);
+        StackTraceTreeNode parallelTree = builder.buildTree(jfrs, commit, testcase, false, true, 4);
+
+        assertTree(parallelTree, 2, commit, true);
+        ObjectMapper objectMapper = new ObjectMapper();
+        Assertions.assertEquals(objectMapper.writeValueAsString(sequentialTree), objectMapper.writeValueAsString(parallelTree));
+    }
+
+    @Test
+    @DisplayName("[Iterative] Several testcases in one pass")
+    public void testIterativeTreesOfSeveralTestcases(@TempDir Path tempDir) throws IOException {
+        String commit = "55bbfafd67ee1f7dc721ea945714a324708787c6";
+        List<File> jfrs = TreeFixtures.copyIterativeSamples(tempDir);
+
+        IterativeContextTreeBuilder builder = new IterativeContextTreeBuilder();
+        StackTraceTreeNode testMe = builder.buildTree(jfrs, commit, "testMe()", false, false, 0);
+        String nested = testMe.getChildren().get(0).getPayload().getMethodName();
+        StackTraceTreeNode nestedTree = builder.buildTree(jfrs, commit, nested, false, false, 0);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        for (boolean parallel : new boolean[] {false, true}) {
+            Map<String, StackTraceTreeNode> trees = builder.buildTrees(jfrs, commit,
+                    List.of(nested, "testMe()", "unknownTestcase()"), null, parallel, 4);
+
+            Assertions.assertEquals(List.of(nested, "testMe()"), new ArrayList<>(trees.keySet()));
+            assertTree(trees.get(nested), 2, commit, true);
+            Assertions.assertEquals(objectMapper.writeValueAsString(testMe), objectMapper.writeValueAsString(trees.get("testMe()")));
+            Assertions.assertEquals(objectMapper.writeValueAsString(nestedTree), objectMapper.writeValueAsString(trees.get(nested)));
+        }
+    }
+
+    @Test
+    @DisplayName("[Iterative] Background pipeline")
+    public void testIterationTreePipeline(@TempDir Path tempDir) throws IOException {
+        String testcase = "testMe()";
+        String commit = "55bbfafd67ee1f7dc721ea945714a324708787c6";
+        List<File> jfrs = TreeFixtures.copyIterativeSamples(tempDir, (dir, name) -> name.contains("_vm_0_") && name.endsWith(".jfr"));
+
+        StackTraceTreeNode expected = new IterativeContextTreeBuilder().buildTree(jfrs, commit, testcase, false, false, 0);
+        StackTraceTreeNode pipelineTree;
+        try (IterationTreePipeline pipeline = new IterationTreePipeline(testcase, commit, 0, null)) {
+            jfrs.stream().filter(jfr -> jfr.getName().contains(commit)).forEach(pipeline::submit);
+            Assertions.assertEquals(5, pipeline.getSubmittedIterations());
+            pipelineTree = pipeline.awaitTree();
+        }
+
+        assertTree(pipelineTree, 1, commit, true);
+        Assertions.assertEquals(5, pipelineTree.getVmMeasurements().get(commit).get(0).getMeasurements().size());
+        ObjectMapper objectMapper = new ObjectMapper();
+        Assertions.assertEquals(objectMapper.writeValueAsString(expected), objectMapper.writeValueAsString(pipelineTree));
+    }
+
+    @Test
+    @DisplayName("[Iterative] Background pipeline writes its tree next to the recordings")
+    public void testWritingIterationTreePipelineTree(@TempDir Path tempDir) throws IOException {
+        String testcase = "testMe()";
+        String commit = "55bbfafd67ee1f7dc721ea945714a324708787c6";
+        List<File> jfrs = TreeFixtures.copyIterativeSamples(tempDir,
+                (dir, name) -> name.contains("_vm_0_") && name.contains(commit) && name.endsWith(".jfr"));
+
+        File written;
+        StackTraceTreeNode pipelineTree;
+        try (IterationTreePipeline pipeline = new IterationTreePipeline(testcase, commit, 0, null)) {
+            Assertions.assertNull(pipeline.writeTree());
+            jfrs.forEach(pipeline::submit);
+            written = pipeline.writeTree();
+            pipelineTree = pipeline.awaitTree();
+        }
+
+        Assertions.assertEquals(tempDir.toFile(), written.getParentFile());
+        Assertions.assertTrue(written.getName().startsWith(testcase + "-" + commit + "-"));
+        ObjectMapper objectMapper = new ObjectMapper();
+        Assertions.assertEquals(objectMapper.readTree(objectMapper.writeValueAsString(pipelineTree)), objectMapper.readTree(written));
+    }
+
+    @Test
+    @DisplayName("[Iterative] Iteration files are renamed after the pipeline is done")
+    public void testRenamingAfterIterationTreePipeline(@TempDir Path tempDir) throws IOException {
+        String testcase = "testMe()";
+        String commit = "55bbfafd67ee1f7dc721ea945714a324708787c6";
+        Assertions.assertFalse(new ConfigBuilder().build().iterationTreesInBackground());
+
+        List<File> samples = TreeFixtures.copyIterativeSamples(tempDir,
+                (dir, name) -> name.contains("_vm_0_") && name.contains(commit) && name.endsWith(".jfr"));
+        StackTraceTreeNode expected = new IterativeContextTreeBuilder().buildTree(samples, commit, testcase, false, false, 0);
+
+        Path resultFolder = Files.createDirectory(tempDir.resolve("results"));
+        List<File> unprocessed = new ArrayList<>();
+        for (int i = 0; i < samples.size(); i++) {
+            Path jfr = resultFolder.resolve("unprocessed_sjsw_iterative_result_iteration_" + i + ".jfr");
+            unprocessed.add(Files.copy(samples.get(i).toPath(), jfr).toFile());
+        }
+
+        StackTraceTreeNode pipelineTree;
+        try (IterationTreePipeline pipeline = new IterationTreePipeline(testcase, commit, 0, null)) {
+            unprocessed.forEach(pipeline::submit);
+            pipelineTree = new SamplerResultsProcessor().processIterationMeasurementFiles(resultFolder.toFile(), 0, commit, pipeline);
+        }
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        Assertions.assertEquals(objectMapper.writeValueAsString(expected), objectMapper.writeValueAsString(pipelineTree));
+        for (File jfr : unprocessed) {
+            Assertions.assertFalse(jfr.exists());
+        }
+        Assertions.assertEquals(samples.size(), resultFolder.toFile().list((dir, name) -> name.startsWith("checked_sjsw_partial_vm_0_")).length);
+    }
     private void assertTree(StackTraceTreeNode mergedTree, int vms, String commit, boolean iterativeSampling) {
         Assertions.assertNotNull(mergedTree);
 
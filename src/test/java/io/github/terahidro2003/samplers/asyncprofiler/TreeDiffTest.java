@@ -0,0 +1,119 @@
+package io.github.terahidro2003.samplers.asyncprofiler;
+
+import io.github.terahidro2003.cct.SamplerResultsProcessor;
+import io.github.terahidro2003.cct.TreeWalker;
+import io.github.terahidro2003.cct.diff.DiffStatus;
+import io.github.terahidro2003.cct.diff.TreeDiff;
+import io.github.terahidro2003.cct.diff.TreeDiffNode;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+public class TreeDiffTest {
+
+    @Test
+    public void testStatusAndWeights() {
+        StackTraceTreeNode oldTree = TreeFixtures.tree(List.of(
+                List.of("a()", "b()", "c()"),
+                List.of("a()", "b()", "c()"),
+                List.of("a()", "d()")));
+        StackTraceTreeNode newTree = TreeFixtures.tree(List.of(
+                List.of("a()", "b()", "c()"),
+                List.of("a()", "b()", "e()")));
+
+        TreeDiffNode diff = TreeDiff.diff(oldTree, newTree);
+
+        Assertions.assertEquals(DiffStatus.COMMON, diff.getStatus());
+        Assertions.assertEquals(3.0, diff.getOldWeight());
+        Assertions.assertEquals(2.0, diff.getNewWeight());
+        Assertions.assertEquals(List.of("b()", "d()"), methodNames(diff.getChildren()));
+
+        TreeDiffNode b = diff.getChildren().get(0);
+        Assertions.assertEquals(DiffStatus.COMMON, b.getStatus());
+        Assertions.assertEquals(List.of("c()", "e()"), methodNames(b.getChildren()));
+        Assertions.assertEquals(DiffStatus.COMMON, b.getChildren().get(0).getStatus());
+        Assertions.assertEquals(-1.0, b.getChildren().get(0).getWeightDelta());
+        Assertions.assertEquals(DiffStatus.ADDED, b.getChildren().get(1).getStatus());
+        Assertions.assertNull(b.getChildren().get(1).getOldWeight());
+        Assertions.assertEquals(1.0, b.getChildren().get(1).getNewWeight());
+
+        TreeDiffNode d = diff.getChildren().get(1);
+        Assertions.assertEquals(DiffStatus.REMOVED, d.getStatus());
+        Assertions.assertNull(d.getNewNode());
+        Assertions.assertEquals(-1.0, d.getWeightDelta());
+    }
+
+    @Test
+    public void testDiffOfTwoCommits() {
+        StackTraceTreeNode oldTree = new SamplerResultsProcessor().getTreeFromJfr(List.of(new File("src/test/resources/1111_1.jfr")));
+        StackTraceTreeNode newTree = new SamplerResultsProcessor().getTreeFromJfr(List.of(new File("src/test/resources/1111_2.jfr")));
+
+        TreeDiffNode sequential = TreeDiff.diff(oldTree, newTree, new ForkJoinPool(1));
+        TreeDiffNode parallel = TreeDiff.diff(oldTree, newTree, new ForkJoinPool(4));
+        Assertions.assertEquals(dump(sequential), dump(parallel));
+
+        Set<List<String>> oldPaths = paths(oldTree);
+        Set<List<String>> newPaths = paths(newTree);
+        Set<List<String>> allPaths = new HashSet<>(oldPaths);
+        allPaths.addAll(newPaths);
+
+        int nodes = 0;
+        Deque<TreeDiffNode> stack = new ArrayDeque<>();
+        stack.push(parallel);
+        while (!stack.isEmpty()) {
+            TreeDiffNode node = stack.pop();
+            nodes++;
+            StackTraceTreeNode side = node.getOldNode() != null ? node.getOldNode() : node.getNewNode();
+            List<String> path = side.getParentMethodNames();
+            Assertions.assertEquals(oldPaths.contains(path), node.getOldNode() != null, path.toString());
+            Assertions.assertEquals(newPaths.contains(path), node.getNewNode() != null, path.toString());
+            node.getChildren().forEach(stack::push);
+        }
+        Assertions.assertEquals(allPaths.size(), nodes);
+    }
+
+    @Test
+    public void testDeepTrees() {
+        List<String> methods = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            methods.add("method" + i + "()");
+        }
+
+        TreeDiffNode current = TreeDiff.diff(TreeFixtures.tree(List.of(methods)), TreeFixtures.tree(List.of(methods.subList(0, 10000))));
+
+        int depth = 0;
+        while (!current.getChildren().isEmpty()) {
+            Assertions.assertEquals(1, current.getChildren().size());
+            Assertions.assertEquals(depth < 10000 ? DiffStatus.COMMON : DiffStatus.REMOVED, current.getStatus());
+            current = current.getChildren().get(0);
+            depth++;
+        }
+        Assertions.assertEquals(methods.size() - 1, depth);
+        Assertions.assertEquals(DiffStatus.REMOVED, current.getStatus());
+    }
+
+    private static List<String> methodNames(List<TreeDiffNode> nodes) {
+        List<String> names = new ArrayList<>();
+        nodes.forEach(node -> names.add(node.getMethodName()));
+        return names;
+    }
+
+    private static Set<List<String>> paths(StackTraceTreeNode tree) {
+        Set<List<String>> paths = new HashSet<>();
+        TreeWalker.forEach(tree, node -> paths.add(node.getParentMethodNames()));
+        return paths;
+    }
+
+    private static String dump(TreeDiffNode tree) {
+        return TreeFixtures.dump(tree, TreeDiffNode::getChildren, null, TreeDiffNode::toString);
+    }
+}
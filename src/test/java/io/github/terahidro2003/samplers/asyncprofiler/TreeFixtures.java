@@ -0,0 +1,108 @@
+package io.github.terahidro2003.samplers.asyncprofiler;
+
+import io.github.terahidro2003.cct.builder.CallTreeInserter;
+import io.github.terahidro2003.cct.result.SignatureTable;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.cct.result.StackTraceTreePayload;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Trees, recordings and tree dumps shared by the tree tests.
+ */
+final class TreeFixtures {
+
+    private static final File ITERATIVE_SAMPLES = new File("src/test/resources/iterativeSamples");
+
+    private static final Comparator<StackTraceTreeNode> BY_METHOD_NAME =
+            Comparator.comparing(node -> node.getPayload().getMethodName());
+
+    private TreeFixtures() {
+    }
+
+    /**
+     * Copies the iterative samples accepted by the filter to the folder, sorted by name. The iterative builders
+     * write the merged trees next to the recordings, so tests read the copies instead of the resources.
+     */
+    static List<File> copyIterativeSamples(Path folder, FilenameFilter filter) throws IOException {
+        Files.createDirectories(folder);
+        List<File> copies = new ArrayList<>();
+        for (File file : Objects.requireNonNull(ITERATIVE_SAMPLES.listFiles(filter))) {
+            copies.add(Files.copy(file.toPath(), folder.resolve(file.getName()), StandardCopyOption.REPLACE_EXISTING).toFile());
+        }
+        copies.sort(Comparator.comparing(File::getName));
+        return copies;
+    }
+
+    /**
+     * Copies all iterative samples to the folder, sorted by name.
+     */
+    static List<File> copyIterativeSamples(Path folder) throws IOException {
+        return copyIterativeSamples(folder, (dir, name) -> name.endsWith(".jfr"));
+    }
+
+    /**
+     * Tree of the given call paths, which all start with the root method. Every path is one sample of weight 1.
+     */
+    static StackTraceTreeNode tree(List<List<String>> paths) {
+        StackTraceTreeNode root = new StackTraceTreeNode(null, new ArrayList<>(),
+                new StackTraceTreePayload(paths.get(0).get(0)));
+        root.setInitialWeight(0.0);
+        CallTreeInserter inserter = new CallTreeInserter(root);
+        for (List<String> path : paths) {
+            root.setInitialWeight(root.getInitialWeight() + 1);
+            int[] ids = path.stream().skip(1).mapToInt(SignatureTable::intern).toArray();
+            inserter.insert(ids, ids.length, 1.0);
+        }
+        return root;
+    }
+
+    /**
+     * One indented line of method name and the given content per node, with children sorted by method name, so trees
+     * that only differ in the order of their children have the same dump.
+     */
+    static String dump(StackTraceTreeNode tree, Function<StackTraceTreeNode, String> content) {
+        return dump(tree, StackTraceTreeNode::getChildren, BY_METHOD_NAME,
+                node -> node.getPayload().getMethodName() + content.apply(node));
+    }
+
+    /**
+     * One indented line per node of any tree, in pre-order.
+     *
+     * @param order order of the children, or null to keep their order
+     */
+    static <N> String dump(N tree, Function<N, List<N>> children, Comparator<? super N> order, Function<N, String> line) {
+        StringBuilder builder = new StringBuilder();
+        Deque<N> nodes = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        nodes.push(tree);
+        depths.push(0);
+        while (!nodes.isEmpty()) {
+            N node = nodes.pop();
+            int depth = depths.pop();
+            builder.append(" ".repeat(depth)).append(line.apply(node)).append('\n');
+
+            List<N> ordered = new ArrayList<>(children.apply(node));
+            if (order != null) {
+                ordered.sort(order);
+            }
+            for (int i = ordered.size() - 1; i >= 0; i--) {
+                nodes.push(ordered.get(i));
+                depths.push(depth + 1);
+            }
+        }
+        return builder.toString();
+    }
+}
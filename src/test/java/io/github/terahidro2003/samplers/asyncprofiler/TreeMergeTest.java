@@ -0,0 +1,100 @@
+package io.github.terahidro2003.samplers.asyncprofiler;
+
+import io.github.terahidro2003.cct.TreeUtils;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.cct.result.VmMeasurement;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TreeMergeTest {
+
+    @Test
+    public void testDeepMergeSumsWeights() {
+        StackTraceTreeNode first = TreeFixtures.tree(List.of(
+                List.of("a()", "b()", "c()"),
+                List.of("a()", "b()", "c()"),
+                List.of("a()", "d()")));
+        StackTraceTreeNode second = TreeFixtures.tree(List.of(
+                List.of("a()", "b()", "c()"),
+                List.of("a()", "b()", "e()")));
+
+        StackTraceTreeNode merged = TreeUtils.mergeTrees(List.of(first, second));
+
+        Assertions.assertSame(first, merged);
+        Assertions.assertEquals(5.0, merged.getInitialWeight());
+        StackTraceTreeNode b = child(merged, "b()");
+        Assertions.assertEquals(4.0, b.getInitialWeight());
+        Assertions.assertEquals(3.0, child(b, "c()").getInitialWeight());
+        Assertions.assertEquals(1.0, child(b, "e()").getInitialWeight());
+        Assertions.assertEquals(1.0, child(merged, "d()").getInitialWeight());
+        Assertions.assertEquals(List.of("a()", "b()", "e()"), child(b, "e()").getParentMethodNames());
+    }
+
+    @Test
+    public void testNothingToMerge() {
+        Assertions.assertNull(TreeUtils.mergeTrees(List.of()));
+        Assertions.assertNull(TreeUtils.mergeTrees(Arrays.asList(null, null)));
+    }
+
+    @Test
+    public void testMeasurementsAreCarriedAlong() {
+        List<StackTraceTreeNode> vmTrees = new ArrayList<>();
+        for (int vm = 0; vm < 2; vm++) {
+            for (int iteration = 0; iteration < 2; iteration++) {
+                StackTraceTreeNode vmTree = TreeFixtures.tree(List.of(List.of("a()", "b()")));
+                TreeUtils.addWeightsAsVmMeasurements(vmTree, "commit", vm);
+                vmTrees.add(vmTree);
+            }
+        }
+
+        StackTraceTreeNode merged = TreeUtils.mergeTrees(vmTrees);
+
+        List<VmMeasurement> vmMeasurements = child(merged, "b()").getVmMeasurements().get("commit");
+        Assertions.assertEquals(2, vmMeasurements.size());
+        Assertions.assertEquals(0, vmMeasurements.get(0).getVm());
+        Assertions.assertEquals(List.of(1.0, 1.0), vmMeasurements.get(0).getMeasurements());
+        Assertions.assertEquals(1, vmMeasurements.get(1).getVm());
+        Assertions.assertEquals(List.of(1.0, 1.0), vmMeasurements.get(1).getMeasurements());
+    }
+
+    @Test
+    public void testNestedTreesAreNotCountedTwice() {
+        StackTraceTreeNode root = TreeFixtures.tree(List.of(
+                List.of("a()", "x()", "a()", "b()"),
+                List.of("a()", "b()")));
+        StackTraceTreeNode nested = child(child(root, "x()"), "a()");
+
+        StackTraceTreeNode merged = TreeUtils.mergeTrees(List.of(root, nested));
+
+        Assertions.assertEquals(2.0, merged.getInitialWeight());
+        Assertions.assertEquals(1.0, child(merged, "b()").getInitialWeight());
+    }
+
+    @Test
+    public void testDeepTrees() {
+        List<String> methods = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            methods.add("method" + i + "()");
+        }
+
+        StackTraceTreeNode merged = TreeUtils.mergeTrees(List.of(TreeFixtures.tree(List.of(methods)), TreeFixtures.tree(List.of(methods))));
+
+        StackTraceTreeNode current = merged;
+        while (!current.getChildren().isEmpty()) {
+            Assertions.assertEquals(1, current.getChildren().size());
+            current = current.getChildren().get(0);
+        }
+        Assertions.assertEquals(2.0, current.getInitialWeight());
+        Assertions.assertEquals(methods.size() - 1, current.getDepth());
+    }
+
+    private static StackTraceTreeNode child(StackTraceTreeNode node, String methodName) {
+        return node.getChildren().stream()
+                .filter(child -> child.getPayload().getMethodName().equals(methodName))
+                .findFirst().orElseThrow();
+    }
+}
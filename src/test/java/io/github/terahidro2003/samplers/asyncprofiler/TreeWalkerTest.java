@@ -0,0 +1,117 @@
+package io.github.terahidro2003.samplers.asyncprofiler;
+
+import io.github.terahidro2003.cct.TreeUtils;
+import io.github.terahidro2003.cct.TreeWalker;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TreeWalkerTest {
+
+    @Test
+    public void testPreAndPostOrder() {
+        StackTraceTreeNode tree = TreeFixtures.tree(List.of(
+                List.of("a()", "b()", "c()"),
+                List.of("a()", "b()", "d()"),
+                List.of("a()", "e()")));
+        tree.getChildren().add(0, null);
+
+        List<String> visits = new ArrayList<>();
+        boolean completed = TreeWalker.walk(tree, new TreeWalker.Visitor() {
+            @Override
+            public TreeWalker.Action enter(StackTraceTreeNode node, int depth) {
+                visits.add("+" + name(node) + depth);
+                return TreeWalker.Action.CONTINUE;
+            }
+
+            @Override
+            public void exit(StackTraceTreeNode node, int depth) {
+                visits.add("-" + name(node) + depth);
+            }
+        });
+
+        Assertions.assertTrue(completed);
+        Assertions.assertEquals(List.of("+a0", "+b1", "+c2", "-c2", "+d2", "-d2", "-b1", "+e1", "-e1", "-a0"), visits);
+    }
+
+    @Test
+    public void testSkipAndTerminate() {
+        StackTraceTreeNode tree = TreeFixtures.tree(List.of(
+                List.of("a()", "b()", "c()"),
+                List.of("a()", "d()", "e()"),
+                List.of("a()", "f()")));
+
+        List<String> visits = new ArrayList<>();
+        boolean completed = TreeWalker.walk(tree, new TreeWalker.Visitor() {
+            @Override
+            public TreeWalker.Action enter(StackTraceTreeNode node, int depth) {
+                visits.add("+" + name(node));
+                if (name(node).equals("b")) {
+                    return TreeWalker.Action.SKIP_SUBTREE;
+                }
+                return name(node).equals("e") ? TreeWalker.Action.TERMINATE : TreeWalker.Action.CONTINUE;
+            }
+
+            @Override
+            public void exit(StackTraceTreeNode node, int depth) {
+                visits.add("-" + name(node));
+            }
+        });
+
+        Assertions.assertFalse(completed);
+        Assertions.assertEquals(List.of("+a", "+b", "-b", "+d", "+e"), visits);
+        Assertions.assertEquals("e", name(TreeWalker.find(tree, node -> node.getChildren().isEmpty() && name(node).compareTo("c") > 0)));
+        Assertions.assertNull(TreeWalker.find(tree, node -> name(node).equals("x")));
+    }
+
+    @Test
+    public void testLastChildFirst() {
+        StackTraceTreeNode tree = TreeFixtures.tree(List.of(
+                List.of("a()", "b()", "c()"),
+                List.of("a()", "b()", "d()"),
+                List.of("a()", "e()")));
+        tree.getChildren().add(null);
+
+        List<String> visits = new ArrayList<>();
+        TreeWalker.forEach(tree, node -> visits.add(name(node)), true);
+        Assertions.assertEquals(List.of("a", "e", "b", "d", "c"), visits);
+    }
+
+    @Test
+    public void testSearchOrderOfStackLoops() {
+        StackTraceTreeNode tree = TreeFixtures.tree(List.of(
+                List.of("a()", "b()", "testMe()"),
+                List.of("a()", "testMe()", "c()", "testMe()")));
+
+        // like the former stack-based loops, the later sibling is found first
+        StackTraceTreeNode found = TreeUtils.search("testMe()", tree);
+        Assertions.assertEquals("a", name(found.getParent()));
+        Assertions.assertEquals(List.of("a", "c", "b"), TreeUtils.filterMultiple("testMe()", tree, false).stream()
+                .map(node -> name(node.getParent()))
+                .toList());
+    }
+
+    @Test
+    public void testDeepTree() {
+        List<String> methods = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            methods.add("method" + i + "()");
+        }
+        StackTraceTreeNode tree = TreeFixtures.tree(List.of(methods));
+
+        int[] maxDepth = new int[1];
+        TreeWalker.walk(tree, (node, depth) -> {
+            maxDepth[0] = Math.max(maxDepth[0], depth);
+            return TreeWalker.Action.CONTINUE;
+        });
+        Assertions.assertEquals(methods.size() - 1, maxDepth[0]);
+    }
+
+    private static String name(StackTraceTreeNode node) {
+        String methodName = node.getPayload().getMethodName();
+        return methodName.substring(0, methodName.indexOf('('));
+    }
+}
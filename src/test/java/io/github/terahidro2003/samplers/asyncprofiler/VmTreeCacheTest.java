@@ -0,0 +1,128 @@
+package io.github.terahidro2003.samplers.asyncprofiler;
+
+import io.github.terahidro2003.cct.FrameExclusionFilter;
+import io.github.terahidro2003.cct.builder.IterativeContextTreeBuilder;
+import io.github.terahidro2003.cct.builder.JfrTreeBuilder;
+import io.github.terahidro2003.cct.builder.VmTreeCache;
+import io.github.terahidro2003.cct.result.StackTraceTreeNode;
+import io.github.terahidro2003.config.Config;
+import io.github.terahidro2003.config.Constants;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+public class VmTreeCacheTest {
+
+    final String testcase = "testMe()";
+    final String commit = "55bbfafd67ee1f7dc721ea945714a324708787c6";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testCachedTreesEqualParsedTrees() throws IOException {
+        List<File> jfrs = TreeFixtures.copyIterativeSamples(tempDir);
+        long commitJfrs = jfrs.stream().filter(jfr -> jfr.getName().contains(commit)).count();
+        VmTreeCache cache = new VmTreeCache(64 << 20);
+        StackTraceTreeNode expected = new IterativeContextTreeBuilder().buildTree(jfrs, commit, testcase, true, false, 0);
+
+        IterativeContextTreeBuilder builder = new IterativeContextTreeBuilder(true, cache);
+        StackTraceTreeNode first = builder.buildTree(jfrs, commit, testcase, true, false, 0);
+        Assertions.assertEquals(0, cache.getHits());
+        Assertions.assertEquals(commitJfrs, cache.size());
+
+        // the cached trees must not be affected by merging the returned trees
+        StackTraceTreeNode second = builder.buildTree(jfrs, commit, testcase, true, false, 0);
+        Assertions.assertEquals(commitJfrs, cache.getHits());
+
+        String json = Constants.OBJECT_MAPPER.writeValueAsString(expected);
+        Assertions.assertEquals(json, Constants.OBJECT_MAPPER.writeValueAsString(first));
+        Assertions.assertEquals(json, Constants.OBJECT_MAPPER.writeValueAsString(second));
+
+        // another testcase and other exclusions are cut from the same cached stack traces
+        String nested = expected.getChildren().get(0).getPayload().getMethodName();
+        StackTraceTreeNode nestedTree = builder.buildTree(jfrs, commit, nested, false, false, 0);
+        Assertions.assertEquals(2 * commitJfrs, cache.getHits());
+        Assertions.assertEquals(commitJfrs, cache.getMisses());
+        Assertions.assertEquals(Constants.OBJECT_MAPPER.writeValueAsString(
+                        new IterativeContextTreeBuilder().buildTree(jfrs, commit, nested, false, false, 0)),
+                Constants.OBJECT_MAPPER.writeValueAsString(nestedTree));
+    }
+
+    @Test
+    public void testKeyAndEviction() throws IOException {
+        List<File> jfrs = TreeFixtures.copyIterativeSamples(tempDir);
+        File jfr = tempDir.resolve("recording.jfr").toFile();
+        Files.copy(jfrs.get(0).toPath(), jfr.toPath());
+
+        VmTreeCache cache = new VmTreeCache(64 << 20);
+        new JfrTreeBuilder(testcase, FrameExclusionFilter.JVM_NODES, cache).buildFromJfr(jfr);
+        new JfrTreeBuilder(testcase, FrameExclusionFilter.JVM_NODES, cache).buildFromJfr(jfr);
+        new JfrTreeBuilder(testcase, null, cache).buildFromJfr(jfr);
+        Assertions.assertNull(new JfrTreeBuilder("unknownTestcase()", null, cache).buildFromJfr(jfr));
+        Assertions.assertNull(new JfrTreeBuilder("unknownTestcase()", null, cache).buildFromJfr(jfr));
+        Assertions.assertEquals(4, cache.getHits());
+        Assertions.assertEquals(1, cache.getMisses());
+
+        // a recording that was only touched is checksummed again, but not parsed again
+        Files.setLastModifiedTime(jfr.toPath(), FileTime.fromMillis(jfr.lastModified() + 60_000));
+        new JfrTreeBuilder(testcase, null, cache).buildFromJfr(jfr);
+        Assertions.assertEquals(5, cache.getHits());
+
+        // another recording at the same path is parsed again
+        Files.copy(jfrs.get(1).toPath(), jfr.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        StackTraceTreeNode replaced = new JfrTreeBuilder(testcase, null, cache).buildFromJfr(jfr);
+        Assertions.assertEquals(2, cache.getMisses());
+        Assertions.assertEquals(Constants.OBJECT_MAPPER.writeValueAsString(new JfrTreeBuilder(testcase, null).buildFromJfr(jfr)),
+                Constants.OBJECT_MAPPER.writeValueAsString(replaced));
+
+        // a cache that only fits one tree evicts the least recently used one
+        long firstTree = encodedSize(jfrs.get(0));
+        long secondTree = encodedSize(jfrs.get(1));
+        long maxBytes = Math.max(firstTree, secondTree) + Math.min(firstTree, secondTree) / 2;
+        VmTreeCache small = new VmTreeCache(maxBytes);
+        new JfrTreeBuilder(testcase, null, small).buildFromJfr(jfrs.get(0));
+        new JfrTreeBuilder(testcase, null, small).buildFromJfr(jfrs.get(1));
+        Assertions.assertEquals(1, small.size());
+        Assertions.assertEquals(secondTree, small.getBytes());
+        new JfrTreeBuilder(testcase, null, small).buildFromJfr(jfrs.get(1));
+        Assertions.assertEquals(1, small.getHits());
+    }
+
+    @Test
+    public void testBatchUsesCachedStackTraces() throws IOException {
+        File jfr = TreeFixtures.copyIterativeSamples(tempDir).get(0);
+        VmTreeCache cache = new VmTreeCache(64 << 20);
+        StackTraceTreeNode testMe = new JfrTreeBuilder(testcase, null, cache).buildFromJfr(jfr);
+        String nested = testMe.getChildren().get(0).getPayload().getMethodName();
+
+        Map<String, StackTraceTreeNode> trees = new JfrTreeBuilder(List.of(testcase, nested), null, cache).buildAllFromJfr(jfr);
+        Assertions.assertEquals(1, cache.getHits());
+        Assertions.assertEquals(1, cache.getMisses());
+        Assertions.assertEquals(Constants.OBJECT_MAPPER.writeValueAsString(testMe), Constants.OBJECT_MAPPER.writeValueAsString(trees.get(testcase)));
+        Assertions.assertEquals(Constants.OBJECT_MAPPER.writeValueAsString(new JfrTreeBuilder(nested, null).buildFromJfr(jfr)),
+                Constants.OBJECT_MAPPER.writeValueAsString(trees.get(nested)));
+    }
+
+    @Test
+    public void testConfiguration() {
+        Assertions.assertNull(VmTreeCache.of(Config.builder().build()));
+        VmTreeCache cache = VmTreeCache.of(Config.builder().treeCacheBytes(1 << 20).build());
+        Assertions.assertNotNull(cache);
+    }
+
+    private long encodedSize(File jfr) {
+        VmTreeCache cache = new VmTreeCache(64 << 20);
+        new JfrTreeBuilder(testcase, null, cache).buildFromJfr(jfr);
+        return cache.getBytes();
+    }
+}